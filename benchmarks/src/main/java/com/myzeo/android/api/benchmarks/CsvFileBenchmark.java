@@ -0,0 +1,89 @@
+/*
+ * Copyright (C) 2011 Zeo Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.myzeo.android.api.benchmarks;
+
+import com.myzeo.android.api.data.export.ExportSink;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * End to end cost of producing the CSV file: building the whole String and writing it through an
+ * OutputStreamWriter as the demo originally did, against streaming through {@link ExportSink} into
+ * a FileChannel.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class CsvFileBenchmark {
+
+    private File mFile;
+
+    @Setup(Level.Trial)
+    public void createFile() throws IOException {
+        mFile = File.createTempFile("sleep_data", ".csv");
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteFile() {
+        mFile.delete();
+    }
+
+    @Benchmark
+    public long stringThenWriter(SleepDataset data) throws IOException {
+        final String csv = LegacyCsv.build(data);
+        Writer writer = new OutputStreamWriter(new FileOutputStream(mFile));
+        try {
+            writer.write(csv);
+        } finally {
+            writer.close();
+        }
+        return mFile.length();
+    }
+
+    @Benchmark
+    public long exportSinkChannel(SleepDataset data) throws IOException {
+        ExportSink sink = new ExportSink(new FileOutputStream(mFile).getChannel(),
+                                         ExportSink.DEFAULT_BUFFER_SIZE);
+        try {
+            SinkCsv.write(data, sink);
+        } finally {
+            sink.close();
+        }
+        return sink.bytesWritten();
+    }
+}
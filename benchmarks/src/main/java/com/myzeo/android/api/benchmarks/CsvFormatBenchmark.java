@@ -0,0 +1,70 @@
+/*
+ * Copyright (C) 2011 Zeo Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.myzeo.android.api.benchmarks;
+
+import com.myzeo.android.api.data.export.ExportSink;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Row formatting cost of the whole dataset as CSV: the demo's original StringBuilder approach
+ * against {@link ExportSink}. Both produce identical bytes; output is discarded so only formatting
+ * is measured.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CsvFormatBenchmark {
+
+    @Benchmark
+    public String stringBuilder(SleepDataset data) {
+        return LegacyCsv.build(data);
+    }
+
+    @Benchmark
+    public long exportSink(SleepDataset data) throws IOException {
+        ExportSink sink = new ExportSink(new DiscardOutputStream());
+        SinkCsv.write(data, sink);
+        sink.close();
+        return sink.bytesWritten();
+    }
+
+    /**
+     * Stream that drops everything written to it.
+     */
+    static final class DiscardOutputStream extends OutputStream {
+        @Override
+        public void write(int b) {
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+        }
+    }
+}
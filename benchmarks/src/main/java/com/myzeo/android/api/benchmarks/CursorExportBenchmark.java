@@ -0,0 +1,119 @@
+/*
+ * Copyright (C) 2011 Zeo Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.myzeo.android.api.benchmarks;
+
+import com.myzeo.android.api.benchmarks.synthetic.SyntheticDataset;
+import com.myzeo.android.api.data.export.ExportSink;
+import com.myzeo.android.api.data.export.RecordStreamExporter;
+import com.myzeo.android.api.data.export.SleepRecordCsvExporter;
+
+import android.database.Cursor;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link SleepRecordCsvExporter} and {@link RecordStreamExporter} reading through a cursor, as on
+ * a device, over a {@link SyntheticDataset} of several users. The scan baseline reads every
+ * exported column without formatting, so the difference between it and an export is the
+ * exporter's own cost.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CursorExportBenchmark {
+
+    @Param({"10"})
+    public int users;
+
+    @Param({"1", "5"})
+    public int years;
+
+    private SyntheticDataset mDataset;
+
+    @Setup(Level.Trial)
+    public void generate() {
+        mDataset = new SyntheticDataset(years, users, years);
+    }
+
+    @Benchmark
+    public long scan() {
+        final Cursor cursor = mDataset.querySleepRecords(SleepRecordCsvExporter.DEFAULT_PROJECTION);
+        final int columns = cursor.getColumnCount();
+        long checksum = 0;
+        while (cursor.moveToNext()) {
+            for (int i = 0; i < columns; i++) {
+                final String name = cursor.getColumnName(i);
+                if (name.endsWith("hypnogram")) {
+                    checksum += cursor.getBlob(i).length;
+                } else if (name.equals("timezone")) {
+                    checksum += cursor.getString(i).length();
+                } else {
+                    checksum += cursor.getLong(i);
+                }
+            }
+        }
+        cursor.close();
+        return checksum;
+    }
+
+    @Benchmark
+    public long csvExport() throws IOException {
+        final Cursor cursor = mDataset.querySleepRecords(SleepRecordCsvExporter.DEFAULT_PROJECTION);
+        ExportSink sink = new ExportSink(new CsvFormatBenchmark.DiscardOutputStream());
+        new SleepRecordCsvExporter().export(cursor, sink);
+        sink.close();
+        cursor.close();
+        return sink.bytesWritten();
+    }
+
+    @Benchmark
+    public long ndjsonExport() throws IOException {
+        return export(RecordStreamExporter.FORMAT_NDJSON);
+    }
+
+    @Benchmark
+    public long binaryExport() throws IOException {
+        return export(RecordStreamExporter.FORMAT_BINARY);
+    }
+
+    private long export(int format) throws IOException {
+        final Cursor cursor = mDataset.querySleepRecords(SleepRecordCsvExporter.DEFAULT_PROJECTION);
+        ExportSink sink = new ExportSink(new CsvFormatBenchmark.DiscardOutputStream());
+        new RecordStreamExporter(RecordStreamExporter.TABLE_SLEEP_RECORD, format,
+                                 SleepRecordCsvExporter.DEFAULT_PROJECTION).export(cursor, sink);
+        sink.close();
+        cursor.close();
+        return sink.bytesWritten();
+    }
+}
@@ -0,0 +1,138 @@
+/*
+ * Copyright (C) 2011 Zeo Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.myzeo.android.api.benchmarks;
+
+import com.myzeo.android.api.data.HypnogramAnalyzer;
+import com.myzeo.android.api.data.HypnogramCodec;
+import com.myzeo.android.api.data.HypnogramDownsampler;
+import com.myzeo.android.api.data.HypnogramStats;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Whole history hypnogram work: encoding and decoding with {@link HypnogramCodec}, per night stage
+ * statistics with {@link HypnogramAnalyzer} and display bucket derivation with
+ * {@link HypnogramDownsampler}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class HypnogramBenchmark {
+
+    private byte[][] mPacked;
+    private byte[][] mRuns;
+    private byte[] mScratch;
+    private byte[] mStages;
+    private final HypnogramStats mStats = new HypnogramStats();
+    private final HypnogramDownsampler mDownsampler = new HypnogramDownsampler();
+
+    @Setup(Level.Trial)
+    public void encode(SleepDataset data) {
+        mPacked = new byte[data.nights][];
+        mRuns = new byte[data.nights][];
+        int longest = 0;
+        for (int i = 0; i < data.nights; i++) {
+            final byte[] base = data.baseHypnogram[i];
+            longest = Math.max(longest, base.length);
+            mPacked[i] = encode(base, HypnogramCodec.FORMAT_PACKED);
+            mRuns[i] = encode(base, HypnogramCodec.FORMAT_RUN_LENGTH);
+        }
+        mScratch = new byte[HypnogramCodec.maxEncodedSize(longest,
+                                                          HypnogramCodec.FORMAT_RUN_LENGTH)];
+        mStages = new byte[longest];
+    }
+
+    private static byte[] encode(byte[] stages, int format) {
+        final byte[] encoded = new byte[HypnogramCodec.maxEncodedSize(stages.length, format)];
+        final int length = HypnogramCodec.encode(stages, 0, stages.length, format, encoded, 0);
+        final byte[] trimmed = new byte[length];
+        System.arraycopy(encoded, 0, trimmed, 0, length);
+        return trimmed;
+    }
+
+    @Benchmark
+    public int encodePacked(SleepDataset data) {
+        int bytes = 0;
+        for (byte[] base : data.baseHypnogram) {
+            bytes += HypnogramCodec.encode(base, 0, base.length, HypnogramCodec.FORMAT_PACKED,
+                                           mScratch, 0);
+        }
+        return bytes;
+    }
+
+    @Benchmark
+    public int encodeRunLength(SleepDataset data) {
+        int bytes = 0;
+        for (byte[] base : data.baseHypnogram) {
+            bytes += HypnogramCodec.encode(base, 0, base.length,
+                                           HypnogramCodec.FORMAT_RUN_LENGTH, mScratch, 0);
+        }
+        return bytes;
+    }
+
+    @Benchmark
+    public int decodePacked() {
+        int epochs = 0;
+        for (byte[] packed : mPacked) {
+            epochs += HypnogramCodec.decode(packed, 0, packed.length, mStages, 0);
+        }
+        return epochs;
+    }
+
+    @Benchmark
+    public int decodeRunLength() {
+        int epochs = 0;
+        for (byte[] runs : mRuns) {
+            epochs += HypnogramCodec.decode(runs, 0, runs.length, mStages, 0);
+        }
+        return epochs;
+    }
+
+    @Benchmark
+    public int analyze(SleepDataset data) {
+        int totalZ = 0;
+        for (byte[] base : data.baseHypnogram) {
+            totalZ += HypnogramAnalyzer.analyze(base, 0, base.length, mStats).totalZ;
+        }
+        return totalZ;
+    }
+
+    @Benchmark
+    public int downsample(SleepDataset data) {
+        int buckets = 0;
+        for (byte[] base : data.baseHypnogram) {
+            final int written = mDownsampler.write(base, 0, base.length, mStages, 0);
+            buckets += written + mDownsampler.flush(mStages, written);
+        }
+        return buckets;
+    }
+}
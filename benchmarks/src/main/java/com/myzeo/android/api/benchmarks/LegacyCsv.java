@@ -0,0 +1,66 @@
+/*
+ * Copyright (C) 2011 Zeo Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.myzeo.android.api.benchmarks;
+
+import com.myzeo.android.api.data.export.SleepRecordCsvExporter;
+
+/**
+ * Reproduction of the CSV demo's original buildCsv(): one StringBuilder for the whole export, a
+ * concatenated String per field and a Byte.toString per hypnogram epoch. Kept as the regression
+ * baseline.
+ */
+final class LegacyCsv {
+
+    private LegacyCsv() {
+    }
+
+    static String build(SleepDataset data) {
+        StringBuilder builder = new StringBuilder();
+        String delim = "";
+        for (String column : SleepRecordCsvExporter.DEFAULT_PROJECTION) {
+            builder.append(delim).append(column);
+            delim = ",";
+        }
+        builder.append("\n");
+
+        for (int i = 0; i < data.nights; i++) {
+            builder.append(data.localizedStartOfNight[i] + ",");
+            builder.append(data.startOfNight[i] + ",");
+            builder.append(data.endOfNight[i] + ",");
+            builder.append(data.timezone[i] + ",");
+            builder.append(data.zqScore[i] + ",");
+            builder.append(data.awakenings[i] + ",");
+            builder.append(data.timeInDeep[i] + ",");
+            builder.append(data.timeInLight[i] + ",");
+            builder.append(data.timeInRem[i] + ",");
+            builder.append(data.timeInWake[i] + ",");
+            builder.append(data.timeToZ[i] + ",");
+            builder.append(data.totalZ[i] + ",");
+            builder.append(data.source[i] + ",");
+            builder.append(data.endReason[i] + ",");
+            for (byte stage : data.displayHypnogram[i]) {
+                builder.append(Byte.toString(stage));
+            }
+            builder.append(",");
+            for (byte stage : data.baseHypnogram[i]) {
+                builder.append(Byte.toString(stage));
+            }
+            builder.append("\n");
+        }
+        return builder.toString();
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright (C) 2011 Zeo Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.myzeo.android.api.benchmarks;
+
+import com.myzeo.android.api.data.rollup.NightColumns;
+import com.myzeo.android.api.data.rollup.SleepRollups;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.HashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Calendar rollups of the whole history with {@link SleepRollups}, on the calling thread and split
+ * across every core.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class RollupBenchmark {
+
+    @Param({"1", "2", "3"})
+    public int period;
+
+    private NightColumns mColumns;
+    private ExecutorService mExecutor;
+    private int mThreads;
+
+    @Setup(Level.Trial)
+    public void load(SleepDataset data) {
+        final int[] codes = new int[data.nights];
+        final HashMap<String, Integer> dictionary = new HashMap<String, Integer>();
+        for (int i = 0; i < data.nights; i++) {
+            Integer code = dictionary.get(data.timezone[i]);
+            if (code == null) {
+                code = dictionary.size();
+                dictionary.put(data.timezone[i], code);
+            }
+            codes[i] = code;
+        }
+        final String[] timezones = new String[dictionary.size()];
+        for (String timezone : dictionary.keySet()) {
+            timezones[dictionary.get(timezone)] = timezone;
+        }
+        mColumns = new NightColumns(data.nights, data.startOfNight, codes, timezones,
+                                    data.zqScore, data.totalZ, data.timeInDeep, data.timeInRem,
+                                    data.awakenings);
+        mThreads = Runtime.getRuntime().availableProcessors();
+        mExecutor = Executors.newFixedThreadPool(mThreads);
+    }
+
+    @TearDown(Level.Trial)
+    public void shutdown() {
+        mExecutor.shutdown();
+    }
+
+    @Benchmark
+    public int serial() {
+        return SleepRollups.compute(mColumns, period).size();
+    }
+
+    @Benchmark
+    public int parallel() throws InterruptedException {
+        return SleepRollups.compute(mColumns, period, mExecutor, mThreads).size();
+    }
+}
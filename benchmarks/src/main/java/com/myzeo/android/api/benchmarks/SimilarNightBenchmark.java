@@ -0,0 +1,128 @@
+/*
+ * Copyright (C) 2011 Zeo Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.myzeo.android.api.benchmarks;
+
+import com.myzeo.android.api.benchmarks.synthetic.SyntheticDataset;
+import com.myzeo.android.api.data.HypnogramStats;
+import com.myzeo.android.api.data.SimilarNightIndex;
+
+import android.database.Cursor;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Top ten {@link SimilarNightIndex} searches over a {@link SyntheticDataset}'s nights, against a
+ * brute force scan of the same sketches.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class SimilarNightBenchmark {
+
+    private static final int K = 10;
+
+    @Param({"10"})
+    public int users;
+
+    @Param({"1", "8"})
+    public int years;
+
+    private SimilarNightIndex mIndex;
+    private float[] mSketches;
+    private final List<byte[]> mNights = new ArrayList<byte[]>();
+    private final long[] mIds = new long[K];
+    private final float[] mDistances = new float[K];
+    private final float[] mQuery = new float[SimilarNightIndex.DIMENSIONS];
+    private final HypnogramStats mStats = new HypnogramStats();
+    private int mNext;
+
+    @Setup(Level.Trial)
+    public void build() {
+        final Cursor cursor = new SyntheticDataset(years, users, years).querySleepRecords(null);
+        mIndex = SimilarNightIndex.forSleepRecords(cursor);
+        final int dimensions = SimilarNightIndex.DIMENSIONS;
+        mSketches = new float[mIndex.size() * dimensions];
+        final int column = cursor.getColumnIndexOrThrow("base_hypnogram");
+        int row = 0;
+        cursor.moveToPosition(-1);
+        while (cursor.moveToNext()) {
+            final byte[] stages = cursor.getBlob(column);
+            mNights.add(stages);
+            SimilarNightIndex.sketch(stages, 0, stages.length, mStats, mSketches,
+                                     row++ * dimensions);
+        }
+        // Order the index outside of the measurement.
+        mIndex.nearest(mNights.get(0), 0, mNights.get(0).length, -1, mIds, mDistances);
+    }
+
+    private byte[] nextNight() {
+        mNext = (mNext + 7919) % mNights.size();
+        return mNights.get(mNext);
+    }
+
+    @Benchmark
+    public long nearest() {
+        final byte[] stages = nextNight();
+        mIndex.nearest(stages, 0, stages.length, -1, mIds, mDistances);
+        return mIds[K - 1];
+    }
+
+    @Benchmark
+    public int bruteForce() {
+        final byte[] stages = nextNight();
+        SimilarNightIndex.sketch(stages, 0, stages.length, mStats, mQuery, 0);
+        final int dimensions = SimilarNightIndex.DIMENSIONS;
+        final float[] best = new float[K];
+        Arrays.fill(best, Float.POSITIVE_INFINITY);
+        int bestRow = -1;
+        for (int row = 0, base = 0; base < mSketches.length; row++, base += dimensions) {
+            float sum = 0;
+            for (int d = 0; d < dimensions; d++) {
+                final float difference = mQuery[d] - mSketches[base + d];
+                sum += difference * difference;
+            }
+            if (sum < best[K - 1]) {
+                int i = K - 1;
+                for (; i > 0 && best[i - 1] > sum; i--) {
+                    best[i] = best[i - 1];
+                }
+                best[i] = sum;
+                bestRow = row;
+            }
+        }
+        return bestRow;
+    }
+}
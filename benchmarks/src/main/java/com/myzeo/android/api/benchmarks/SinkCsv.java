@@ -0,0 +1,80 @@
+/*
+ * Copyright (C) 2011 Zeo Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.myzeo.android.api.benchmarks;
+
+import com.myzeo.android.api.data.export.ExportSink;
+import com.myzeo.android.api.data.export.SleepRecordCsvExporter;
+
+import java.io.IOException;
+
+/**
+ * The {@link SleepRecordCsvExporter} row layout driven from the dataset's columns instead of a
+ * cursor.
+ */
+final class SinkCsv {
+
+    private SinkCsv() {
+    }
+
+    static void write(SleepDataset data, ExportSink sink) throws IOException {
+        final String[] projection = SleepRecordCsvExporter.DEFAULT_PROJECTION;
+        for (int i = 0; i < projection.length; i++) {
+            if (i > 0) {
+                sink.writeByte(',');
+            }
+            sink.writeAscii(projection[i]);
+        }
+        sink.writeByte('\n');
+
+        for (int i = 0; i < data.nights; i++) {
+            sink.writeDecimal(data.localizedStartOfNight[i]);
+            sink.writeByte(',');
+            sink.writeDecimal(data.startOfNight[i]);
+            sink.writeByte(',');
+            sink.writeDecimal(data.endOfNight[i]);
+            sink.writeByte(',');
+            sink.writeUtf8(data.timezone[i]);
+            sink.writeByte(',');
+            sink.writeDecimal(data.zqScore[i]);
+            sink.writeByte(',');
+            sink.writeDecimal(data.awakenings[i]);
+            sink.writeByte(',');
+            sink.writeDecimal(data.timeInDeep[i]);
+            sink.writeByte(',');
+            sink.writeDecimal(data.timeInLight[i]);
+            sink.writeByte(',');
+            sink.writeDecimal(data.timeInRem[i]);
+            sink.writeByte(',');
+            sink.writeDecimal(data.timeInWake[i]);
+            sink.writeByte(',');
+            sink.writeDecimal(data.timeToZ[i]);
+            sink.writeByte(',');
+            sink.writeDecimal(data.totalZ[i]);
+            sink.writeByte(',');
+            sink.writeDecimal(data.source[i]);
+            sink.writeByte(',');
+            sink.writeDecimal(data.endReason[i]);
+            sink.writeByte(',');
+            final byte[] display = data.displayHypnogram[i];
+            sink.writeDigits(display, 0, display.length);
+            sink.writeByte(',');
+            final byte[] base = data.baseHypnogram[i];
+            sink.writeDigits(base, 0, base.length);
+            sink.writeByte('\n');
+        }
+    }
+}
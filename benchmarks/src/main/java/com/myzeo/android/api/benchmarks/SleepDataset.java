@@ -0,0 +1,114 @@
+/*
+ * Copyright (C) 2011 Zeo Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.myzeo.android.api.benchmarks;
+
+import static com.myzeo.android.api.data.ZeoDataContract.SleepRecord;
+
+import com.myzeo.android.api.benchmarks.synthetic.SyntheticDataset;
+import com.myzeo.android.api.data.SleepRecordView;
+
+import android.database.Cursor;
+
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Deterministic synthetic sleep record columns covering one night per day for the configured
+ * number of years, read from a single user {@link SyntheticDataset}.
+ */
+@State(Scope.Benchmark)
+public class SleepDataset {
+
+    /** Years of nightly history. */
+    @Param({"1", "5", "20"})
+    public int years;
+
+    public int nights;
+    public long[] localizedStartOfNight;
+    public long[] startOfNight;
+    public long[] endOfNight;
+    public String[] timezone;
+    public int[] zqScore;
+    public int[] awakenings;
+    public int[] timeInDeep;
+    public int[] timeInLight;
+    public int[] timeInRem;
+    public int[] timeInWake;
+    public int[] timeToZ;
+    public int[] totalZ;
+    public int[] source;
+    public int[] endReason;
+    public byte[][] displayHypnogram;
+    public byte[][] baseHypnogram;
+
+    /** Total base epochs across all nights. */
+    public long epochs;
+
+    @Setup(Level.Trial)
+    public void generate() {
+        final SyntheticDataset dataset = new SyntheticDataset(years, 1, years);
+        nights = dataset.getEpisodeCount();
+        localizedStartOfNight = new long[nights];
+        startOfNight = new long[nights];
+        endOfNight = new long[nights];
+        timezone = new String[nights];
+        zqScore = new int[nights];
+        awakenings = new int[nights];
+        timeInDeep = new int[nights];
+        timeInLight = new int[nights];
+        timeInRem = new int[nights];
+        timeInWake = new int[nights];
+        timeToZ = new int[nights];
+        totalZ = new int[nights];
+        source = new int[nights];
+        endReason = new int[nights];
+        displayHypnogram = new byte[nights][];
+        baseHypnogram = new byte[nights][];
+
+        // Only the phone's record of each night; the web's copies would repeat the same night.
+        final Cursor cursor = dataset.querySleepRecords(null);
+        int i = 0;
+        while (cursor.moveToNext()) {
+            if (cursor.getInt(SleepRecordView.FIELD_SOURCE) != SleepRecord.DATA_SOURCE_PRIMARY) {
+                continue;
+            }
+            localizedStartOfNight[i] =
+                cursor.getLong(SleepRecordView.FIELD_LOCALIZED_START_OF_NIGHT);
+            startOfNight[i] = cursor.getLong(SleepRecordView.FIELD_START_OF_NIGHT);
+            endOfNight[i] = cursor.getLong(SleepRecordView.FIELD_END_OF_NIGHT);
+            timezone[i] = cursor.getString(SleepRecordView.FIELD_TIMEZONE);
+            zqScore[i] = cursor.getInt(SleepRecordView.FIELD_ZQ_SCORE);
+            awakenings[i] = cursor.getInt(SleepRecordView.FIELD_AWAKENINGS);
+            timeInDeep[i] = cursor.getInt(SleepRecordView.FIELD_TIME_IN_DEEP);
+            timeInLight[i] = cursor.getInt(SleepRecordView.FIELD_TIME_IN_LIGHT);
+            timeInRem[i] = cursor.getInt(SleepRecordView.FIELD_TIME_IN_REM);
+            timeInWake[i] = cursor.getInt(SleepRecordView.FIELD_TIME_IN_WAKE);
+            timeToZ[i] = cursor.getInt(SleepRecordView.FIELD_TIME_TO_Z);
+            totalZ[i] = cursor.getInt(SleepRecordView.FIELD_TOTAL_Z);
+            source[i] = cursor.getInt(SleepRecordView.FIELD_SOURCE);
+            endReason[i] = cursor.getInt(SleepRecordView.FIELD_END_REASON);
+            displayHypnogram[i] = cursor.getBlob(SleepRecordView.FIELD_DISPLAY_HYPNOGRAM);
+            baseHypnogram[i] = cursor.getBlob(SleepRecordView.FIELD_BASE_HYPNOGRAM);
+            epochs += baseHypnogram[i].length;
+            i++;
+        }
+        cursor.close();
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright (C) 2011 Zeo Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.myzeo.android.api.benchmarks;
+
+import com.myzeo.android.api.benchmarks.synthetic.SyntheticDataset;
+import com.myzeo.android.api.data.AlarmAlertEventView;
+import com.myzeo.android.api.data.AlarmSnoozeEventView;
+import com.myzeo.android.api.data.AlarmTimeoutEventView;
+import com.myzeo.android.api.data.SleepEpisodeAssembler;
+import com.myzeo.android.api.data.SleepEpisodeView;
+import com.myzeo.android.api.data.SleepRecordView;
+import com.myzeo.android.api.data.rollup.SmartWakeAnalyzer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link SmartWakeAnalyzer} over a {@link SyntheticDataset}, against a bare
+ * {@link SleepEpisodeAssembler} pass over the same cursors whose cost it includes.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SmartWakeBenchmark {
+
+    @Param({"10"})
+    public int users;
+
+    @Param({"1", "5"})
+    public int years;
+
+    private SyntheticDataset mDataset;
+
+    @Setup(Level.Trial)
+    public void generate() {
+        mDataset = new SyntheticDataset(years, users, years);
+    }
+
+    @Benchmark
+    public int assemble() {
+        return new SleepEpisodeAssembler().assemble(
+            mDataset.querySleepEpisodes(SleepEpisodeView.PROJECTION),
+            mDataset.querySleepRecords(SleepRecordView.PROJECTION),
+            mDataset.queryAlarmAlertEvents(AlarmAlertEventView.PROJECTION),
+            mDataset.queryAlarmSnoozeEvents(AlarmSnoozeEventView.PROJECTION),
+            mDataset.queryAlarmTimeoutEvents(AlarmTimeoutEventView.PROJECTION),
+            new SleepEpisodeAssembler.Listener() {
+                @Override
+                public void onNight(SleepEpisodeAssembler.Night night) {
+                }
+            });
+    }
+
+    @Benchmark
+    public SmartWakeAnalyzer analyze() {
+        SmartWakeAnalyzer analyzer = new SmartWakeAnalyzer();
+        analyzer.analyze(mDataset.querySleepEpisodes(SleepEpisodeView.PROJECTION),
+                         mDataset.querySleepRecords(SleepRecordView.PROJECTION),
+                         mDataset.queryAlarmAlertEvents(AlarmAlertEventView.PROJECTION),
+                         mDataset.queryAlarmSnoozeEvents(AlarmSnoozeEventView.PROJECTION),
+                         mDataset.queryAlarmTimeoutEvents(AlarmTimeoutEventView.PROJECTION));
+        return analyzer;
+    }
+}
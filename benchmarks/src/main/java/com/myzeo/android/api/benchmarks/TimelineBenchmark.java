@@ -0,0 +1,66 @@
+/*
+ * Copyright (C) 2011 Zeo Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.myzeo.android.api.benchmarks;
+
+import com.myzeo.android.api.data.export.EpochTimelineExporter;
+import com.myzeo.android.api.data.export.ExportSink;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Expanding the whole dataset into one row per epoch with {@link EpochTimelineExporter}, as CSV
+ * and as binary. Output is discarded so only formatting is measured; divide by
+ * {@link SleepDataset#epochs} for the per-epoch cost.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TimelineBenchmark {
+
+    @Benchmark
+    public long csv(SleepDataset data) throws IOException {
+        return write(data, new EpochTimelineExporter(EpochTimelineExporter.FORMAT_CSV));
+    }
+
+    @Benchmark
+    public long binary(SleepDataset data) throws IOException {
+        return write(data, new EpochTimelineExporter(EpochTimelineExporter.FORMAT_BINARY));
+    }
+
+    private static long write(SleepDataset data, EpochTimelineExporter exporter)
+        throws IOException {
+        ExportSink sink = new ExportSink(new CsvFormatBenchmark.DiscardOutputStream());
+        exporter.writeHeader(sink);
+        for (int i = 0; i < data.nights; i++) {
+            final byte[] stages = data.baseHypnogram[i];
+            exporter.writeRecord(i + 1, data.startOfNight[i], stages, stages.length, sink);
+        }
+        sink.close();
+        return sink.bytesWritten();
+    }
+}
@@ -0,0 +1,366 @@
+/*
+ * Copyright (C) 2011 Zeo Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.myzeo.android.api.benchmarks.synthetic;
+
+import android.content.ContentResolver;
+import android.database.CharArrayBuffer;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.database.DataSetObserver;
+import android.net.Uri;
+import android.os.Bundle;
+
+/**
+ * Read only {@link Cursor} whose rows are computed on demand rather than held in a window.
+ *
+ * <p>
+ *
+ * It implements the interface directly, touching no Android class at runtime, so it also works on
+ * a plain JVM against the SDK's stub jar. Subclasses describe a table by the full list of its
+ * column names and produce values by table column index after {@link #load(int)} has positioned
+ * them on a row; the projection passed at construction selects and orders the columns exposed.
+ * Observers are accepted and never called since the data cannot change.
+ *
+ * </p>
+ */
+abstract class SyntheticCursor implements Cursor {
+
+    /** Values of the FIELD_TYPE_* constants Cursor gained in API level 11. */
+    static final int TYPE_NULL = 0;
+    static final int TYPE_INTEGER = 1;
+    static final int TYPE_STRING = 3;
+    static final int TYPE_BLOB = 4;
+
+    private final String[] mColumnNames;
+    /** Table column index of each exposed column. */
+    private final int[] mColumns;
+    private final int mCount;
+    private int mPosition = -1;
+    private int mLoaded = -1;
+    private boolean mClosed;
+
+    /**
+     * @param tableColumns every column of the table, in table column index order.
+     * @param projection columns to expose, or null for all of them.
+     * @throws IllegalArgumentException if the projection names a column the table lacks.
+     */
+    SyntheticCursor(String[] tableColumns, String[] projection, int count) {
+        if (projection == null) {
+            projection = tableColumns;
+        }
+        mColumnNames = projection.clone();
+        mColumns = new int[projection.length];
+        for (int i = 0; i < projection.length; i++) {
+            mColumns[i] = indexOf(tableColumns, projection[i]);
+            if (mColumns[i] < 0) {
+                throw new IllegalArgumentException("No such column: " + projection[i]);
+            }
+        }
+        mCount = count;
+    }
+
+    private static int indexOf(String[] names, String name) {
+        for (int i = 0; i < names.length; i++) {
+            if (names[i].equals(name)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /** Compute the row at position, which is within [0, count). */
+    protected abstract void load(int position);
+
+    /** @return one of the TYPE_* constants for a table column of the loaded row. */
+    protected abstract int type(int column);
+
+    /** @return value of an integer table column of the loaded row. */
+    protected abstract long longValue(int column);
+
+    /** @return value of a string table column of the loaded row. */
+    protected abstract String stringValue(int column);
+
+    /**
+     * @return value of a blob table column of the loaded row; callers copy it before handing it
+     *     out.
+     */
+    protected abstract byte[] blobValue(int column);
+
+    /** @return the loaded row's length of a blob table column. */
+    protected abstract int blobLength(int column);
+
+    private int column(int columnIndex) {
+        if (mPosition < 0 || mPosition >= mCount) {
+            throw new IndexOutOfBoundsException("Index " + mPosition + " requested, with a size of "
+                                                + mCount);
+        }
+        if (mLoaded != mPosition) {
+            load(mPosition);
+            mLoaded = mPosition;
+        }
+        return mColumns[columnIndex];
+    }
+
+    @Override
+    public int getCount() {
+        return mCount;
+    }
+
+    @Override
+    public int getPosition() {
+        return mPosition;
+    }
+
+    @Override
+    public boolean move(int offset) {
+        return moveToPosition(mPosition + offset);
+    }
+
+    @Override
+    public boolean moveToPosition(int position) {
+        if (position >= mCount) {
+            mPosition = mCount;
+            return false;
+        }
+        if (position < 0) {
+            mPosition = -1;
+            return false;
+        }
+        mPosition = position;
+        return true;
+    }
+
+    @Override
+    public boolean moveToFirst() {
+        return moveToPosition(0);
+    }
+
+    @Override
+    public boolean moveToLast() {
+        return moveToPosition(mCount - 1);
+    }
+
+    @Override
+    public boolean moveToNext() {
+        return moveToPosition(mPosition + 1);
+    }
+
+    @Override
+    public boolean moveToPrevious() {
+        return moveToPosition(mPosition - 1);
+    }
+
+    @Override
+    public boolean isFirst() {
+        return mPosition == 0 && mCount != 0;
+    }
+
+    @Override
+    public boolean isLast() {
+        return mPosition == mCount - 1 && mCount != 0;
+    }
+
+    @Override
+    public boolean isBeforeFirst() {
+        return mCount == 0 || mPosition == -1;
+    }
+
+    @Override
+    public boolean isAfterLast() {
+        return mCount == 0 || mPosition == mCount;
+    }
+
+    @Override
+    public int getColumnIndex(String columnName) {
+        return indexOf(mColumnNames, columnName);
+    }
+
+    @Override
+    public int getColumnIndexOrThrow(String columnName) {
+        final int index = getColumnIndex(columnName);
+        if (index < 0) {
+            throw new IllegalArgumentException("column '" + columnName + "' does not exist");
+        }
+        return index;
+    }
+
+    @Override
+    public String getColumnName(int columnIndex) {
+        return mColumnNames[columnIndex];
+    }
+
+    @Override
+    public String[] getColumnNames() {
+        return mColumnNames.clone();
+    }
+
+    @Override
+    public int getColumnCount() {
+        return mColumnNames.length;
+    }
+
+    /** Implements Cursor#getType where the platform has it. */
+    public int getType(int columnIndex) {
+        return type(column(columnIndex));
+    }
+
+    @Override
+    public boolean isNull(int columnIndex) {
+        return type(column(columnIndex)) == TYPE_NULL;
+    }
+
+    @Override
+    public byte[] getBlob(int columnIndex) {
+        final int column = column(columnIndex);
+        switch (type(column)) {
+        case TYPE_NULL:
+            return null;
+        case TYPE_BLOB:
+            final byte[] blob = new byte[blobLength(column)];
+            System.arraycopy(blobValue(column), 0, blob, 0, blob.length);
+            return blob;
+        default:
+            throw new IllegalStateException("Column " + columnIndex + " is not a blob");
+        }
+    }
+
+    @Override
+    public String getString(int columnIndex) {
+        final int column = column(columnIndex);
+        switch (type(column)) {
+        case TYPE_NULL:
+            return null;
+        case TYPE_INTEGER:
+            return Long.toString(longValue(column));
+        case TYPE_STRING:
+            return stringValue(column);
+        default:
+            throw new IllegalStateException("Column " + columnIndex + " is a blob");
+        }
+    }
+
+    @Override
+    public void copyStringToBuffer(int columnIndex, CharArrayBuffer buffer) {
+        final String value = getString(columnIndex);
+        if (value == null) {
+            buffer.sizeCopied = 0;
+            return;
+        }
+        final int length = value.length();
+        if (buffer.data == null || buffer.data.length < length) {
+            buffer.data = value.toCharArray();
+        } else {
+            value.getChars(0, length, buffer.data, 0);
+        }
+        buffer.sizeCopied = length;
+    }
+
+    @Override
+    public long getLong(int columnIndex) {
+        final int column = column(columnIndex);
+        switch (type(column)) {
+        case TYPE_INTEGER:
+            return longValue(column);
+        case TYPE_STRING:
+            try {
+                return Long.parseLong(stringValue(column));
+            } catch (NumberFormatException e) {
+                return 0;
+            }
+        default:
+            return 0;
+        }
+    }
+
+    @Override
+    public short getShort(int columnIndex) {
+        return (short) getLong(columnIndex);
+    }
+
+    @Override
+    public int getInt(int columnIndex) {
+        return (int) getLong(columnIndex);
+    }
+
+    @Override
+    public float getFloat(int columnIndex) {
+        return getLong(columnIndex);
+    }
+
+    @Override
+    public double getDouble(int columnIndex) {
+        return getLong(columnIndex);
+    }
+
+    @Deprecated
+    @Override
+    public void deactivate() {
+    }
+
+    @Deprecated
+    @Override
+    public boolean requery() {
+        return !mClosed;
+    }
+
+    @Override
+    public void close() {
+        mClosed = true;
+    }
+
+    @Override
+    public boolean isClosed() {
+        return mClosed;
+    }
+
+    @Override
+    public void registerContentObserver(ContentObserver observer) {
+    }
+
+    @Override
+    public void unregisterContentObserver(ContentObserver observer) {
+    }
+
+    @Override
+    public void registerDataSetObserver(DataSetObserver observer) {
+    }
+
+    @Override
+    public void unregisterDataSetObserver(DataSetObserver observer) {
+    }
+
+    @Override
+    public void setNotificationUri(ContentResolver resolver, Uri uri) {
+    }
+
+    @Override
+    public boolean getWantsAllOnMoveCalls() {
+        return false;
+    }
+
+    /** @return null; there are no extras and Bundle cannot be created off device. */
+    @Override
+    public Bundle getExtras() {
+        return null;
+    }
+
+    /** @return null; no commands are understood. */
+    @Override
+    public Bundle respond(Bundle extras) {
+        return null;
+    }
+}
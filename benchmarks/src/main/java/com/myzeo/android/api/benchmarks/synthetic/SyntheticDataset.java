@@ -0,0 +1,567 @@
+/*
+ * Copyright (C) 2011 Zeo Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.myzeo.android.api.benchmarks.synthetic;
+
+import com.myzeo.android.api.data.AlarmAlertEventView;
+import com.myzeo.android.api.data.AlarmSnoozeEventView;
+import com.myzeo.android.api.data.AlarmTimeoutEventView;
+import com.myzeo.android.api.data.HeadbandView;
+import com.myzeo.android.api.data.SleepEpisodeView;
+import com.myzeo.android.api.data.SleepRecordView;
+import com.myzeo.android.api.data.ZeoDataContract.Headband;
+import com.myzeo.android.api.data.ZeoDataContract.SleepRecord;
+
+import android.database.Cursor;
+
+/**
+ * Deterministic synthetic contents of the Zeo provider for a number of users over a number of
+ * days, exposed as cursors over each table so that exporters, caches and benchmarks can be run at
+ * scale on a plain JVM.
+ *
+ * <p>
+ *
+ * Every user has one headband and sleeps once a day. Each night is a sleep episode with a sleep
+ * record from the phone; one in eight also has a {@link SleepRecord#DATA_SOURCE_REMOTE} copy
+ * synced back from the web, occasionally missing its last few epochs. Hypnograms follow sleep
+ * onset and roughly 90 minute cycles, and the TIME_IN_*, TIME_TO_Z, TOTAL_Z, AWAKENINGS and
+ * ZQ_SCORE columns are computed from them. Seven nights in ten end with an alarm, some snoozed and
+ * some timing out; smart alarms ring on a stage transition within their wake window.
+ *
+ * </p>
+ *
+ * <p>
+ *
+ * Rows are generated when a cursor visits them, from a hash of the seed and the night, so memory
+ * use is a few ints per row however large the dataset and the same seed always yields the same
+ * rows. Night n belongs to user n % users on day n / users. Rows are in {@link SleepRecord#_ID}
+ * order, which is night order in every table, with the records and events of an episode
+ * adjacent.
+ *
+ * </p>
+ *
+ * <p>
+ *
+ * The dataset is immutable and may be shared; each cursor is confined to one thread.
+ *
+ * </p>
+ */
+public class SyntheticDataset {
+
+    /** First day used unless specified, 2010-01-01T00:00Z. */
+    public static final long DEFAULT_FIRST_DAY_MILLIS = 1262304000000L;
+
+    private final long mSeed;
+    private final int mUsers;
+    private final int mDays;
+    private final long mFirstDayMillis;
+    private final int mNights;
+
+    /** Night of each sleep record row shifted left once, low bit set for the remote copy. */
+    private final int[] mRecordRows;
+    private final int[] mAlertNights;
+    /** Night of each snooze row shifted left twice, low bits holding the snooze's index. */
+    private final int[] mSnoozeRows;
+    private final int[] mTimeoutNights;
+
+    /**
+     * @param years of 365 days from {@link #DEFAULT_FIRST_DAY_MILLIS}.
+     */
+    public SyntheticDataset(long seed, int users, int years) {
+        this(seed, users, years * 365, DEFAULT_FIRST_DAY_MILLIS);
+    }
+
+    /**
+     * @param firstDayMillis midnight UTC of the first day; users go to bed on that date in their
+     *     own zones.
+     */
+    public SyntheticDataset(long seed, int users, int days, long firstDayMillis) {
+        if (users <= 0 || days <= 0) {
+            throw new IllegalArgumentException("users and days must be positive");
+        }
+        if ((long) users * days > (Integer.MAX_VALUE >> 2)) {
+            throw new IllegalArgumentException("Too many nights: " + ((long) users * days));
+        }
+        mSeed = seed;
+        mUsers = users;
+        mDays = days;
+        mFirstDayMillis = firstDayMillis;
+        mNights = users * days;
+
+        int records = 0;
+        int alerts = 0;
+        int snoozes = 0;
+        int timeouts = 0;
+        for (int night = 0; night < mNights; night++) {
+            final int flags = SyntheticNight.structure(seed, night);
+            records += (flags & SyntheticNight.HAS_REMOTE) != 0 ? 2 : 1;
+            if ((flags & SyntheticNight.HAS_ALARM) != 0) {
+                alerts++;
+                snoozes += SyntheticNight.snoozes(flags);
+                if ((flags & SyntheticNight.HAS_TIMEOUT) != 0) {
+                    timeouts++;
+                }
+            }
+        }
+
+        mRecordRows = new int[records];
+        mAlertNights = new int[alerts];
+        mSnoozeRows = new int[snoozes];
+        mTimeoutNights = new int[timeouts];
+        records = 0;
+        alerts = 0;
+        snoozes = 0;
+        timeouts = 0;
+        for (int night = 0; night < mNights; night++) {
+            final int flags = SyntheticNight.structure(seed, night);
+            mRecordRows[records++] = night << 1;
+            if ((flags & SyntheticNight.HAS_REMOTE) != 0) {
+                mRecordRows[records++] = night << 1 | 1;
+            }
+            if ((flags & SyntheticNight.HAS_ALARM) != 0) {
+                mAlertNights[alerts++] = night;
+                for (int i = 0; i < SyntheticNight.snoozes(flags); i++) {
+                    mSnoozeRows[snoozes++] = night << 2 | i;
+                }
+                if ((flags & SyntheticNight.HAS_TIMEOUT) != 0) {
+                    mTimeoutNights[timeouts++] = night;
+                }
+            }
+        }
+    }
+
+    public int getUserCount() {
+        return mUsers;
+    }
+
+    public int getDayCount() {
+        return mDays;
+    }
+
+    /** @return number of sleep episodes, one per user and day. */
+    public int getEpisodeCount() {
+        return mNights;
+    }
+
+    public int getRecordCount() {
+        return mRecordRows.length;
+    }
+
+    public int getAlertCount() {
+        return mAlertNights.length;
+    }
+
+    public int getSnoozeCount() {
+        return mSnoozeRows.length;
+    }
+
+    public int getTimeoutCount() {
+        return mTimeoutNights.length;
+    }
+
+    /**
+     * @param projection columns of {@link SleepRecordView#PROJECTION}, or null for all.
+     * @throws IllegalArgumentException if a column does not exist.
+     */
+    public Cursor querySleepRecords(String[] projection) {
+        return new RecordCursor(projection);
+    }
+
+    /**
+     * @param projection columns of {@link SleepEpisodeView#PROJECTION}, or null for all.
+     */
+    public Cursor querySleepEpisodes(String[] projection) {
+        return new EpisodeCursor(projection);
+    }
+
+    /**
+     * @param projection columns of {@link HeadbandView#PROJECTION}, or null for all.
+     */
+    public Cursor queryHeadbands(String[] projection) {
+        return new HeadbandCursor(projection);
+    }
+
+    /**
+     * @param projection columns of {@link AlarmAlertEventView#PROJECTION}, or null for all.
+     */
+    public Cursor queryAlarmAlertEvents(String[] projection) {
+        return new AlertCursor(projection);
+    }
+
+    /**
+     * @param projection columns of {@link AlarmSnoozeEventView#PROJECTION}, or null for all.
+     */
+    public Cursor queryAlarmSnoozeEvents(String[] projection) {
+        return new SnoozeCursor(projection);
+    }
+
+    /**
+     * @param projection columns of {@link AlarmTimeoutEventView#PROJECTION}, or null for all.
+     */
+    public Cursor queryAlarmTimeoutEvents(String[] projection) {
+        return new TimeoutCursor(projection);
+    }
+
+    /** Cursor over a table whose rows each belong to one night. */
+    private abstract class NightCursor extends SyntheticCursor {
+        final SyntheticNight mNight = new SyntheticNight();
+        long mId;
+
+        NightCursor(String[] tableColumns, String[] projection, int count) {
+            super(tableColumns, projection, count);
+        }
+
+        void load(int position, int night, boolean remote) {
+            mNight.generate(mSeed, mUsers, mFirstDayMillis, night, remote);
+            mId = position + 1;
+        }
+
+        @Override
+        protected String stringValue(int column) {
+            throw new IllegalStateException();
+        }
+
+        @Override
+        protected byte[] blobValue(int column) {
+            throw new IllegalStateException();
+        }
+
+        @Override
+        protected int blobLength(int column) {
+            throw new IllegalStateException();
+        }
+    }
+
+    private class RecordCursor extends NightCursor {
+        RecordCursor(String[] projection) {
+            super(SleepRecordView.PROJECTION, projection, mRecordRows.length);
+        }
+
+        @Override
+        protected void load(int position) {
+            final int row = mRecordRows[position];
+            load(position, row >>> 1, (row & 1) != 0);
+        }
+
+        @Override
+        protected int type(int column) {
+            switch (column) {
+            case SleepRecordView.FIELD_BASE_HYPNOGRAM:
+            case SleepRecordView.FIELD_DISPLAY_HYPNOGRAM:
+                return TYPE_BLOB;
+            case SleepRecordView.FIELD_TIMEZONE:
+                return TYPE_STRING;
+            default:
+                return TYPE_INTEGER;
+            }
+        }
+
+        @Override
+        protected long longValue(int column) {
+            final SyntheticNight night = mNight;
+            switch (column) {
+            case SleepRecordView.FIELD_ID:
+                return mId;
+            case SleepRecordView.FIELD_CREATED_ON:
+                return night.createdOn;
+            case SleepRecordView.FIELD_UPDATED_ON:
+                return night.updatedOn;
+            case SleepRecordView.FIELD_SLEEP_EPISODE_ID:
+                return night.night + 1;
+            case SleepRecordView.FIELD_AWAKENINGS:
+                return night.awakenings;
+            case SleepRecordView.FIELD_BASE_HYPNOGRAM_COUNT:
+                return night.baseCount;
+            case SleepRecordView.FIELD_DISPLAY_HYPNOGRAM_COUNT:
+                return night.displayCount;
+            case SleepRecordView.FIELD_END_OF_NIGHT:
+                return night.endOfNight;
+            case SleepRecordView.FIELD_END_REASON:
+                return night.endReason;
+            case SleepRecordView.FIELD_HEADBAND_ID:
+                return night.user + 1;
+            case SleepRecordView.FIELD_LOCALIZED_START_OF_NIGHT:
+                return night.localizedStartOfNight;
+            case SleepRecordView.FIELD_SOURCE:
+                return night.remote
+                    ? SleepRecord.DATA_SOURCE_REMOTE : SleepRecord.DATA_SOURCE_PRIMARY;
+            case SleepRecordView.FIELD_START_OF_NIGHT:
+                return night.startOfNight;
+            case SleepRecordView.FIELD_TIME_IN_DEEP:
+                return night.timeInDeep;
+            case SleepRecordView.FIELD_TIME_IN_LIGHT:
+                return night.timeInLight;
+            case SleepRecordView.FIELD_TIME_IN_REM:
+                return night.timeInRem;
+            case SleepRecordView.FIELD_TIME_IN_WAKE:
+                return night.timeInWake;
+            case SleepRecordView.FIELD_TIME_TO_Z:
+                return night.timeToZ;
+            case SleepRecordView.FIELD_TOTAL_Z:
+                return night.totalZ;
+            case SleepRecordView.FIELD_ZQ_SCORE:
+                return night.zqScore;
+            default:
+                throw new IllegalStateException();
+            }
+        }
+
+        @Override
+        protected String stringValue(int column) {
+            return mNight.timezone;
+        }
+
+        @Override
+        protected byte[] blobValue(int column) {
+            return column == SleepRecordView.FIELD_BASE_HYPNOGRAM ? mNight.base : mNight.display;
+        }
+
+        @Override
+        protected int blobLength(int column) {
+            return column == SleepRecordView.FIELD_BASE_HYPNOGRAM
+                ? mNight.baseCount : mNight.displayCount;
+        }
+    }
+
+    private class EpisodeCursor extends NightCursor {
+        EpisodeCursor(String[] projection) {
+            super(SleepEpisodeView.PROJECTION, projection, mNights);
+        }
+
+        @Override
+        protected void load(int position) {
+            load(position, position, false);
+        }
+
+        @Override
+        protected int type(int column) {
+            return column == SleepEpisodeView.FIELD_TIMEZONE ? TYPE_STRING : TYPE_INTEGER;
+        }
+
+        @Override
+        protected long longValue(int column) {
+            switch (column) {
+            case SleepEpisodeView.FIELD_ID:
+                return mId;
+            case SleepEpisodeView.FIELD_CREATED_ON:
+                return mNight.createdOn;
+            case SleepEpisodeView.FIELD_UPDATED_ON:
+                return mNight.updatedOn;
+            case SleepEpisodeView.FIELD_START_TIMESTAMP:
+                return mNight.startOfNight;
+            case SleepEpisodeView.FIELD_END_TIMESTAMP:
+                return mNight.endOfNight;
+            default:
+                throw new IllegalStateException();
+            }
+        }
+
+        @Override
+        protected String stringValue(int column) {
+            return mNight.timezone;
+        }
+    }
+
+    private class AlertCursor extends NightCursor {
+        AlertCursor(String[] projection) {
+            super(AlarmAlertEventView.PROJECTION, projection, mAlertNights.length);
+        }
+
+        @Override
+        protected void load(int position) {
+            load(position, mAlertNights[position], false);
+        }
+
+        @Override
+        protected int type(int column) {
+            return column == AlarmAlertEventView.FIELD_WAKE_TONE ? TYPE_STRING : TYPE_INTEGER;
+        }
+
+        @Override
+        protected long longValue(int column) {
+            switch (column) {
+            case AlarmAlertEventView.FIELD_ID:
+                return mId;
+            case AlarmAlertEventView.FIELD_CREATED_ON:
+            case AlarmAlertEventView.FIELD_UPDATED_ON:
+            case AlarmAlertEventView.FIELD_TIMESTAMP:
+                return mNight.alarmTimestamp;
+            case AlarmAlertEventView.FIELD_SLEEP_EPISODE_ID:
+                return mNight.night + 1;
+            case AlarmAlertEventView.FIELD_REASON:
+                return mNight.alarmReason;
+            case AlarmAlertEventView.FIELD_SMART_WAKE:
+                return mNight.smartWake ? 1 : 0;
+            case AlarmAlertEventView.FIELD_WAKE_WINDOW:
+                return mNight.wakeWindow;
+            default:
+                throw new IllegalStateException();
+            }
+        }
+
+        @Override
+        protected String stringValue(int column) {
+            return mNight.wakeTone;
+        }
+    }
+
+    private class SnoozeCursor extends NightCursor {
+        private int mIndex;
+
+        SnoozeCursor(String[] projection) {
+            super(AlarmSnoozeEventView.PROJECTION, projection, mSnoozeRows.length);
+        }
+
+        @Override
+        protected void load(int position) {
+            final int row = mSnoozeRows[position];
+            load(position, row >>> 2, false);
+            mIndex = row & 3;
+        }
+
+        @Override
+        protected int type(int column) {
+            return TYPE_INTEGER;
+        }
+
+        @Override
+        protected long longValue(int column) {
+            switch (column) {
+            case AlarmSnoozeEventView.FIELD_ID:
+                return mId;
+            case AlarmSnoozeEventView.FIELD_CREATED_ON:
+            case AlarmSnoozeEventView.FIELD_UPDATED_ON:
+            case AlarmSnoozeEventView.FIELD_TIMESTAMP:
+                return mNight.snoozeTimestamps[mIndex];
+            case AlarmSnoozeEventView.FIELD_SLEEP_EPISODE_ID:
+                return mNight.night + 1;
+            case AlarmSnoozeEventView.FIELD_DURATION:
+                return SyntheticNight.SNOOZE_MILLIS;
+            default:
+                throw new IllegalStateException();
+            }
+        }
+    }
+
+    private class TimeoutCursor extends NightCursor {
+        TimeoutCursor(String[] projection) {
+            super(AlarmTimeoutEventView.PROJECTION, projection, mTimeoutNights.length);
+        }
+
+        @Override
+        protected void load(int position) {
+            load(position, mTimeoutNights[position], false);
+        }
+
+        @Override
+        protected int type(int column) {
+            return TYPE_INTEGER;
+        }
+
+        @Override
+        protected long longValue(int column) {
+            switch (column) {
+            case AlarmTimeoutEventView.FIELD_ID:
+                return mId;
+            case AlarmTimeoutEventView.FIELD_CREATED_ON:
+            case AlarmTimeoutEventView.FIELD_UPDATED_ON:
+            case AlarmTimeoutEventView.FIELD_TIMESTAMP:
+                return mNight.timeoutTimestamp;
+            case AlarmTimeoutEventView.FIELD_SLEEP_EPISODE_ID:
+                return mNight.night + 1;
+            case AlarmTimeoutEventView.FIELD_DURATION:
+                return SyntheticNight.TIMEOUT_MILLIS;
+            default:
+                throw new IllegalStateException();
+            }
+        }
+    }
+
+    /** Headbands are per user and need no night. */
+    private class HeadbandCursor extends SyntheticCursor {
+        private long mHabits;
+        private int mUser;
+
+        HeadbandCursor(String[] projection) {
+            super(HeadbandView.PROJECTION, projection, mUsers);
+        }
+
+        @Override
+        protected void load(int position) {
+            mUser = position;
+            mHabits = SyntheticNight.userHash(mSeed, position);
+        }
+
+        @Override
+        protected int type(int column) {
+            switch (column) {
+            case HeadbandView.FIELD_BLUETOOTH_ADDRESS:
+            case HeadbandView.FIELD_BLUETOOTH_FRIENDLY_NAME:
+            case HeadbandView.FIELD_SW_VERSION:
+                return TYPE_STRING;
+            default:
+                return TYPE_INTEGER;
+            }
+        }
+
+        @Override
+        protected long longValue(int column) {
+            switch (column) {
+            case HeadbandView.FIELD_ID:
+                return mUser + 1;
+            case HeadbandView.FIELD_CREATED_ON:
+                return mFirstDayMillis - SyntheticNight.DAY;
+            case HeadbandView.FIELD_UPDATED_ON:
+                return mFirstDayMillis + mDays * SyntheticNight.DAY;
+            case HeadbandView.FIELD_ALGORITHM_MODE:
+                return Headband.ALGO_MODE_IDLE;
+            case HeadbandView.FIELD_BONDED:
+            case HeadbandView.FIELD_DOCKED:
+                return 1;
+            case HeadbandView.FIELD_CLOCK_OFFSET:
+                return (mHabits >>> 32) % 2000 - 1000;
+            case HeadbandView.FIELD_CONNECTED:
+            case HeadbandView.FIELD_ON_HEAD:
+                return 0;
+            default:
+                throw new IllegalStateException();
+            }
+        }
+
+        @Override
+        protected String stringValue(int column) {
+            switch (column) {
+            case HeadbandView.FIELD_BLUETOOTH_ADDRESS:
+                return String.format("00:07:80:%02X:%02X:%02X", (mHabits >>> 40) & 0xff,
+                                     (mHabits >>> 48) & 0xff, mHabits >>> 56);
+            case HeadbandView.FIELD_BLUETOOTH_FRIENDLY_NAME:
+                return String.format("Zeo %04X", mUser & 0xffff);
+            default:
+                return "2.6.3R0";
+            }
+        }
+
+        @Override
+        protected byte[] blobValue(int column) {
+            throw new IllegalStateException();
+        }
+
+        @Override
+        protected int blobLength(int column) {
+            throw new IllegalStateException();
+        }
+    }
+}
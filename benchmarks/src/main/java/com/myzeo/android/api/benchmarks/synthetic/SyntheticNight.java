@@ -0,0 +1,396 @@
+/*
+ * Copyright (C) 2011 Zeo Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.myzeo.android.api.benchmarks.synthetic;
+
+import com.myzeo.android.api.data.HypnogramDownsampler;
+import com.myzeo.android.api.data.TimeZoneCache;
+import com.myzeo.android.api.data.ZeoDataContract.AlarmAlertEvent;
+import com.myzeo.android.api.data.ZeoDataContract.SleepRecord;
+
+/**
+ * Generates one user's night: its sleep record, as recorded by the phone or synced back from the
+ * web, and the alarm events of its episode.
+ *
+ * <p>
+ *
+ * Everything is derived from a hash of the dataset seed and the night's index, so a night comes
+ * out the same whenever and in whichever order it is generated. Which tables a night has rows in
+ * is decided by {@link #structure(long, int)} alone, letting row counts be known without
+ * generating any night. An instance keeps its buffers between nights and regenerates only when
+ * asked for a different one.
+ *
+ * </p>
+ */
+final class SyntheticNight {
+
+    static final long SECOND = 1000;
+    static final long MINUTE = 60 * SECOND;
+    static final long DAY = 24 * 60 * MINUTE;
+    static final long EPOCH_MILLIS = 30 * SECOND;
+    static final int EPOCHS_PER_MINUTE = HypnogramDownsampler.EPOCHS_PER_MINUTE;
+
+    /** Longest night generated. */
+    static final int MAX_EPOCHS = 12 * 60 * EPOCHS_PER_MINUTE;
+
+    static final long SNOOZE_MILLIS = 9 * MINUTE;
+    static final long TIMEOUT_MILLIS = 10 * MINUTE;
+    static final int MAX_SNOOZES = 3;
+
+    /** The night also has a sleep record synced back from the web. */
+    static final int HAS_REMOTE = 1;
+    /** An alarm rang. */
+    static final int HAS_ALARM = 1 << 1;
+    /** The alarm, after any snoozes, silenced itself. */
+    static final int HAS_TIMEOUT = 1 << 2;
+    private static final int SNOOZE_SHIFT = 3;
+
+    /** Zones users live in, one per user. */
+    static final String[] ZONES = new String[] {
+        "America/New_York", "America/Chicago", "America/Denver", "America/Los_Angeles",
+        "Europe/London", "Europe/Berlin", "Asia/Tokyo", "Australia/Sydney"
+    };
+
+    private static final String[] WAKE_TONES = new String[] {
+        "content://com.myzeo.music/1", "content://com.myzeo.music/2",
+        "content://com.myzeo.music/3", "media://ringtone/1"
+    };
+
+    private static final long STRUCTURE_SALT = 0x5354525543545552L;
+    private static final long USER_SALT = 0x5553455255534552L;
+    private static final long REMOTE_SALT = 0x52454d4f54455245L;
+
+    private long mState;
+
+    int night = -1;
+    boolean remote;
+    int flags;
+    int user;
+    int day;
+    String timezone;
+    long startOfNight;
+    long endOfNight;
+    long localizedStartOfNight;
+    long createdOn;
+    long updatedOn;
+    int endReason;
+
+    final byte[] base = new byte[MAX_EPOCHS];
+    int baseCount;
+    final byte[] display = new byte[HypnogramDownsampler.bucketCount(
+        MAX_EPOCHS, HypnogramDownsampler.DISPLAY_BUCKET_EPOCHS)];
+    int displayCount;
+
+    int timeInDeep;
+    int timeInLight;
+    int timeInRem;
+    int timeInWake;
+    int timeToZ;
+    int totalZ;
+    int awakenings;
+    int zqScore;
+
+    boolean smartWake;
+    /** Minutes before the alarm time a smart alarm may ring. */
+    int wakeWindow;
+    String wakeTone;
+    int alarmReason;
+    long alarmTimestamp;
+    final long[] snoozeTimestamps = new long[MAX_SNOOZES];
+    int snoozeCount;
+    long timeoutTimestamp;
+
+    /**
+     * @return HAS_* flags and snooze count of the night, as later found by generate.
+     */
+    static int structure(long seed, int night) {
+        long hash = mix(seed ^ STRUCTURE_SALT, night);
+        int flags = 0;
+        if ((hash & 7) == 0) {
+            flags |= HAS_REMOTE;
+        }
+        hash >>>= 3;
+        if (hash % 10 < 7) {
+            flags |= HAS_ALARM;
+            hash /= 10;
+            // Half the alarms are not snoozed, a quarter once and the rest two or three times.
+            final int draw = (int) (hash & 7);
+            final int snoozes = draw < 4 ? 0 : draw < 6 ? 1 : draw < 7 ? 2 : 3;
+            flags |= snoozes << SNOOZE_SHIFT;
+            hash >>>= 3;
+            if (hash % 25 == 0) {
+                flags |= HAS_TIMEOUT;
+            }
+        }
+        return flags;
+    }
+
+    /** @return number of snoozes recorded in structure flags. */
+    static int snoozes(int flags) {
+        return (flags >> SNOOZE_SHIFT) & 3;
+    }
+
+    /** @return a well mixed hash of seed and value (SplitMix64). */
+    static long mix(long seed, long value) {
+        long z = seed + (value + 1) * 0x9e3779b97f4a7c15L;
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+
+    /** @return the hash describing a user's habits and headband. */
+    static long userHash(long seed, int user) {
+        return mix(seed ^ USER_SALT, user);
+    }
+
+    private int nextInt(int bound) {
+        mState += 0x9e3779b97f4a7c15L;
+        long z = mState;
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        z ^= z >>> 31;
+        return (int) ((z >>> 33) % bound);
+    }
+
+    /** @return roughly normal noise in [-range * 3 / 2, range * 3 / 2]. */
+    private int jitter(int range) {
+        return nextInt(range + 1) + nextInt(range + 1) + nextInt(range + 1) - range * 3 / 2;
+    }
+
+    /**
+     * Generate a night unless it is the one already held.
+     *
+     * @param night index of the night; user night % users on day night / users.
+     * @param remote generate the copy synced back from the web rather than the phone's own.
+     */
+    void generate(long seed, int users, long firstDayMillis, int night, boolean remote) {
+        if (this.night == night && this.remote == remote) {
+            return;
+        }
+        this.night = night;
+        this.remote = remote;
+        user = night % users;
+        day = night / users;
+        flags = structure(seed, night);
+        mState = mix(seed, night);
+
+        final long habits = userHash(seed, user);
+        timezone = ZONES[(int) ((habits >>> 1) % ZONES.length)];
+        final TimeZoneCache.Zone zone = TimeZoneCache.getDefault().get(timezone);
+        // Nights starting on a Friday or Saturday; 1970-01-01 was a Thursday.
+        final long epochDay = floorDiv(firstDayMillis, DAY) + day;
+        final long dayOfWeek = epochDay + 3 - floorDiv(epochDay + 3, 7) * 7;
+        final boolean weekend = dayOfWeek == 4 || dayOfWeek == 5;
+
+        // Each user goes to bed around a habitual time between 22:00 and 23:30, later on Friday
+        // and Saturday, and needs about seven hours.
+        final int bedtime = 22 * 60 + (int) ((habits >>> 8) % 90) + (weekend ? 45 : 0)
+            + jitter(40);
+        final long local = firstDayMillis + day * DAY + bedtime * MINUTE + nextInt(60) * SECOND;
+        startOfNight = local - zone.getOffset(local);
+        localizedStartOfNight = startOfNight + zone.getOffset(startOfNight);
+        final int minutes = 390 + (int) ((habits >>> 16) % 60) + (weekend ? 40 : 0)
+            + jitter(30);
+        int epochs = Math.max(240, Math.min(MAX_EPOCHS, minutes * EPOCHS_PER_MINUTE));
+
+        endReason = SleepRecord.END_REASON_COMPLETE;
+        final int fate = nextInt(100);
+        if (fate < 2) {
+            endReason = fate == 0
+                ? SleepRecord.END_REASON_BATTERY_DIED : SleepRecord.END_REASON_DISCONNECTED;
+            epochs = epochs * (40 + nextInt(50)) / 100;
+        }
+        fillHypnogram(epochs);
+        generateAlarm(habits);
+
+        if (remote) {
+            // The web copy sometimes lacks the last few epochs.
+            final long hash = mix(seed ^ REMOTE_SALT, night);
+            if ((hash & 3) == 0) {
+                baseCount -= 1 + (int) ((hash >>> 2) % 4);
+            }
+        }
+        computeTotals();
+        displayCount = HypnogramDownsampler.downsample(
+            base, 0, baseCount, HypnogramDownsampler.DISPLAY_BUCKET_EPOCHS,
+            HypnogramDownsampler.TIE_BREAK_FIRST, display, 0);
+        endOfNight = startOfNight + baseCount * EPOCH_MILLIS;
+        if (remote) {
+            createdOn = endOfNight + DAY + (mix(seed ^ REMOTE_SALT, ~night) >>> 40);
+            updatedOn = createdOn;
+        } else {
+            createdOn = startOfNight + MINUTE;
+            updatedOn = endOfNight + 5 * MINUTE;
+        }
+    }
+
+    /**
+     * Sleep onset followed by cycles of about 90 minutes, each going from light sleep to deep,
+     * back to light and to REM, with deep sleep shrinking and REM growing through the night.
+     */
+    private void fillHypnogram(int epochs) {
+        int i = fill(0, SleepRecord.SLEEP_STAGE_WAKE, 6 + nextInt(40), epochs);
+        for (int cycle = 0; i < epochs; cycle++) {
+            final int length = 160 + nextInt(60);
+            final int deep = Math.max(0, 70 - 20 * cycle + nextInt(21) - 10);
+            final int rem = Math.min(70, 10 + 12 * cycle + nextInt(10));
+            final int light = Math.max(10, length - deep - rem);
+            i = fill(i, SleepRecord.SLEEP_STAGE_LIGHT, light / 2, epochs);
+            i = fill(i, SleepRecord.SLEEP_STAGE_DEEP, deep, epochs);
+            i = fill(i, SleepRecord.SLEEP_STAGE_LIGHT, light - light / 2, epochs);
+            if (nextInt(4) == 0) {
+                i = fill(i, SleepRecord.SLEEP_STAGE_WAKE, 1 + nextInt(4), epochs);
+            }
+            i = fill(i, SleepRecord.SLEEP_STAGE_REM, rem, epochs);
+            if (nextInt(3) == 0) {
+                i = fill(i, SleepRecord.SLEEP_STAGE_WAKE, 1 + nextInt(8), epochs);
+            }
+        }
+        if (endReason == SleepRecord.END_REASON_COMPLETE) {
+            fill(Math.max(0, epochs - 2 - nextInt(10)), SleepRecord.SLEEP_STAGE_WAKE, epochs,
+                 epochs);
+        }
+        // Occasionally the signal drops for a while.
+        if (nextInt(40) == 0 && epochs > 120) {
+            fill(60 + nextInt(epochs - 120), SleepRecord.SLEEP_STAGE_UNDEFINED, 4 + nextInt(36),
+                 epochs);
+        }
+        baseCount = epochs;
+    }
+
+    /** @return the index after count epochs of stage from i, stopping at end. */
+    private int fill(int i, byte stage, int count, int end) {
+        final int stop = Math.min(end, i + count);
+        for (; i < stop; i++) {
+            base[i] = stage;
+        }
+        return stop;
+    }
+
+    /**
+     * Set the alarm a few minutes (and any snoozes) before the end of the night. A smart alarm
+     * rings at the first favorable stage transition within its wake window instead.
+     */
+    private void generateAlarm(long habits) {
+        smartWake = ((habits >>> 24) & 1) != 0;
+        wakeWindow = smartWake ? (((habits >>> 25) & 1) != 0 ? 30 : 20) : 0;
+        wakeTone = WAKE_TONES[(int) ((habits >>> 26) % WAKE_TONES.length)];
+        snoozeCount = snoozes(flags);
+        if ((flags & HAS_ALARM) == 0 || baseCount == 0) {
+            alarmReason = AlarmAlertEvent.ALARM_REASON_NONE;
+            alarmTimestamp = 0;
+            timeoutTimestamp = 0;
+            return;
+        }
+
+        final int snoozeEpochs = (int) (SNOOZE_MILLIS / EPOCH_MILLIS);
+        final int alarm = Math.max(0, baseCount - 1 - snoozeCount * snoozeEpochs - 4
+                                   - nextInt(16));
+        int ring = alarm;
+        alarmReason = AlarmAlertEvent.ALARM_REASON_NONE;
+        if (smartWake) {
+            for (int e = Math.max(1, alarm - wakeWindow * EPOCHS_PER_MINUTE); e <= alarm; e++) {
+                final int reason = reason(base[e - 1], base[e]);
+                if (reason != AlarmAlertEvent.ALARM_REASON_NONE) {
+                    alarmReason = reason;
+                    ring = e;
+                    break;
+                }
+            }
+        }
+        alarmTimestamp = startOfNight + ring * EPOCH_MILLIS + nextInt(30) * SECOND;
+
+        long rang = alarmTimestamp;
+        for (int i = 0; i < snoozeCount; i++) {
+            snoozeTimestamps[i] = rang + (5 + nextInt(55)) * SECOND;
+            rang = snoozeTimestamps[i] + SNOOZE_MILLIS;
+        }
+        timeoutTimestamp = (flags & HAS_TIMEOUT) != 0 ? rang + TIMEOUT_MILLIS : 0;
+    }
+
+    private static long floorDiv(long x, long y) {
+        final long q = x / y;
+        return (x % y != 0 && ((x ^ y) < 0)) ? q - 1 : q;
+    }
+
+    /** @return why a smart alarm would ring on moving from stage previous to stage. */
+    private static int reason(byte previous, byte stage) {
+        if (stage == SleepRecord.SLEEP_STAGE_WAKE) {
+            return AlarmAlertEvent.ALARM_REASON_WAKE_ON_WAKE;
+        }
+        if (previous == SleepRecord.SLEEP_STAGE_DEEP && stage != SleepRecord.SLEEP_STAGE_DEEP) {
+            return AlarmAlertEvent.ALARM_REASON_DEEP_RISING;
+        }
+        if (previous == SleepRecord.SLEEP_STAGE_LIGHT && stage == SleepRecord.SLEEP_STAGE_REM) {
+            return AlarmAlertEvent.ALARM_REASON_NREM_TO_REM_TRANSITION;
+        }
+        if (previous == SleepRecord.SLEEP_STAGE_REM && stage == SleepRecord.SLEEP_STAGE_LIGHT) {
+            return AlarmAlertEvent.ALARM_REASON_REM_TO_NREM_TRANSITION;
+        }
+        return AlarmAlertEvent.ALARM_REASON_NONE;
+    }
+
+    /**
+     * Derive the TIME_IN_*, TIME_TO_Z, TOTAL_Z, AWAKENINGS and ZQ_SCORE columns from the base
+     * hypnogram so that they always agree with it.
+     */
+    private void computeTotals() {
+        timeInDeep = 0;
+        timeInLight = 0;
+        timeInRem = 0;
+        timeInWake = 0;
+        timeToZ = -1;
+        awakenings = 0;
+        boolean awake = false;
+        for (int e = 0; e < baseCount; e++) {
+            final byte stage = base[e];
+            switch (stage) {
+            case SleepRecord.SLEEP_STAGE_DEEP:
+                timeInDeep++;
+                break;
+            case SleepRecord.SLEEP_STAGE_LIGHT:
+                timeInLight++;
+                break;
+            case SleepRecord.SLEEP_STAGE_REM:
+                timeInRem++;
+                break;
+            case SleepRecord.SLEEP_STAGE_WAKE:
+                timeInWake++;
+                break;
+            default:
+                continue;
+            }
+            final boolean asleep = stage != SleepRecord.SLEEP_STAGE_WAKE;
+            if (asleep && timeToZ < 0) {
+                timeToZ = e;
+            } else if (asleep && awake) {
+                // A wake run between two periods of sleep.
+                awakenings++;
+            }
+            if (timeToZ >= 0) {
+                awake = !asleep;
+            }
+        }
+        if (timeToZ < 0) {
+            timeToZ = baseCount;
+        }
+        totalZ = timeInDeep + timeInLight + timeInRem;
+        // Zeo's published approximation, with times in hours.
+        final double zq = totalZ / 120.0 + timeInRem / 240.0 + timeInDeep * 1.5 / 120.0
+            - timeInWake / 240.0 - awakenings / 15.0;
+        zqScore = (int) Math.max(0, Math.round(8.5 * zq));
+    }
+}
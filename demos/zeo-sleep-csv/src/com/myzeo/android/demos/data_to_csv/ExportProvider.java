@@ -0,0 +1,148 @@
+/*
+ * Copyright (C) 2011 Zeo Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.myzeo.android.demos.data_to_csv;
+
+import com.myzeo.android.api.data.export.CompressedExport;
+
+import android.content.ContentProvider;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.net.Uri;
+import android.os.ParcelFileDescriptor;
+import android.provider.OpenableColumns;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Serves the app's CSV export gzip compressed to the app it is shared with. The compressed bytes
+ * are produced by a writer thread into a pipe as the receiving app reads them; nothing is written
+ * to external storage.
+ *
+ * <p>
+ *
+ * Any path is accepted and its last segment is reported as the display name, so the sharing
+ * activity picks the file name the receiver sees.
+ *
+ * </p>
+ *
+ * <p>
+ *
+ * The provider is exported since, before API 16, the read permission granted with a share covers
+ * only the intent's data and not the {@link android.content.Intent#EXTRA_STREAM} attachment. It
+ * is read only: files open in mode "r" alone and every modification is unsupported.
+ *
+ * </p>
+ */
+public class ExportProvider extends ContentProvider {
+
+    private static final String TAG = ExportProvider.class.getSimpleName();
+
+    /** Authority declared in the manifest. */
+    public static final String AUTHORITY = "com.myzeo.android.demos.data_to_csv.export";
+
+    /**
+     * @return the URI serving the compressed export under the given file name.
+     */
+    public static Uri getUri(String filename) {
+        return Uri.parse("content://" + AUTHORITY + "/" + filename);
+    }
+
+    @Override
+    public boolean onCreate() {
+        return true;
+    }
+
+    @Override
+    public String getType(Uri uri) {
+        return CompressedExport.MIME_TYPE;
+    }
+
+    @Override
+    public Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs,
+                        String sortOrder) {
+        if (projection == null) {
+            projection = new String[] { OpenableColumns.DISPLAY_NAME, OpenableColumns.SIZE };
+        }
+        final Object[] row = new Object[projection.length];
+        for (int i = 0; i < projection.length; i++) {
+            if (OpenableColumns.DISPLAY_NAME.equals(projection[i])) {
+                row[i] = uri.getLastPathSegment();
+            }
+            // The compressed size is not known until the stream has been read.
+        }
+        MatrixCursor cursor = new MatrixCursor(projection);
+        cursor.addRow(row);
+        return cursor;
+    }
+
+    @Override
+    public ParcelFileDescriptor openFile(Uri uri, String mode) throws FileNotFoundException {
+        if (!"r".equals(mode)) {
+            throw new FileNotFoundException("Read only: " + uri);
+        }
+        final File export = new File(getContext().getFilesDir(), MainActivity.EXPORT_FILENAME);
+        if (!export.exists()) {
+            throw new FileNotFoundException("No export yet");
+        }
+
+        final ParcelFileDescriptor[] pipe;
+        try {
+            pipe = ParcelFileDescriptor.createPipe();
+        } catch (IOException e) {
+            throw new FileNotFoundException("Unable to create pipe: " + e.getMessage());
+        }
+        final OutputStream out = new ParcelFileDescriptor.AutoCloseOutputStream(pipe[1]);
+        new Thread("ExportProvider") {
+            @Override
+            public void run() {
+                try {
+                    CompressedExport.write(export, out);
+                } catch (IOException e) {
+                    // Usually the reader closed its end early.
+                    Log.w(TAG, "Failure to stream the compressed export.", e);
+                } finally {
+                    try {
+                        out.close();
+                    } catch (IOException e) {
+                        Log.w(TAG, "Failure to close the pipe.");
+                    }
+                }
+            }
+        }.start();
+        return pipe[0];
+    }
+
+    @Override
+    public Uri insert(Uri uri, ContentValues values) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public int update(Uri uri, ContentValues values, String selection, String[] selectionArgs) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public int delete(Uri uri, String selection, String[] selectionArgs) {
+        throw new UnsupportedOperationException();
+    }
+}
@@ -16,27 +16,28 @@
 
 package com.myzeo.android.demos.data_to_csv;
 
-import static com.myzeo.android.api.data.ZeoDataContract.SleepRecord;
+import com.myzeo.android.api.data.export.CompressedExport;
+import com.myzeo.android.api.data.export.IncrementalCsvExport;
+import com.myzeo.android.api.data.export.SleepRecordCsvExporter;
 
 import android.app.Activity;
 import android.content.Intent;
-import android.database.Cursor;
-import android.net.Uri;
+import android.os.AsyncTask;
 import android.os.Bundle;
-import android.os.Environment;
 import android.text.format.DateFormat;
 import android.text.format.DateUtils;
 import android.util.Log;
 import android.view.View;
 import android.widget.Button;
+import android.widget.ProgressBar;
 import android.widget.TextView;
 import android.widget.Toast;
 
+import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileOutputStream;
+import java.io.FileReader;
 import java.io.IOException;
-import java.io.OutputStreamWriter;
-import java.io.Writer;
+import java.io.InterruptedIOException;
 
 /**
  * Main entry point for the zeo CSV generator software.
@@ -45,19 +46,45 @@ public class MainActivity extends Activity {
 
     private static final String TAG = MainActivity.class.getSimpleName();
 
-    /** String that will contain the complete CSV gathered from the Zeo data provider. */
-    private String mSleepCsv;
+    /** Name of the CSV export kept in the app's private files. */
+    static final String EXPORT_FILENAME = "sleep_records.csv";
+
+    /**
+     * Export of the Zeo data provider's sleep records updated incrementally on every resume. Shared
+     * by every instance of the activity so a task started on resume waits for a cancelled one
+     * still finishing, rather than updating the same file alongside it.
+     */
+    private static IncrementalCsvExport sExport;
+
+    /** This activity's handle on {@link #sExport}, null if its state could not be loaded. */
+    private IncrementalCsvExport mExport;
+
+    /** Number of CSV lines, header included, shown in the preview. */
+    private static final int PREVIEW_LINES = 101;
+
+    /** Export update running in the background, if any. */
+    private ExportTask mExportTask;
+
+    private Button mShareButton;
+    private ProgressBar mProgress;
+    private TextView mStatus;
+    private TextView mPreview;
 
     @Override
     public void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
         setContentView(R.layout.main);
 
-        Button shareButton = (Button) findViewById(R.id.share_data);
-        shareButton.setOnClickListener(new View.OnClickListener() {
+        mExport = getExport(new File(getFilesDir(), EXPORT_FILENAME));
+
+        mProgress = (ProgressBar) findViewById(R.id.export_progress);
+        mStatus = (TextView) findViewById(R.id.export_status);
+        mPreview = (TextView) findViewById(R.id.csv_data);
+        mShareButton = (Button) findViewById(R.id.share_data);
+        mShareButton.setOnClickListener(new View.OnClickListener() {
             @Override
             public void onClick(View view) {
-                if (mSleepCsv == null || mSleepCsv.equals("")) {
+                if (mExport == null || mExport.getFile().length() == 0) {
                     // Warn user that there is no CSV data and abort prematurely.
                     Toast.makeText(MainActivity.this,
                                    "Sorry, there is no CSV data to send.",
@@ -80,18 +107,15 @@ public class MainActivity extends Activity {
                 StringBuilder builder = new StringBuilder();
                 builder.append("Attached is my Zeo sleep data in CSV form as of: " +
                                currentDateTime + ".\n\n");
-                // NOTE, uncomment the following to allow sleepCSV data to be included in the email
-                // (inline)
-                //builder.append(mSleepCsv);
-
                 intent.putExtra(Intent.EXTRA_TEXT, builder.toString());
-                intent.setType("text/plain");
+                intent.setType(CompressedExport.MIME_TYPE);
 
-                // Append file with sleep data in it.
+                // Attach the export, compressed on the fly as the receiving app reads it.
                 final String filename =
-                    "sleep_data_" + DateFormat.format("yyyy-MM-dd'T'kk-mm-ss", now) + ".csv";
-                File csvFile = writeCsvFile(mSleepCsv, filename);
-                intent.putExtra(Intent.EXTRA_STREAM, Uri.fromFile(csvFile));
+                    "sleep_data_" + DateFormat.format("yyyy-MM-dd'T'kk-mm-ss", now) + ".csv" +
+                    CompressedExport.EXTENSION;
+                intent.putExtra(Intent.EXTRA_STREAM, ExportProvider.getUri(filename));
+                intent.addFlags(Intent.FLAG_GRANT_READ_URI_PERMISSION);
 
                 // pass the csv off to sharing chooser
                 startActivity(Intent.createChooser(intent, "Share Sleep CSV"));
@@ -100,159 +124,213 @@ public class MainActivity extends Activity {
     }
 
     /**
-     * Resume the app repopulating the CSV data from scratch.
+     * @return the shared export of file, or null if its state could not be loaded.
+     */
+    private static synchronized IncrementalCsvExport getExport(File file) {
+        if (sExport == null) {
+            try {
+                sExport = new IncrementalCsvExport(SleepRecordCsvExporter.DEFAULT_PROJECTION, file);
+            } catch (IOException e) {
+                Log.w(TAG, "Unable to load the CSV export state.", e);
+            }
+        }
+        return sExport;
+    }
+
+    /**
+     * Resume the app bringing the CSV export up to date, in the background, with any sleep
+     * records that changed since it was last shown.
      */
     @Override
     public void onResume() {
         super.onResume();
 
-        TextView csvText = (TextView) findViewById(R.id.csv_data);
-        mSleepCsv = buildCsv();
-        if (mSleepCsv != null) {
-            csvText.setText(mSleepCsv);
+        if (mExport == null) {
+            return;
         }
+        mExportTask = new ExportTask();
+        mExportTask.execute();
     }
 
     /**
-     * Method queries the Zeo data provider; extracts some notable fields and builds a CSV string
-     * containing that data.
-     *
-     * @return the CSV data taken from the zeo data provider's sleep record table.
+     * Abandon a running export; the export file and its watermark are left as they were.
      */
-    private String buildCsv() {
-        String[] projection = new String[] {
-            SleepRecord.LOCALIZED_START_OF_NIGHT,
-            SleepRecord.START_OF_NIGHT,
-            SleepRecord.END_OF_NIGHT,
-            SleepRecord.TIMEZONE,
-            SleepRecord.ZQ_SCORE,
-            SleepRecord.AWAKENINGS,
-            SleepRecord.TIME_IN_DEEP,
-            SleepRecord.TIME_IN_LIGHT,
-            SleepRecord.TIME_IN_REM,
-            SleepRecord.TIME_IN_WAKE,
-            SleepRecord.TIME_TO_Z,
-            SleepRecord.TOTAL_Z,
-            SleepRecord.SOURCE,
-            SleepRecord.END_REASON,
-            SleepRecord.DISPLAY_HYPNOGRAM,
-            SleepRecord.BASE_HYPNOGRAM
-        };
-
-        final Cursor cursor = getContentResolver().query(SleepRecord.CONTENT_URI,
-                                                         projection, null, null, null);
-        if (cursor == null) {
-            Log.w(TAG, "Cursor was null; something is wrong; perhaps Zeo not installed.");
-            Toast.makeText(this, "Unable to access Zeo data provider, is Zeo installed?",
-                           Toast.LENGTH_LONG).show();
-            return null;
+    @Override
+    public void onPause() {
+        super.onPause();
+
+        if (mExportTask != null) {
+            mExportTask.cancel(false);
+            mExportTask = null;
         }
+    }
 
-        StringBuilder builder = new StringBuilder();
-        if (cursor.moveToFirst()) {
-            // Write the header
-            String delim = "";
-            for (String column : projection) {
-                builder.append(delim).append(column);
-                delim = ",";
-            }
-            builder.append("\n");
-
-            do {
-                // Begin writing data.
-                builder.append(
-                    cursor.getLong(cursor.getColumnIndex(SleepRecord.LOCALIZED_START_OF_NIGHT)) +
-                    ",");
-                builder.append(cursor.getLong(cursor.getColumnIndex(SleepRecord.START_OF_NIGHT)) +
-                               ",");
-                builder.append(cursor.getLong(cursor.getColumnIndex(SleepRecord.END_OF_NIGHT)) +
-                               ",");
-                builder.append(cursor.getString(cursor.getColumnIndex(SleepRecord.TIMEZONE)) +
-                               ",");
-                builder.append(cursor.getInt(cursor.getColumnIndex(SleepRecord.ZQ_SCORE)) + ",");
-                builder.append(cursor.getInt(cursor.getColumnIndex(SleepRecord.AWAKENINGS)) + ",");
-                builder.append(cursor.getInt(cursor.getColumnIndex(SleepRecord.TIME_IN_DEEP)) +
-                               ",");
-                builder.append(cursor.getInt(cursor.getColumnIndex(SleepRecord.TIME_IN_LIGHT)) +
-                               ",");
-                builder.append(cursor.getInt(cursor.getColumnIndex(SleepRecord.TIME_IN_REM)) + ",");
-                builder.append(cursor.getInt(cursor.getColumnIndex(SleepRecord.TIME_IN_WAKE)) +
-                               ",");
-                builder.append(cursor.getInt(cursor.getColumnIndex(SleepRecord.TIME_TO_Z)) + ",");
-                builder.append(cursor.getInt(cursor.getColumnIndex(SleepRecord.TOTAL_Z)) + ",");
-                builder.append(cursor.getInt(cursor.getColumnIndex(SleepRecord.SOURCE)) + ",");
-                builder.append(cursor.getInt(cursor.getColumnIndex(SleepRecord.END_REASON)) + ",");
-                final byte[] displayHypnogram =
-                    cursor.getBlob(cursor.getColumnIndex(SleepRecord.DISPLAY_HYPNOGRAM));
-                for (byte stage : displayHypnogram) {
-                    builder.append(Byte.toString(stage));
-                }
-                builder.append(",");
-                // Output the base hypnogram.
-                final byte[] baseHypnogram =
-                    cursor.getBlob(cursor.getColumnIndex(SleepRecord.BASE_HYPNOGRAM));
-                for (byte stage : baseHypnogram) {
-                    builder.append(Byte.toString(stage));
-                }
-                builder.append("\n");
-            } while (cursor.moveToNext());
+    /** Progress of the export as published from the background thread. */
+    private static class ExportProgress {
+        /** Preview of the export as it stood before the update, or null. */
+        String preview;
+        int rows;
+        int total;
+        long bytes;
+    }
 
-        } else {
-            Log.w(TAG, "No sleep records found.");
-            Toast.makeText(this, "No sleep records found in the provider.",
-                           Toast.LENGTH_SHORT).show();
-        }
-        cursor.close();
-        return builder.toString();
+    /** Outcome of the export update. */
+    private static class ExportResult {
+        /** Rows exported or -1 if the provider is unavailable. */
+        int exported;
+        /** Preview of the updated export, empty if it holds no records, null on failure. */
+        String preview;
+        /** Message for the user if the update failed. */
+        String error;
     }
 
     /**
-     * Write given CSV data to Android external storage using the given filename. Return the file
-     * created to the caller if data was successfully written.
+     * Exports new and changed sleep records from the Zeo data provider into the app's CSV file,
+     * publishing the existing preview first, then row and byte progress, and finally the preview
+     * of the updated file.
      */
-    private File writeCsvFile(String csvData, String filename) {
-        final String storageState =
-            Environment.getExternalStorageState();
-        if (!Environment.MEDIA_MOUNTED.equals(storageState) ||
-            Environment.MEDIA_MOUNTED_READ_ONLY.equals(storageState)) {
-            Toast.makeText(this, "Can not share sleep data as no external storage (SD card?) is available.",
-                           Toast.LENGTH_SHORT).show();
-            return null;
+    private class ExportTask extends AsyncTask<Void, ExportProgress, ExportResult>
+        implements IncrementalCsvExport.ProgressListener {
+
+        @Override
+        protected void onPreExecute() {
+            mShareButton.setEnabled(false);
+            mProgress.setIndeterminate(true);
+            mProgress.setVisibility(View.VISIBLE);
+            mStatus.setText("Updating CSV data...");
+        }
+
+        @Override
+        protected ExportResult doInBackground(Void... params) {
+            ExportResult result = new ExportResult();
+            final File csvFile = mExport.getFile();
+            if (csvFile.exists()) {
+                ExportProgress partial = new ExportProgress();
+                try {
+                    partial.preview = readPreview(csvFile, PREVIEW_LINES);
+                    publishProgress(partial);
+                } catch (IOException e) {
+                    Log.w(TAG, "Failure to read the previous CSV export.", e);
+                }
+            }
+
+            try {
+                result.exported = mExport.update(getContentResolver(), this);
+            } catch (InterruptedIOException e) {
+                Log.d(TAG, "CSV export update cancelled.");
+                return null;
+            } catch (IOException e) {
+                Log.w(TAG, "Failure to update the CSV export.", e);
+                result.error = "Unable to update the CSV data.";
+                return result;
+            }
+            if (result.exported < 0) {
+                Log.w(TAG, "Cursor was null; something is wrong; perhaps Zeo not installed.");
+                result.error = "Unable to access Zeo data provider, is Zeo installed?";
+                return result;
+            }
+            Log.d(TAG, "Exported " + result.exported + " new or changed sleep records.");
+
+            if (!csvFile.exists()) {
+                Log.w(TAG, "No sleep records found.");
+                result.preview = "";
+                return result;
+            }
+            try {
+                result.preview = readPreview(csvFile, PREVIEW_LINES);
+            } catch (IOException e) {
+                Log.w(TAG, "Failure to read the CSV export.", e);
+                result.error = "Unable to read the CSV data.";
+            }
+            return result;
         }
 
-        File saveDir =
-            new File(Environment.getExternalStorageDirectory(),
-                     "/Android/data/com.myzeo.android.demos.sleep_to_csv");
-        saveDir.mkdirs();
-        // Attempt to store CSV data to filesystem.
-        File csvFile = new File(saveDir, filename);
-        if (csvFile == null) {
-            Toast.makeText(this, "Unable to create the csv file needed for transmission of data.",
-                           Toast.LENGTH_SHORT).show();
-            return null;
+        @Override
+        public boolean onProgress(int rows, int total, long bytes) {
+            if (isCancelled()) {
+                return false;
+            }
+            ExportProgress progress = new ExportProgress();
+            progress.rows = rows;
+            progress.total = total;
+            progress.bytes = bytes;
+            publishProgress(progress);
+            return true;
         }
 
-        Writer writer;
-        try {
-            writer = new OutputStreamWriter(new FileOutputStream(csvFile));
-        } catch (IOException e) {
-            Toast.makeText(this, "Unable to write the csv file needed for transmission of data.",
-                           Toast.LENGTH_SHORT).show();
-            return null;
+        @Override
+        protected void onProgressUpdate(ExportProgress... values) {
+            if (mExportTask != this) {
+                return;
+            }
+            final ExportProgress progress = values[values.length - 1];
+            if (progress.preview != null) {
+                mPreview.setText(progress.preview);
+                return;
+            }
+            mProgress.setIndeterminate(false);
+            mProgress.setMax(progress.total);
+            mProgress.setProgress(progress.rows);
+            mStatus.setText("Exported " + progress.rows + " of " + progress.total +
+                            " changed records (" + progress.bytes / 1024 + " KB written).");
         }
 
-        try {
-            writer.write(csvData);
-        } catch (IOException e) {
-            Toast.makeText(this, "Failure to write CSV text.", Toast.LENGTH_SHORT).show();
+        @Override
+        protected void onPostExecute(ExportResult result) {
+            if (mExportTask != this) {
+                return;
+            }
+            mProgress.setVisibility(View.GONE);
+            mShareButton.setEnabled(true);
+            if (result == null) {
+                return;
+            }
+            if (result.error != null) {
+                mStatus.setText(result.error);
+                Toast.makeText(MainActivity.this, result.error,
+                               result.exported < 0 ? Toast.LENGTH_LONG : Toast.LENGTH_SHORT)
+                    .show();
+                return;
+            }
+
+            if (result.preview.length() == 0) {
+                mStatus.setText("No sleep records found in the provider.");
+                Toast.makeText(MainActivity.this, "No sleep records found in the provider.",
+                               Toast.LENGTH_SHORT).show();
+            } else {
+                mStatus.setText("Exported " + result.exported +
+                                " new or changed sleep records. Showing the first " +
+                                (PREVIEW_LINES - 1) + " records at most.");
+            }
+            mPreview.setText(result.preview);
         }
 
-        try {
-            writer.close();
-        } catch (IOException e) {
-            Log.w(TAG, "Failure to close the output stream handle.");
+        @Override
+        protected void onCancelled() {
+            // A task cancelled by onPause may end after the next one started on resume; the
+            // views then belong to the running task, which may still be writing the export.
+            if (mExportTask != this) {
+                return;
+            }
+            mProgress.setVisibility(View.GONE);
+            mShareButton.setEnabled(true);
         }
+    }
 
-        return csvFile;
+    /**
+     * Read at most maxLines lines from the start of the given file.
+     */
+    private static String readPreview(File file, int maxLines) throws IOException {
+        BufferedReader reader = new BufferedReader(new FileReader(file));
+        try {
+            StringBuilder builder = new StringBuilder();
+            String line;
+            for (int i = 0; i < maxLines && (line = reader.readLine()) != null; i++) {
+                builder.append(line).append('\n');
+            }
+            return builder.toString();
+        } finally {
+            reader.close();
+        }
     }
 }
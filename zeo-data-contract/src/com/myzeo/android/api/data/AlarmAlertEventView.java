@@ -0,0 +1,79 @@
+/*
+ * Copyright (C) 2011 Zeo Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.myzeo.android.api.data;
+
+import com.myzeo.android.api.data.ZeoDataContract.AlarmAlertEvent;
+
+/**
+ * Typed view over the current row of an {@link AlarmAlertEvent} cursor.
+ */
+public class AlarmAlertEventView extends RowView {
+
+    /** Every alarm alert event column, in field order. */
+    public static final String[] PROJECTION = new String[] {
+        AlarmAlertEvent._ID,
+        AlarmAlertEvent.CREATED_ON,
+        AlarmAlertEvent.UPDATED_ON,
+        AlarmAlertEvent.SLEEP_EPISODE_ID,
+        AlarmAlertEvent.REASON,
+        AlarmAlertEvent.SMART_WAKE,
+        AlarmAlertEvent.TIMESTAMP,
+        AlarmAlertEvent.WAKE_TONE,
+        AlarmAlertEvent.WAKE_WINDOW
+    };
+
+    public static final int FIELD_SLEEP_EPISODE_ID = 3;
+    public static final int FIELD_REASON = 4;
+    public static final int FIELD_SMART_WAKE = 5;
+    public static final int FIELD_TIMESTAMP = 6;
+    public static final int FIELD_WAKE_TONE = 7;
+    public static final int FIELD_WAKE_WINDOW = 8;
+
+    public AlarmAlertEventView() {
+        super(PROJECTION);
+    }
+
+    /** @see AlarmAlertEvent#SLEEP_EPISODE_ID */
+    public long sleepEpisodeId() {
+        return getLong(FIELD_SLEEP_EPISODE_ID);
+    }
+
+    /** @see AlarmAlertEvent#REASON */
+    public int reason() {
+        return getInt(FIELD_REASON);
+    }
+
+    /** @see AlarmAlertEvent#SMART_WAKE */
+    public boolean smartWake() {
+        return getBoolean(FIELD_SMART_WAKE);
+    }
+
+    /** @see AlarmAlertEvent#TIMESTAMP */
+    public long timestamp() {
+        return getLong(FIELD_TIMESTAMP);
+    }
+
+    /** @see AlarmAlertEvent#WAKE_TONE */
+    public String wakeTone() {
+        return getString(FIELD_WAKE_TONE);
+    }
+
+    /** @see AlarmAlertEvent#WAKE_WINDOW */
+    public int wakeWindow() {
+        return getInt(FIELD_WAKE_WINDOW);
+    }
+}
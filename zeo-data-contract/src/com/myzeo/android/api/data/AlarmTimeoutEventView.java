@@ -0,0 +1,58 @@
+/*
+ * Copyright (C) 2011 Zeo Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.myzeo.android.api.data;
+
+import com.myzeo.android.api.data.ZeoDataContract.AlarmTimeoutEvent;
+
+/**
+ * Typed view over the current row of an {@link AlarmTimeoutEvent} cursor.
+ */
+public class AlarmTimeoutEventView extends RowView {
+
+    /** Every alarm timeout event column, in field order. */
+    public static final String[] PROJECTION = new String[] {
+        AlarmTimeoutEvent._ID,
+        AlarmTimeoutEvent.CREATED_ON,
+        AlarmTimeoutEvent.UPDATED_ON,
+        AlarmTimeoutEvent.SLEEP_EPISODE_ID,
+        AlarmTimeoutEvent.DURATION,
+        AlarmTimeoutEvent.TIMESTAMP
+    };
+
+    public static final int FIELD_SLEEP_EPISODE_ID = 3;
+    public static final int FIELD_DURATION = 4;
+    public static final int FIELD_TIMESTAMP = 5;
+
+    public AlarmTimeoutEventView() {
+        super(PROJECTION);
+    }
+
+    /** @see AlarmTimeoutEvent#SLEEP_EPISODE_ID */
+    public long sleepEpisodeId() {
+        return getLong(FIELD_SLEEP_EPISODE_ID);
+    }
+
+    /** @see AlarmTimeoutEvent#DURATION */
+    public long duration() {
+        return getLong(FIELD_DURATION);
+    }
+
+    /** @see AlarmTimeoutEvent#TIMESTAMP */
+    public long timestamp() {
+        return getLong(FIELD_TIMESTAMP);
+    }
+}
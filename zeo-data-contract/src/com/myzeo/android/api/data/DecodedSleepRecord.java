@@ -0,0 +1,94 @@
+/*
+ * Copyright (C) 2011 Zeo Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.myzeo.android.api.data;
+
+/**
+ * Immutable copy of a sleep record row with its hypnograms read out of the cursor, as held by
+ * {@link SleepRecordCache}. Callers must not modify the hypnogram arrays.
+ */
+public class DecodedSleepRecord {
+
+    /** Approximate bytes taken by an instance besides its arrays and string. */
+    private static final int OBJECT_OVERHEAD = 128;
+    /** Approximate bytes taken by an array or string besides its contents. */
+    private static final int ARRAY_OVERHEAD = 16;
+
+    public final long id;
+    public final long updatedOn;
+    public final long sleepEpisodeId;
+    public final long headbandId;
+    public final long startOfNight;
+    public final long endOfNight;
+    public final long localizedStartOfNight;
+    public final String timezone;
+    public final int source;
+    public final int endReason;
+    public final int zqScore;
+    public final int awakenings;
+    public final int timeInDeep;
+    public final int timeInLight;
+    public final int timeInRem;
+    public final int timeInWake;
+    public final int timeToZ;
+    public final int totalZ;
+    /** Base hypnogram, empty if null in the row. */
+    public final byte[] baseHypnogram;
+    /** Display hypnogram, empty if null in the row. */
+    public final byte[] displayHypnogram;
+
+    /**
+     * Copy the row the view is positioned on.
+     */
+    public DecodedSleepRecord(SleepRecordView view) {
+        id = view.id();
+        updatedOn = view.updatedOn();
+        sleepEpisodeId = view.sleepEpisodeId();
+        headbandId = view.headbandId();
+        startOfNight = view.startOfNight();
+        endOfNight = view.endOfNight();
+        localizedStartOfNight = view.localizedStartOfNight();
+        timezone = view.timezone();
+        source = view.source();
+        endReason = view.endReason();
+        zqScore = view.zqScore();
+        awakenings = view.awakenings();
+        timeInDeep = view.timeInDeep();
+        timeInLight = view.timeInLight();
+        timeInRem = view.timeInRem();
+        timeInWake = view.timeInWake();
+        timeToZ = view.timeToZ();
+        totalZ = view.totalZ();
+        baseHypnogram = nonNull(view.baseHypnogram());
+        displayHypnogram = nonNull(view.displayHypnogram());
+    }
+
+    private static byte[] nonNull(byte[] blob) {
+        return blob != null ? blob : new byte[0];
+    }
+
+    /**
+     * @return approximate heap bytes retained by this record.
+     */
+    public int sizeInBytes() {
+        int size = OBJECT_OVERHEAD
+            + 2 * ARRAY_OVERHEAD + baseHypnogram.length + displayHypnogram.length;
+        if (timezone != null) {
+            size += 2 * ARRAY_OVERHEAD + 2 * timezone.length();
+        }
+        return size;
+    }
+}
@@ -0,0 +1,273 @@
+/*
+ * Copyright (C) 2011 Zeo Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.myzeo.android.api.data;
+
+import com.myzeo.android.api.data.ZeoDataContract.Headband;
+
+import android.content.ContentResolver;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.os.Handler;
+
+import java.util.HashMap;
+
+/**
+ * Turns {@link Headband} provider notifications into typed changes of live headband state.
+ *
+ * <p>
+ *
+ * Notifications are coalesced: the first one schedules a query after the configured window and
+ * any arriving before it runs are absorbed, so a burst costs a single query. The query only asks
+ * for rows whose {@link Headband#UPDATED_ON} is at or after the newest seen so far. Each returned
+ * row is compared to its last known state and the listener told which of
+ * {@link Headband#ALGORITHM_MODE}, {@link Headband#CONNECTED}, {@link Headband#ON_HEAD},
+ * {@link Headband#DOCKED} and {@link Headband#BONDED} changed, with old and new values. Rows that
+ * were touched without any of those changing produce nothing.
+ *
+ * </p>
+ *
+ * <p>
+ *
+ * Notifications, queries and listener calls all happen on the given handler's thread, which
+ * should not be the UI thread if queries may be slow.
+ *
+ * </p>
+ */
+public class HeadbandChangeFeed {
+
+    /** The headband was not known before. */
+    public static final int ADDED = 1;
+    public static final int CHANGED_ALGORITHM_MODE = 1 << 1;
+    public static final int CHANGED_CONNECTED = 1 << 2;
+    public static final int CHANGED_ON_HEAD = 1 << 3;
+    public static final int CHANGED_DOCKED = 1 << 4;
+    public static final int CHANGED_BONDED = 1 << 5;
+
+    /** Coalescing window used unless specified. */
+    public static final long DEFAULT_WINDOW_MILLIS = 500;
+
+    /** Receives headband changes. */
+    public interface Listener {
+        /**
+         * @param change reused for every call; copy what must outlive the call.
+         */
+        void onHeadbandChanged(Change change);
+    }
+
+    /** State of one headband before and after a change. */
+    public static class Change {
+        public long headbandId;
+        /** {@link #ADDED} and CHANGED_* flags. */
+        public int flags;
+        public int oldAlgorithmMode;
+        public int algorithmMode;
+        public boolean oldConnected;
+        public boolean connected;
+        public boolean oldOnHead;
+        public boolean onHead;
+        public boolean oldDocked;
+        public boolean docked;
+        public boolean oldBonded;
+        public boolean bonded;
+
+        public boolean has(int flag) {
+            return (flags & flag) != 0;
+        }
+    }
+
+    /** Last known state of a headband. */
+    private static class State {
+        int algorithmMode = Headband.ALGO_MODE_UNDEFINED;
+        boolean connected;
+        boolean onHead;
+        boolean docked;
+        boolean bonded;
+    }
+
+    private static final String SELECTION = Headband.UPDATED_ON + " >= ?";
+
+    private final ContentResolver mResolver;
+    private final Handler mHandler;
+    private final long mWindowMillis;
+    private final Listener mListener;
+    private final HeadbandView mView = new HeadbandView();
+    private final Change mChange = new Change();
+    private final HashMap<Long, State> mStates = new HashMap<Long, State>();
+    private final String[] mSelectionArgs = new String[1];
+
+    private final ContentObserver mObserver;
+    private final Runnable mQuery = new Runnable() {
+        @Override
+        public void run() {
+            mScheduled = false;
+            query();
+        }
+    };
+
+    private boolean mStarted;
+    private boolean mScheduled;
+    private long mNewestUpdate = Long.MIN_VALUE;
+    private int mNotifications;
+    private int mQueries;
+
+    public HeadbandChangeFeed(ContentResolver resolver, Handler handler, long windowMillis,
+                              Listener listener) {
+        mResolver = resolver;
+        mHandler = handler;
+        mWindowMillis = windowMillis;
+        mListener = listener;
+        mObserver = new ContentObserver(handler) {
+            @Override
+            public void onChange(boolean selfChange) {
+                HeadbandChangeFeed.this.onChange();
+            }
+        };
+    }
+
+    /**
+     * Register for notifications and query the current state, reporting every headband as
+     * {@link #ADDED}. Must be called on the handler's thread.
+     */
+    public void start() {
+        if (mStarted) {
+            return;
+        }
+        mStarted = true;
+        mResolver.registerContentObserver(Headband.CONTENT_URI, true, mObserver);
+        query();
+    }
+
+    /**
+     * Unregister and drop any pending query. Known states are kept for a later start.
+     */
+    public void stop() {
+        if (!mStarted) {
+            return;
+        }
+        mStarted = false;
+        mResolver.unregisterContentObserver(mObserver);
+        mHandler.removeCallbacks(mQuery);
+        mScheduled = false;
+    }
+
+    /**
+     * Report that headband rows may have changed; normally called by the feed's own observer.
+     */
+    public void onChange() {
+        mNotifications++;
+        if (!mScheduled && mStarted) {
+            mScheduled = true;
+            mHandler.postDelayed(mQuery, mWindowMillis);
+        }
+    }
+
+    private void query() {
+        mQueries++;
+        mSelectionArgs[0] = Long.toString(mNewestUpdate);
+        final Cursor cursor = mResolver.query(Headband.CONTENT_URI, HeadbandView.PROJECTION,
+                                              mNewestUpdate == Long.MIN_VALUE ? null : SELECTION,
+                                              mNewestUpdate == Long.MIN_VALUE
+                                                  ? null : mSelectionArgs,
+                                              null);
+        if (cursor == null) {
+            return;
+        }
+        try {
+            update(cursor);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Compare every row of a headband cursor to the known states, report the differences and
+     * remember the new states.
+     *
+     * @return the number of changes reported.
+     */
+    public int update(Cursor cursor) {
+        final HeadbandView view = mView;
+        final Change change = mChange;
+        view.bind(cursor);
+        int reported = 0;
+        if (cursor.moveToFirst()) {
+            do {
+                mNewestUpdate = Math.max(mNewestUpdate, view.updatedOn());
+
+                final long id = view.id();
+                State state = mStates.get(id);
+                int flags = 0;
+                if (state == null) {
+                    state = new State();
+                    mStates.put(id, state);
+                    flags = ADDED;
+                }
+                change.oldAlgorithmMode = state.algorithmMode;
+                change.oldConnected = state.connected;
+                change.oldOnHead = state.onHead;
+                change.oldDocked = state.docked;
+                change.oldBonded = state.bonded;
+
+                state.algorithmMode = view.algorithmMode();
+                state.connected = view.connected();
+                state.onHead = view.onHead();
+                state.docked = view.docked();
+                state.bonded = view.bonded();
+
+                if (state.algorithmMode != change.oldAlgorithmMode) {
+                    flags |= CHANGED_ALGORITHM_MODE;
+                }
+                if (state.connected != change.oldConnected) {
+                    flags |= CHANGED_CONNECTED;
+                }
+                if (state.onHead != change.oldOnHead) {
+                    flags |= CHANGED_ON_HEAD;
+                }
+                if (state.docked != change.oldDocked) {
+                    flags |= CHANGED_DOCKED;
+                }
+                if (state.bonded != change.oldBonded) {
+                    flags |= CHANGED_BONDED;
+                }
+                if (flags == 0) {
+                    continue;
+                }
+
+                change.headbandId = id;
+                change.flags = flags;
+                change.algorithmMode = state.algorithmMode;
+                change.connected = state.connected;
+                change.onHead = state.onHead;
+                change.docked = state.docked;
+                change.bonded = state.bonded;
+                mListener.onHeadbandChanged(change);
+                reported++;
+            } while (cursor.moveToNext());
+        }
+        return reported;
+    }
+
+    /** @return provider notifications received. */
+    public int getNotificationCount() {
+        return mNotifications;
+    }
+
+    /** @return queries run, including the initial one. */
+    public int getQueryCount() {
+        return mQueries;
+    }
+}
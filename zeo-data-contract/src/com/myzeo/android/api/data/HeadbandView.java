@@ -0,0 +1,104 @@
+/*
+ * Copyright (C) 2011 Zeo Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.myzeo.android.api.data;
+
+import com.myzeo.android.api.data.ZeoDataContract.Headband;
+
+/**
+ * Typed view over the current row of a {@link Headband} cursor.
+ */
+public class HeadbandView extends RowView {
+
+    /** Every headband column, in field order. */
+    public static final String[] PROJECTION = new String[] {
+        Headband._ID,
+        Headband.CREATED_ON,
+        Headband.UPDATED_ON,
+        Headband.ALGORITHM_MODE,
+        Headband.BLUETOOTH_ADDRESS,
+        Headband.BLUETOOTH_FRIENDLY_NAME,
+        Headband.BONDED,
+        Headband.CLOCK_OFFSET,
+        Headband.CONNECTED,
+        Headband.DOCKED,
+        Headband.ON_HEAD,
+        Headband.SW_VERSION
+    };
+
+    public static final int FIELD_ALGORITHM_MODE = 3;
+    public static final int FIELD_BLUETOOTH_ADDRESS = 4;
+    public static final int FIELD_BLUETOOTH_FRIENDLY_NAME = 5;
+    public static final int FIELD_BONDED = 6;
+    public static final int FIELD_CLOCK_OFFSET = 7;
+    public static final int FIELD_CONNECTED = 8;
+    public static final int FIELD_DOCKED = 9;
+    public static final int FIELD_ON_HEAD = 10;
+    public static final int FIELD_SW_VERSION = 11;
+
+    public HeadbandView() {
+        super(PROJECTION);
+    }
+
+    /**
+     * @return the algorithm mode; {@link Headband#ALGO_MODE_UNDEFINED} if absent or null.
+     * @see Headband#ALGORITHM_MODE
+     */
+    public int algorithmMode() {
+        return isNull(FIELD_ALGORITHM_MODE)
+            ? Headband.ALGO_MODE_UNDEFINED : getInt(FIELD_ALGORITHM_MODE);
+    }
+
+    /** @see Headband#BLUETOOTH_ADDRESS */
+    public String bluetoothAddress() {
+        return getString(FIELD_BLUETOOTH_ADDRESS);
+    }
+
+    /** @see Headband#BLUETOOTH_FRIENDLY_NAME */
+    public String bluetoothFriendlyName() {
+        return getString(FIELD_BLUETOOTH_FRIENDLY_NAME);
+    }
+
+    /** @see Headband#BONDED */
+    public boolean bonded() {
+        return getBoolean(FIELD_BONDED);
+    }
+
+    /** @see Headband#CLOCK_OFFSET */
+    public long clockOffset() {
+        return getLong(FIELD_CLOCK_OFFSET);
+    }
+
+    /** @see Headband#CONNECTED */
+    public boolean connected() {
+        return getBoolean(FIELD_CONNECTED);
+    }
+
+    /** @see Headband#DOCKED */
+    public boolean docked() {
+        return getBoolean(FIELD_DOCKED);
+    }
+
+    /** @see Headband#ON_HEAD */
+    public boolean onHead() {
+        return getBoolean(FIELD_ON_HEAD);
+    }
+
+    /** @see Headband#SW_VERSION */
+    public String swVersion() {
+        return getString(FIELD_SW_VERSION);
+    }
+}
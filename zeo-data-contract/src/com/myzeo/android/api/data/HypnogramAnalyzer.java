@@ -0,0 +1,168 @@
+/*
+ * Copyright (C) 2011 Zeo Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.myzeo.android.api.data;
+
+import static com.myzeo.android.api.data.ZeoDataContract.SleepRecord;
+
+/**
+ * Single pass, allocation free analysis of a {@link SleepRecord#BASE_HYPNOGRAM}.
+ *
+ * <p>
+ *
+ * One walk over the epochs yields the per stage counts that back {@link SleepRecord#TIME_IN_DEEP},
+ * {@link SleepRecord#TIME_IN_LIGHT}, {@link SleepRecord#TIME_IN_REM} and
+ * {@link SleepRecord#TIME_IN_WAKE}, along with {@link SleepRecord#TIME_TO_Z},
+ * {@link SleepRecord#TOTAL_Z}, awakenings, the stage transition matrix, REM period bounds and the
+ * longest run of each stage. Results go to a caller supplied {@link HypnogramStats}.
+ *
+ * </p>
+ *
+ * <p>
+ *
+ * Per epoch work is two table lookups and a counter increment; everything else happens only when
+ * the stage changes.
+ *
+ * </p>
+ */
+public final class HypnogramAnalyzer {
+
+    /** Maps any byte to a valid stage; unknown values become SLEEP_STAGE_UNDEFINED. */
+    private static final byte[] STAGES = new byte[256];
+
+    /** 1 for stages that count as sleep, 0 otherwise. */
+    private static final int[] ASLEEP = new int[SleepRecord.SLEEP_STAGE_NMAX];
+
+    static {
+        for (int i = 0; i < SleepRecord.SLEEP_STAGE_NMAX; i++) {
+            STAGES[i] = (byte) i;
+        }
+        ASLEEP[SleepRecord.SLEEP_STAGE_REM] = 1;
+        ASLEEP[SleepRecord.SLEEP_STAGE_LIGHT] = 1;
+        ASLEEP[SleepRecord.SLEEP_STAGE_DEEP] = 1;
+    }
+
+    /**
+     * Do not instantiate objects of type HypnogramAnalyzer.
+     */
+    private HypnogramAnalyzer() {
+    }
+
+    /**
+     * Analyze len epochs of hypnogram beginning at off.
+     *
+     * <p>
+     *
+     * An awakening is any change from a sleep stage to {@link SleepRecord#SLEEP_STAGE_WAKE}. REM
+     * periods are maximal runs of REM epochs; the start of each marks a sleep cycle boundary.
+     *
+     * </p>
+     *
+     * @return stats, filled in.
+     */
+    public static HypnogramStats analyze(byte[] hypnogram, int off, int len,
+                                         HypnogramStats stats) {
+        stats.clear();
+        stats.epochs = len;
+        if (len == 0) {
+            return stats;
+        }
+
+        final byte[] stages = STAGES;
+        final int[] asleep = ASLEEP;
+        final int[] counts = stats.stageCounts;
+        final int[] longest = stats.longestRun;
+        final int[] transitions = stats.transitions;
+        final int[] remStart = stats.remStart;
+        final int[] remEnd = stats.remEnd;
+        final int remCapacity = remStart.length;
+
+        int previous = stages[hypnogram[off] & 0xff];
+        int runStart = 0;
+        int sleepOnset = -1;
+        int sleepEnd = -1;
+        int totalZ = 0;
+        int awakenings = 0;
+        int remPeriods = 0;
+        if (previous == SleepRecord.SLEEP_STAGE_REM) {
+            if (remCapacity > 0) {
+                remStart[0] = 0;
+            }
+            remPeriods = 1;
+        }
+
+        final int end = off + len;
+        for (int i = off; i < end; i++) {
+            final int stage = stages[hypnogram[i] & 0xff];
+            final int sleep = asleep[stage];
+            counts[stage]++;
+            totalZ += sleep;
+            if (sleep != 0) {
+                sleepEnd = i;
+            }
+            if (stage == previous) {
+                continue;
+            }
+
+            // Stage change: close the previous run and open a new one.
+            final int epoch = i - off;
+            transitions[previous * SleepRecord.SLEEP_STAGE_NMAX + stage]++;
+            final int run = epoch - runStart;
+            if (run > longest[previous]) {
+                longest[previous] = run;
+            }
+            runStart = epoch;
+            if (stage == SleepRecord.SLEEP_STAGE_WAKE) {
+                awakenings += asleep[previous];
+            }
+            if (previous == SleepRecord.SLEEP_STAGE_REM && remPeriods <= remCapacity) {
+                remEnd[remPeriods - 1] = epoch;
+            }
+            if (stage == SleepRecord.SLEEP_STAGE_REM) {
+                if (remPeriods < remCapacity) {
+                    remStart[remPeriods] = epoch;
+                }
+                remPeriods++;
+            }
+            previous = stage;
+        }
+
+        final int run = len - runStart;
+        if (run > longest[previous]) {
+            longest[previous] = run;
+        }
+        if (previous == SleepRecord.SLEEP_STAGE_REM && remPeriods <= remCapacity) {
+            remEnd[remPeriods - 1] = len;
+        }
+
+        if (sleepEnd >= 0) {
+            // Onset is only needed once; find it from the front rather than testing every epoch.
+            sleepOnset = 0;
+            while (asleep[stages[hypnogram[off + sleepOnset] & 0xff]] == 0) {
+                sleepOnset++;
+            }
+            sleepEnd -= off;
+        }
+
+        stats.totalZ = totalZ;
+        stats.sleepOnset = sleepOnset;
+        stats.sleepEnd = sleepEnd;
+        stats.timeToZ = sleepOnset < 0 ? len : sleepOnset;
+        stats.awakenings = awakenings;
+        stats.remPeriods = remPeriods;
+        return stats;
+    }
+}
@@ -0,0 +1,590 @@
+/*
+ * Copyright (C) 2011 Zeo Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.myzeo.android.api.data;
+
+import java.nio.IntBuffer;
+
+/**
+ * Compact encodings for the hypnogram blobs stored in
+ * {@link ZeoDataContract.SleepRecord#BASE_HYPNOGRAM} and
+ * {@link ZeoDataContract.SleepRecord#DISPLAY_HYPNOGRAM}.
+ *
+ * <h1>Description</h1>
+ *
+ * <p>
+ *
+ * The provider stores one byte per epoch although every sleep stage is below
+ * {@link ZeoDataContract.SleepRecord#SLEEP_STAGE_NMAX}. Two formats are offered:
+ *
+ * </p>
+ *
+ * <ul>
+ * <li>{@link #FORMAT_PACKED} stores each stage in 3 bits (8 epochs per 3 bytes) and supports
+ * constant time access to any epoch through {@link #stageAt(byte[], int, int)}.</li>
+ * <li>{@link #FORMAT_RUN_LENGTH} stores runs of a single stage. Each run is one byte holding the
+ * stage in its low 3 bits and the run length minus one in its high 5 bits; runs of 32 epochs or
+ * more set all 5 bits and are followed by a variable length integer holding the length minus
+ * 32.</li>
+ * </ul>
+ *
+ * <p>
+ *
+ * An encoded hypnogram begins with a format byte followed by the epoch count as a variable length
+ * integer (7 bits per byte, least significant group first). The raw {@code pack}/{@code unpack}
+ * and {@code encodeRuns}/{@code decodeRuns} methods operate on headerless payloads for callers that
+ * keep the epoch count elsewhere (for instance in
+ * {@link ZeoDataContract.SleepRecord#BASE_HYPNOGRAM_COUNT}).
+ *
+ * </p>
+ *
+ * <p>
+ *
+ * No method allocates; all output goes to caller supplied arrays or buffers.
+ *
+ * </p>
+ */
+public final class HypnogramCodec {
+
+    /** Stages packed 3 bits apiece. */
+    public static final int FORMAT_PACKED = 1;
+
+    /** Stages stored as runs. */
+    public static final int FORMAT_RUN_LENGTH = 2;
+
+    /** Number of bits used to store a stage. */
+    public static final int BITS_PER_STAGE = 3;
+
+    /** Largest stage value any format can store. */
+    public static final int MAX_STAGE = (1 << BITS_PER_STAGE) - 1;
+
+    /** Mask applied to a run byte to extract the stage. */
+    private static final int STAGE_MASK = MAX_STAGE;
+
+    /** Run length field value flagging that a variable length integer follows. */
+    private static final int LONG_RUN = 0x1f;
+
+    /** Largest size of an encoded header. */
+    private static final int MAX_HEADER_SIZE = 1 + 5;
+
+    /**
+     * Do not instantiate objects of type HypnogramCodec.
+     */
+    private HypnogramCodec() {
+    }
+
+    // ---------------------------------------------------------------------------------------------
+    // Self describing encoding.
+
+    /**
+     * @return the largest number of bytes {@link #encode} can produce for the given epoch count
+     * and format.
+     */
+    public static int maxEncodedSize(int epochs, int format) {
+        switch (format) {
+        case FORMAT_PACKED:
+            return MAX_HEADER_SIZE + packedSize(epochs);
+        case FORMAT_RUN_LENGTH:
+            return MAX_HEADER_SIZE + epochs;
+        default:
+            throw new IllegalArgumentException("Unknown hypnogram format: " + format);
+        }
+    }
+
+    /**
+     * Pick whichever format yields the smaller encoding of the given stages.
+     */
+    public static int smallestFormat(byte[] stages, int off, int len) {
+        return runLengthSize(stages, off, len) < packedSize(len) ? FORMAT_RUN_LENGTH : FORMAT_PACKED;
+    }
+
+    /**
+     * Pick whichever format yields the smaller encoding of the stages remaining in the buffer,
+     * leaving its position unchanged.
+     */
+    public static int smallestFormat(IntBuffer stages) {
+        return runLengthSize(stages) < packedSize(stages.remaining())
+            ? FORMAT_RUN_LENGTH : FORMAT_PACKED;
+    }
+
+    /**
+     * Encode len stages beginning at off into dest with a header naming the format.
+     *
+     * @return the number of bytes written to dest.
+     * @throws IllegalArgumentException if a stage is outside of 0 to {@link #MAX_STAGE}.
+     */
+    public static int encode(byte[] stages, int off, int len, int format,
+                             byte[] dest, int destOff) {
+        int position = destOff;
+        dest[position++] = (byte) format;
+        position = writeVarint(len, dest, position);
+        switch (format) {
+        case FORMAT_PACKED:
+            position += pack(stages, off, len, dest, position);
+            break;
+        case FORMAT_RUN_LENGTH:
+            position += encodeRuns(stages, off, len, dest, position);
+            break;
+        default:
+            throw new IllegalArgumentException("Unknown hypnogram format: " + format);
+        }
+        return position - destOff;
+    }
+
+    /**
+     * Encode the stages remaining in the buffer into dest with a header naming the format,
+     * advancing the buffer's position past them.
+     *
+     * @return the number of bytes written to dest.
+     * @throws IllegalArgumentException if a stage is outside of 0 to {@link #MAX_STAGE}.
+     */
+    public static int encode(IntBuffer stages, int format, byte[] dest, int destOff) {
+        int position = destOff;
+        dest[position++] = (byte) format;
+        position = writeVarint(stages.remaining(), dest, position);
+        switch (format) {
+        case FORMAT_PACKED:
+            position += pack(stages, dest, position);
+            break;
+        case FORMAT_RUN_LENGTH:
+            position += encodeRuns(stages, dest, position);
+            break;
+        default:
+            throw new IllegalArgumentException("Unknown hypnogram format: " + format);
+        }
+        return position - destOff;
+    }
+
+    /**
+     * @return the format of the encoded hypnogram at off.
+     */
+    public static int format(byte[] encoded, int off) {
+        return encoded[off];
+    }
+
+    /**
+     * @return the number of epochs in the encoded hypnogram at off.
+     */
+    public static int epochCount(byte[] encoded, int off) {
+        return readVarint(encoded, off + 1);
+    }
+
+    /**
+     * Decode the hypnogram at off, encodedLen bytes long, into dest one byte per stage.
+     *
+     * @return the number of epochs written.
+     */
+    public static int decode(byte[] encoded, int off, int encodedLen, byte[] dest, int destOff) {
+        final int epochs = epochCount(encoded, off);
+        final int payload = off + 1 + varintSize(epochs);
+        switch (format(encoded, off)) {
+        case FORMAT_PACKED:
+            unpack(encoded, payload, dest, destOff, epochs);
+            return epochs;
+        case FORMAT_RUN_LENGTH:
+            return decodeRuns(encoded, payload, off + encodedLen - payload, dest, destOff);
+        default:
+            throw new IllegalArgumentException("Unknown hypnogram format: " + encoded[off]);
+        }
+    }
+
+    /**
+     * Decode the hypnogram at off, encodedLen bytes long, into dest one int per stage.
+     *
+     * @return the number of epochs written.
+     */
+    public static int decode(byte[] encoded, int off, int encodedLen, IntBuffer dest) {
+        final int epochs = epochCount(encoded, off);
+        final int payload = off + 1 + varintSize(epochs);
+        switch (format(encoded, off)) {
+        case FORMAT_PACKED:
+            unpack(encoded, payload, dest, epochs);
+            return epochs;
+        case FORMAT_RUN_LENGTH:
+            return decodeRuns(encoded, payload, off + encodedLen - payload, dest);
+        default:
+            throw new IllegalArgumentException("Unknown hypnogram format: " + encoded[off]);
+        }
+    }
+
+    /**
+     * Random access to a single stage of an encoded hypnogram. Constant time for
+     * {@link #FORMAT_PACKED}; run length encodings are scanned from the start.
+     */
+    public static int stageAt(byte[] encoded, int off, int epoch) {
+        final int epochs = epochCount(encoded, off);
+        if (epoch < 0 || epoch >= epochs) {
+            throw new IndexOutOfBoundsException("Epoch " + epoch + " of " + epochs);
+        }
+        final int payload = off + 1 + varintSize(epochs);
+        if (format(encoded, off) == FORMAT_PACKED) {
+            return packedStageAt(encoded, payload, epoch);
+        }
+        int position = payload;
+        int remaining = epoch;
+        while (true) {
+            final int run = encoded[position++] & 0xff;
+            int length = (run >>> BITS_PER_STAGE) + 1;
+            if (length == LONG_RUN + 1) {
+                final int extra = readVarint(encoded, position);
+                position += varintSize(extra);
+                length = extra + LONG_RUN + 1;
+            }
+            if (remaining < length) {
+                return run & STAGE_MASK;
+            }
+            remaining -= length;
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+    // Bit packed payloads.
+
+    /**
+     * @return the number of bytes needed to pack the given number of epochs.
+     */
+    public static int packedSize(int epochs) {
+        return (int) (((long) epochs * BITS_PER_STAGE + 7) >>> 3);
+    }
+
+    /**
+     * Pack len stages beginning at off into dest, 3 bits per stage, least significant bits
+     * first.
+     *
+     * @return the number of bytes written.
+     */
+    public static int pack(byte[] stages, int off, int len, byte[] dest, int destOff) {
+        int in = off;
+        int out = destOff;
+        final int blockEnd = off + (len & ~7);
+        // Eight stages fill exactly three bytes.
+        while (in < blockEnd) {
+            final int bits = checkStage(stages[in])
+                | checkStage(stages[in + 1]) << 3
+                | checkStage(stages[in + 2]) << 6
+                | checkStage(stages[in + 3]) << 9
+                | checkStage(stages[in + 4]) << 12
+                | checkStage(stages[in + 5]) << 15
+                | checkStage(stages[in + 6]) << 18
+                | checkStage(stages[in + 7]) << 21;
+            dest[out] = (byte) bits;
+            dest[out + 1] = (byte) (bits >>> 8);
+            dest[out + 2] = (byte) (bits >>> 16);
+            in += 8;
+            out += 3;
+        }
+        final int end = off + len;
+        if (in < end) {
+            int bits = 0;
+            for (int shift = 0; in < end; shift += BITS_PER_STAGE) {
+                bits |= checkStage(stages[in++]) << shift;
+            }
+            final int tail = packedSize(len) - (out - destOff);
+            for (int i = 0; i < tail; i++) {
+                dest[out++] = (byte) (bits >>> (i << 3));
+            }
+        }
+        return out - destOff;
+    }
+
+    /**
+     * Pack the stages remaining in the buffer into dest, 3 bits per stage, least significant bits
+     * first, advancing the buffer's position past them.
+     *
+     * @return the number of bytes written.
+     */
+    public static int pack(IntBuffer stages, byte[] dest, int destOff) {
+        int in = stages.position();
+        int out = destOff;
+        final int len = stages.remaining();
+        final int blockEnd = in + (len & ~7);
+        while (in < blockEnd) {
+            int bits = 0;
+            for (int shift = 0; shift < 24; shift += BITS_PER_STAGE) {
+                bits |= checkStage(stages.get(in++)) << shift;
+            }
+            dest[out] = (byte) bits;
+            dest[out + 1] = (byte) (bits >>> 8);
+            dest[out + 2] = (byte) (bits >>> 16);
+            out += 3;
+        }
+        final int end = stages.limit();
+        if (in < end) {
+            int bits = 0;
+            for (int shift = 0; in < end; shift += BITS_PER_STAGE) {
+                bits |= checkStage(stages.get(in++)) << shift;
+            }
+            final int tail = packedSize(len) - (out - destOff);
+            for (int i = 0; i < tail; i++) {
+                dest[out++] = (byte) (bits >>> (i << 3));
+            }
+        }
+        stages.position(end);
+        return out - destOff;
+    }
+
+    /**
+     * Constant time lookup of the stage of an epoch within a packed payload starting at off.
+     */
+    public static int packedStageAt(byte[] packed, int off, int epoch) {
+        final int bit = epoch * BITS_PER_STAGE;
+        final int index = off + (bit >>> 3);
+        final int shift = bit & 7;
+        int bits = packed[index] & 0xff;
+        if (shift > 8 - BITS_PER_STAGE) {
+            bits |= (packed[index + 1] & 0xff) << 8;
+        }
+        return (bits >>> shift) & STAGE_MASK;
+    }
+
+    /**
+     * Unpack epochs stages from the packed payload at off into dest one byte per stage.
+     */
+    public static void unpack(byte[] packed, int off, byte[] dest, int destOff, int epochs) {
+        int in = off;
+        int out = destOff;
+        final int blockEnd = destOff + (epochs & ~7);
+        while (out < blockEnd) {
+            final int bits = (packed[in] & 0xff)
+                | (packed[in + 1] & 0xff) << 8
+                | (packed[in + 2] & 0xff) << 16;
+            dest[out] = (byte) (bits & STAGE_MASK);
+            dest[out + 1] = (byte) ((bits >>> 3) & STAGE_MASK);
+            dest[out + 2] = (byte) ((bits >>> 6) & STAGE_MASK);
+            dest[out + 3] = (byte) ((bits >>> 9) & STAGE_MASK);
+            dest[out + 4] = (byte) ((bits >>> 12) & STAGE_MASK);
+            dest[out + 5] = (byte) ((bits >>> 15) & STAGE_MASK);
+            dest[out + 6] = (byte) ((bits >>> 18) & STAGE_MASK);
+            dest[out + 7] = (byte) ((bits >>> 21) & STAGE_MASK);
+            in += 3;
+            out += 8;
+        }
+        for (int epoch = out - destOff; epoch < epochs; epoch++) {
+            dest[out++] = (byte) packedStageAt(packed, off, epoch);
+        }
+    }
+
+    /**
+     * Unpack epochs stages from the packed payload at off into dest one int per stage.
+     */
+    public static void unpack(byte[] packed, int off, IntBuffer dest, int epochs) {
+        int in = off;
+        int epoch = 0;
+        final int blockEnd = epochs & ~7;
+        while (epoch < blockEnd) {
+            final int bits = (packed[in] & 0xff)
+                | (packed[in + 1] & 0xff) << 8
+                | (packed[in + 2] & 0xff) << 16;
+            for (int shift = 0; shift < 24; shift += BITS_PER_STAGE) {
+                dest.put((bits >>> shift) & STAGE_MASK);
+            }
+            in += 3;
+            epoch += 8;
+        }
+        for (; epoch < epochs; epoch++) {
+            dest.put(packedStageAt(packed, off, epoch));
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+    // Run length payloads.
+
+    /**
+     * @return the number of bytes {@link #encodeRuns} will produce for the given stages.
+     */
+    public static int runLengthSize(byte[] stages, int off, int len) {
+        int size = 0;
+        final int end = off + len;
+        int i = off;
+        while (i < end) {
+            final byte stage = stages[i];
+            final int start = i;
+            while (i < end && stages[i] == stage) {
+                i++;
+            }
+            size += runSize(i - start);
+        }
+        return size;
+    }
+
+    /**
+     * @return the number of bytes {@link #encodeRuns} will produce for the stages remaining in the
+     *     buffer, whose position is left unchanged.
+     */
+    public static int runLengthSize(IntBuffer stages) {
+        int size = 0;
+        final int end = stages.limit();
+        int i = stages.position();
+        while (i < end) {
+            final int stage = stages.get(i);
+            final int start = i;
+            while (i < end && stages.get(i) == stage) {
+                i++;
+            }
+            size += runSize(i - start);
+        }
+        return size;
+    }
+
+    /**
+     * Run length encode len stages beginning at off into dest. At most len bytes are written.
+     *
+     * @return the number of bytes written.
+     */
+    public static int encodeRuns(byte[] stages, int off, int len, byte[] dest, int destOff) {
+        int out = destOff;
+        final int end = off + len;
+        int i = off;
+        while (i < end) {
+            final int stage = checkStage(stages[i]);
+            final int start = i;
+            while (i < end && stages[i] == stage) {
+                i++;
+            }
+            final int length = i - start;
+            if (length <= LONG_RUN) {
+                dest[out++] = (byte) (stage | (length - 1) << BITS_PER_STAGE);
+            } else {
+                dest[out++] = (byte) (stage | LONG_RUN << BITS_PER_STAGE);
+                out = writeVarint(length - LONG_RUN - 1, dest, out);
+            }
+        }
+        return out - destOff;
+    }
+
+    /**
+     * Run length encode the stages remaining in the buffer into dest, advancing the buffer's
+     * position past them. At most as many bytes as stages are written.
+     *
+     * @return the number of bytes written.
+     */
+    public static int encodeRuns(IntBuffer stages, byte[] dest, int destOff) {
+        int out = destOff;
+        final int end = stages.limit();
+        int i = stages.position();
+        while (i < end) {
+            final int stage = checkStage(stages.get(i));
+            final int start = i;
+            while (i < end && stages.get(i) == stage) {
+                i++;
+            }
+            final int length = i - start;
+            if (length <= LONG_RUN) {
+                dest[out++] = (byte) (stage | (length - 1) << BITS_PER_STAGE);
+            } else {
+                dest[out++] = (byte) (stage | LONG_RUN << BITS_PER_STAGE);
+                out = writeVarint(length - LONG_RUN - 1, dest, out);
+            }
+        }
+        stages.position(end);
+        return out - destOff;
+    }
+
+    /**
+     * Decode the run length payload of len bytes at off into dest one byte per stage.
+     *
+     * @return the number of epochs written.
+     */
+    public static int decodeRuns(byte[] runs, int off, int len, byte[] dest, int destOff) {
+        int in = off;
+        int out = destOff;
+        final int end = off + len;
+        while (in < end) {
+            final int run = runs[in++] & 0xff;
+            int length = (run >>> BITS_PER_STAGE) + 1;
+            if (length == LONG_RUN + 1) {
+                final int extra = readVarint(runs, in);
+                in += varintSize(extra);
+                length = extra + LONG_RUN + 1;
+            }
+            final byte stage = (byte) (run & STAGE_MASK);
+            final int runEnd = out + length;
+            while (out < runEnd) {
+                dest[out++] = stage;
+            }
+        }
+        return out - destOff;
+    }
+
+    /**
+     * Decode the run length payload of len bytes at off into dest one int per stage.
+     *
+     * @return the number of epochs written.
+     */
+    public static int decodeRuns(byte[] runs, int off, int len, IntBuffer dest) {
+        int in = off;
+        int epochs = 0;
+        final int end = off + len;
+        while (in < end) {
+            final int run = runs[in++] & 0xff;
+            int length = (run >>> BITS_PER_STAGE) + 1;
+            if (length == LONG_RUN + 1) {
+                final int extra = readVarint(runs, in);
+                in += varintSize(extra);
+                length = extra + LONG_RUN + 1;
+            }
+            final int stage = run & STAGE_MASK;
+            for (int i = 0; i < length; i++) {
+                dest.put(stage);
+            }
+            epochs += length;
+        }
+        return epochs;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+    // Helpers.
+
+    private static int runSize(int length) {
+        return length <= LONG_RUN ? 1 : 1 + varintSize(length - LONG_RUN - 1);
+    }
+
+    private static int checkStage(int stage) {
+        if ((stage & ~STAGE_MASK) != 0) {
+            throw new IllegalArgumentException("Sleep stage out of range: " + stage);
+        }
+        return stage;
+    }
+
+    private static int varintSize(int value) {
+        int size = 1;
+        while ((value >>>= 7) != 0) {
+            size++;
+        }
+        return size;
+    }
+
+    private static int writeVarint(int value, byte[] dest, int position) {
+        while ((value & ~0x7f) != 0) {
+            dest[position++] = (byte) ((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        dest[position++] = (byte) value;
+        return position;
+    }
+
+    private static int readVarint(byte[] src, int position) {
+        int value = 0;
+        int shift = 0;
+        int b;
+        do {
+            b = src[position++];
+            value |= (b & 0x7f) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return value;
+    }
+}
@@ -0,0 +1,235 @@
+/*
+ * Copyright (C) 2011 Zeo Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.myzeo.android.api.data;
+
+import static com.myzeo.android.api.data.ZeoDataContract.SleepRecord;
+
+import java.util.Arrays;
+
+/**
+ * Streaming majority downsampler turning base hypnogram epochs into coarser buckets, such as the
+ * 5 minute {@link SleepRecord#DISPLAY_HYPNOGRAM} derived from {@link SleepRecord#BASE_HYPNOGRAM}.
+ *
+ * <p>
+ *
+ * Epochs may be fed in pieces as they arrive; each completed bucket is written to the caller's
+ * array as soon as its last epoch is seen. A downsampler holds only the per stage tallies of the
+ * bucket in progress, so several instances (one per zoom level) can consume the same stream
+ * without keeping the full hypnogram around. Instances are not thread safe.
+ *
+ * </p>
+ */
+public class HypnogramDownsampler {
+
+    /** Base epochs per minute (each epoch is 30 seconds). */
+    public static final int EPOCHS_PER_MINUTE = 2;
+
+    /** Base epochs per {@link SleepRecord#DISPLAY_HYPNOGRAM} element. */
+    public static final int DISPLAY_BUCKET_EPOCHS = 5 * EPOCHS_PER_MINUTE;
+
+    /** Among tied stages pick the one that occurred first within the bucket. */
+    public static final int TIE_BREAK_FIRST = 0;
+    /** Among tied stages pick the one that occurred last within the bucket. */
+    public static final int TIE_BREAK_LAST = 1;
+    /** Among tied stages pick the one with the highest stage value (deep over light and so on). */
+    public static final int TIE_BREAK_HIGHER_STAGE = 2;
+    /** Among tied stages pick the one with the lowest stage value. */
+    public static final int TIE_BREAK_LOWER_STAGE = 3;
+
+    private static final int STAGES = SleepRecord.SLEEP_STAGE_NMAX;
+
+    private final int mBucketEpochs;
+    private final int mTieBreak;
+
+    /** Epochs of each stage in the bucket in progress. */
+    private final int[] mCounts = new int[STAGES];
+    /** Position within the bucket of each stage's first epoch. */
+    private final int[] mFirst = new int[STAGES];
+    /** Position within the bucket of each stage's last epoch. */
+    private final int[] mLast = new int[STAGES];
+    /** Epochs consumed by the bucket in progress. */
+    private int mFill;
+
+    /**
+     * Create a downsampler producing {@link SleepRecord#DISPLAY_HYPNOGRAM} style buckets.
+     */
+    public HypnogramDownsampler() {
+        this(DISPLAY_BUCKET_EPOCHS, TIE_BREAK_FIRST);
+    }
+
+    /**
+     * Create a downsampler with buckets of bucketEpochs base epochs (2 per minute, so 2, 10, 30
+     * and 120 for 1, 5, 15 and 60 minute buckets).
+     *
+     * @param tieBreak one of the TIE_BREAK_* constants.
+     */
+    public HypnogramDownsampler(int bucketEpochs, int tieBreak) {
+        if (bucketEpochs < 1) {
+            throw new IllegalArgumentException("Bucket must hold at least one epoch");
+        }
+        if (tieBreak < TIE_BREAK_FIRST || tieBreak > TIE_BREAK_LOWER_STAGE) {
+            throw new IllegalArgumentException("Unknown tie break: " + tieBreak);
+        }
+        mBucketEpochs = bucketEpochs;
+        mTieBreak = tieBreak;
+    }
+
+    /**
+     * @return base epochs per bucket.
+     */
+    public int getBucketEpochs() {
+        return mBucketEpochs;
+    }
+
+    /**
+     * @return the number of buckets needed for epochs base epochs including a partial last one.
+     */
+    public static int bucketCount(int epochs, int bucketEpochs) {
+        return (epochs + bucketEpochs - 1) / bucketEpochs;
+    }
+
+    /**
+     * Downsample a whole hypnogram, including a trailing partial bucket.
+     *
+     * @return the number of buckets written to dest.
+     */
+    public static int downsample(byte[] stages, int off, int len, int bucketEpochs, int tieBreak,
+                                 byte[] dest, int destOff) {
+        HypnogramDownsampler downsampler = new HypnogramDownsampler(bucketEpochs, tieBreak);
+        final int written = downsampler.write(stages, off, len, dest, destOff);
+        return written + downsampler.flush(dest, destOff + written);
+    }
+
+    /**
+     * Consume len epochs beginning at off. Every bucket completed by these epochs is written to
+     * dest; dest must have room for (pending epochs + len) / bucket epochs stages.
+     *
+     * @return the number of buckets written.
+     */
+    public int write(byte[] stages, int off, int len, byte[] dest, int destOff) {
+        final int[] counts = mCounts;
+        final int[] first = mFirst;
+        final int[] last = mLast;
+        final int bucketEpochs = mBucketEpochs;
+        int fill = mFill;
+        int out = destOff;
+        final int end = off + len;
+        for (int i = off; i < end; i++) {
+            int stage = stages[i];
+            if (stage < 0 || stage >= STAGES) {
+                stage = SleepRecord.SLEEP_STAGE_UNDEFINED;
+            }
+            if (counts[stage]++ == 0) {
+                first[stage] = fill;
+            }
+            last[stage] = fill;
+            if (++fill == bucketEpochs) {
+                dest[out++] = (byte) majority();
+                Arrays.fill(counts, 0);
+                fill = 0;
+            }
+        }
+        mFill = fill;
+        return out - destOff;
+    }
+
+    /**
+     * Consume a single epoch.
+     *
+     * @return the completed bucket's stage or -1 if the bucket is still in progress.
+     */
+    public int write(int stage) {
+        if (stage < 0 || stage >= STAGES) {
+            stage = SleepRecord.SLEEP_STAGE_UNDEFINED;
+        }
+        if (mCounts[stage]++ == 0) {
+            mFirst[stage] = mFill;
+        }
+        mLast[stage] = mFill;
+        if (++mFill < mBucketEpochs) {
+            return -1;
+        }
+        final int majority = majority();
+        reset();
+        return majority;
+    }
+
+    /**
+     * Emit the bucket in progress, if any, from the epochs seen so far and start afresh.
+     *
+     * @return the number of buckets written (0 or 1).
+     */
+    public int flush(byte[] dest, int destOff) {
+        if (mFill == 0) {
+            return 0;
+        }
+        dest[destOff] = (byte) majority();
+        reset();
+        return 1;
+    }
+
+    /**
+     * @return the number of epochs in the bucket in progress.
+     */
+    public int pending() {
+        return mFill;
+    }
+
+    /**
+     * Discard the bucket in progress.
+     */
+    public void reset() {
+        Arrays.fill(mCounts, 0);
+        mFill = 0;
+    }
+
+    /**
+     * @return the majority stage of the bucket in progress.
+     */
+    private int majority() {
+        final int[] counts = mCounts;
+        int best = -1;
+        int bestCount = 0;
+        for (int stage = 0; stage < STAGES; stage++) {
+            final int count = counts[stage];
+            if (count == 0 || count < bestCount) {
+                continue;
+            }
+            if (count > bestCount || prefer(stage, best)) {
+                best = stage;
+                bestCount = count;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * @return true if candidate should win a tie against current.
+     */
+    private boolean prefer(int candidate, int current) {
+        switch (mTieBreak) {
+        case TIE_BREAK_FIRST:
+            return mFirst[candidate] < mFirst[current];
+        case TIE_BREAK_LAST:
+            return mLast[candidate] > mLast[current];
+        case TIE_BREAK_HIGHER_STAGE:
+            return candidate > current;
+        default:
+            return false;
+        }
+    }
+}
@@ -0,0 +1,182 @@
+/*
+ * Copyright (C) 2011 Zeo Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.myzeo.android.api.data;
+
+import static com.myzeo.android.api.data.ZeoDataContract.SleepRecord;
+
+import java.util.Arrays;
+
+/**
+ * Reusable holder for the metrics {@link HypnogramAnalyzer} computes from a base hypnogram.
+ *
+ * <p>
+ *
+ * Fields are public and arrays are allocated once so that a single instance can be reused across
+ * thousands of nights. Stage indexed arrays use the {@link SleepRecord} SLEEP_STAGE_* constants as
+ * indices; values outside the defined stages are counted as
+ * {@link SleepRecord#SLEEP_STAGE_UNDEFINED}.
+ *
+ * </p>
+ */
+public class HypnogramStats {
+
+    /** Stored {@link SleepRecord#TIME_IN_DEEP} disagrees with the hypnogram. */
+    public static final int MISMATCH_TIME_IN_DEEP = 1;
+    /** Stored {@link SleepRecord#TIME_IN_LIGHT} disagrees with the hypnogram. */
+    public static final int MISMATCH_TIME_IN_LIGHT = 1 << 1;
+    /** Stored {@link SleepRecord#TIME_IN_REM} disagrees with the hypnogram. */
+    public static final int MISMATCH_TIME_IN_REM = 1 << 2;
+    /** Stored {@link SleepRecord#TIME_IN_WAKE} disagrees with the hypnogram. */
+    public static final int MISMATCH_TIME_IN_WAKE = 1 << 3;
+    /** Stored {@link SleepRecord#TIME_TO_Z} disagrees with the hypnogram. */
+    public static final int MISMATCH_TIME_TO_Z = 1 << 4;
+    /** Stored {@link SleepRecord#TOTAL_Z} disagrees with the hypnogram. */
+    public static final int MISMATCH_TOTAL_Z = 1 << 5;
+    /** Stored {@link SleepRecord#AWAKENINGS} disagrees with the hypnogram. */
+    public static final int MISMATCH_AWAKENINGS = 1 << 6;
+
+    /** Number of REM periods recorded when no capacity is given. */
+    public static final int DEFAULT_REM_CAPACITY = 32;
+
+    /** Number of epochs analyzed. */
+    public int epochs;
+
+    /** Epochs spent in each stage. */
+    public final int[] stageCounts = new int[SleepRecord.SLEEP_STAGE_NMAX];
+
+    /** Longest uninterrupted run of each stage in epochs. */
+    public final int[] longestRun = new int[SleepRecord.SLEEP_STAGE_NMAX];
+
+    /**
+     * Count of stage changes; the change from stage a to stage b is found at index
+     * a * SLEEP_STAGE_NMAX + b.
+     */
+    public final int[] transitions = new int[SleepRecord.SLEEP_STAGE_NMAX *
+                                             SleepRecord.SLEEP_STAGE_NMAX];
+
+    /** Epochs before the first REM, light or deep epoch; all epochs if sleep never began. */
+    public int timeToZ;
+
+    /** Epochs spent in REM, light or deep sleep. */
+    public int totalZ;
+
+    /** Index of the first sleep epoch or -1. */
+    public int sleepOnset;
+
+    /** Index of the last sleep epoch or -1. */
+    public int sleepEnd;
+
+    /** Number of times sleep was followed by wake. */
+    public int awakenings;
+
+    /** Number of REM periods; may exceed the capacity of the remStart and remEnd arrays. */
+    public int remPeriods;
+
+    /** First epoch of each REM period, which marks the end of a sleep cycle. */
+    public final int[] remStart;
+
+    /** Epoch following the last of each REM period. */
+    public final int[] remEnd;
+
+    /**
+     * Create a holder recording up to {@link #DEFAULT_REM_CAPACITY} REM periods.
+     */
+    public HypnogramStats() {
+        this(DEFAULT_REM_CAPACITY);
+    }
+
+    /**
+     * Create a holder recording the bounds of up to remCapacity REM periods.
+     */
+    public HypnogramStats(int remCapacity) {
+        remStart = new int[remCapacity];
+        remEnd = new int[remCapacity];
+    }
+
+    /** @return epochs of deep sleep as stored in {@link SleepRecord#TIME_IN_DEEP}. */
+    public int timeInDeep() {
+        return stageCounts[SleepRecord.SLEEP_STAGE_DEEP];
+    }
+
+    /** @return epochs of light sleep as stored in {@link SleepRecord#TIME_IN_LIGHT}. */
+    public int timeInLight() {
+        return stageCounts[SleepRecord.SLEEP_STAGE_LIGHT];
+    }
+
+    /** @return epochs of REM sleep as stored in {@link SleepRecord#TIME_IN_REM}. */
+    public int timeInRem() {
+        return stageCounts[SleepRecord.SLEEP_STAGE_REM];
+    }
+
+    /** @return epochs awake as stored in {@link SleepRecord#TIME_IN_WAKE}. */
+    public int timeInWake() {
+        return stageCounts[SleepRecord.SLEEP_STAGE_WAKE];
+    }
+
+    /** @return number of changes from stage from to stage to. */
+    public int transitionCount(int from, int to) {
+        return transitions[from * SleepRecord.SLEEP_STAGE_NMAX + to];
+    }
+
+    /**
+     * Compare stored summary columns of a sleep record against these metrics.
+     *
+     * @return a combination of the MISMATCH_* flags; 0 when everything agrees.
+     */
+    public int compare(int timeInDeep, int timeInLight, int timeInRem, int timeInWake,
+                       int timeToZ, int totalZ, int awakenings) {
+        int mismatches = 0;
+        if (timeInDeep != timeInDeep()) {
+            mismatches |= MISMATCH_TIME_IN_DEEP;
+        }
+        if (timeInLight != timeInLight()) {
+            mismatches |= MISMATCH_TIME_IN_LIGHT;
+        }
+        if (timeInRem != timeInRem()) {
+            mismatches |= MISMATCH_TIME_IN_REM;
+        }
+        if (timeInWake != timeInWake()) {
+            mismatches |= MISMATCH_TIME_IN_WAKE;
+        }
+        if (timeToZ != this.timeToZ) {
+            mismatches |= MISMATCH_TIME_TO_Z;
+        }
+        if (totalZ != this.totalZ) {
+            mismatches |= MISMATCH_TOTAL_Z;
+        }
+        if (awakenings != this.awakenings) {
+            mismatches |= MISMATCH_AWAKENINGS;
+        }
+        return mismatches;
+    }
+
+    /**
+     * Zero every metric.
+     */
+    public void clear() {
+        epochs = 0;
+        Arrays.fill(stageCounts, 0);
+        Arrays.fill(longestRun, 0);
+        Arrays.fill(transitions, 0);
+        timeToZ = 0;
+        totalZ = 0;
+        sleepOnset = -1;
+        sleepEnd = -1;
+        awakenings = 0;
+        remPeriods = 0;
+    }
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright (C) 2011 Zeo Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.myzeo.android.api.data;
+
+import static com.myzeo.android.api.data.ZeoDataContract.SleepRecord;
+
+import android.database.Cursor;
+
+/**
+ * Flags sleep records whose stored summary columns disagree with their
+ * {@link SleepRecord#BASE_HYPNOGRAM}.
+ */
+public class HypnogramValidator {
+
+    /** Receives rows that fail validation. */
+    public interface Listener {
+        /**
+         * Called with the cursor positioned on a mismatching row.
+         *
+         * @param mismatches combination of the HypnogramStats.MISMATCH_* flags.
+         * @param computed metrics computed from the hypnogram; reused after this call returns.
+         */
+        void onMismatch(Cursor cursor, int mismatches, HypnogramStats computed);
+    }
+
+    /** Columns a cursor given to {@link #validate} must contain. */
+    public static final String[] PROJECTION = new String[] {
+        SleepRecord._ID,
+        SleepRecord.BASE_HYPNOGRAM,
+        SleepRecord.TIME_IN_DEEP,
+        SleepRecord.TIME_IN_LIGHT,
+        SleepRecord.TIME_IN_REM,
+        SleepRecord.TIME_IN_WAKE,
+        SleepRecord.TIME_TO_Z,
+        SleepRecord.TOTAL_Z,
+        SleepRecord.AWAKENINGS
+    };
+
+    /** Flags ignored when comparing; for instance awakenings if counted differently. */
+    private final int mIgnored;
+
+    private final HypnogramStats mStats = new HypnogramStats();
+
+    /**
+     * Create a validator checking every summary column.
+     */
+    public HypnogramValidator() {
+        this(0);
+    }
+
+    /**
+     * Create a validator that does not report the given HypnogramStats.MISMATCH_* flags.
+     */
+    public HypnogramValidator(int ignored) {
+        mIgnored = ignored;
+    }
+
+    /**
+     * Check every row of the cursor. The cursor is not closed.
+     *
+     * @return the number of rows that failed validation.
+     */
+    public int validate(Cursor cursor, Listener listener) {
+        final int hypnogram = cursor.getColumnIndexOrThrow(SleepRecord.BASE_HYPNOGRAM);
+        final int deep = cursor.getColumnIndexOrThrow(SleepRecord.TIME_IN_DEEP);
+        final int light = cursor.getColumnIndexOrThrow(SleepRecord.TIME_IN_LIGHT);
+        final int rem = cursor.getColumnIndexOrThrow(SleepRecord.TIME_IN_REM);
+        final int wake = cursor.getColumnIndexOrThrow(SleepRecord.TIME_IN_WAKE);
+        final int timeToZ = cursor.getColumnIndexOrThrow(SleepRecord.TIME_TO_Z);
+        final int totalZ = cursor.getColumnIndexOrThrow(SleepRecord.TOTAL_Z);
+        final int awakenings = cursor.getColumnIndexOrThrow(SleepRecord.AWAKENINGS);
+
+        int failures = 0;
+        if (cursor.moveToFirst()) {
+            do {
+                final byte[] stages = cursor.getBlob(hypnogram);
+                HypnogramAnalyzer.analyze(stages, 0, stages == null ? 0 : stages.length, mStats);
+                final int mismatches = mStats.compare(cursor.getInt(deep),
+                                                      cursor.getInt(light),
+                                                      cursor.getInt(rem),
+                                                      cursor.getInt(wake),
+                                                      cursor.getInt(timeToZ),
+                                                      cursor.getInt(totalZ),
+                                                      cursor.getInt(awakenings)) & ~mIgnored;
+                if (mismatches != 0) {
+                    failures++;
+                    if (listener != null) {
+                        listener.onMismatch(cursor, mismatches, mStats);
+                    }
+                }
+            } while (cursor.moveToNext());
+        }
+        return failures;
+    }
+}
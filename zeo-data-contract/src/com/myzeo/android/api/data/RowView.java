@@ -0,0 +1,183 @@
+/*
+ * Copyright (C) 2011 Zeo Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.myzeo.android.api.data;
+
+import android.database.CharArrayBuffer;
+import android.database.Cursor;
+import android.provider.BaseColumns;
+
+/**
+ * Base of the typed, reusable views over rows of a Zeo provider cursor.
+ *
+ * <p>
+ *
+ * A view resolves the cursor index of each of its columns once in {@link #bind(Cursor)} and keeps
+ * them in an int array; its getters then read the cursor's current row by index without any
+ * column name lookup. One view instance serves every row of a scan. Columns left out of the
+ * cursor's projection read as 0, false or null.
+ *
+ * </p>
+ */
+public abstract class RowView {
+
+    /** Field index of {@link BaseColumns#_ID}; every view's projection starts with it. */
+    public static final int FIELD_ID = 0;
+    /** Field index of {@link ZeoDataContract.TimestampColumns#CREATED_ON}. */
+    public static final int FIELD_CREATED_ON = 1;
+    /** Field index of {@link ZeoDataContract.TimestampColumns#UPDATED_ON}. */
+    public static final int FIELD_UPDATED_ON = 2;
+
+    private final String[] mProjection;
+    private final int[] mColumns;
+    private Cursor mCursor;
+
+    /**
+     * @param projection the view's columns, beginning with _ID, CREATED_ON and UPDATED_ON.
+     */
+    protected RowView(String[] projection) {
+        mProjection = projection;
+        mColumns = new int[projection.length];
+    }
+
+    /**
+     * @return a copy of the columns this view reads, suitable as a query projection.
+     */
+    public String[] getProjection() {
+        return mProjection.clone();
+    }
+
+    /**
+     * Attach the view to a cursor, resolving the index of each of its columns.
+     *
+     * @return this view.
+     */
+    public RowView bind(Cursor cursor) {
+        mCursor = cursor;
+        for (int i = 0; i < mProjection.length; i++) {
+            mColumns[i] = cursor.getColumnIndex(mProjection[i]);
+        }
+        return this;
+    }
+
+    /**
+     * @return the bound cursor.
+     */
+    public Cursor getCursor() {
+        return mCursor;
+    }
+
+    /** @see Cursor#moveToFirst() */
+    public boolean moveToFirst() {
+        return mCursor.moveToFirst();
+    }
+
+    /** @see Cursor#moveToNext() */
+    public boolean moveToNext() {
+        return mCursor.moveToNext();
+    }
+
+    /** @see Cursor#moveToPosition(int) */
+    public boolean moveToPosition(int position) {
+        return mCursor.moveToPosition(position);
+    }
+
+    /** @see Cursor#getCount() */
+    public int getCount() {
+        return mCursor.getCount();
+    }
+
+    /**
+     * @return true if the bound cursor provides the given field.
+     */
+    public boolean has(int field) {
+        return mColumns[field] >= 0;
+    }
+
+    /** @return row id. */
+    public long id() {
+        return getLong(FIELD_ID);
+    }
+
+    /** @return Unix timestamp at which the row was created. */
+    public long createdOn() {
+        return getLong(FIELD_CREATED_ON);
+    }
+
+    /** @return Unix timestamp at which the row was last updated. */
+    public long updatedOn() {
+        return getLong(FIELD_UPDATED_ON);
+    }
+
+    /**
+     * @return true if the field is absent from the cursor or null in the current row.
+     */
+    public boolean isNull(int field) {
+        final int column = mColumns[field];
+        return column < 0 || mCursor.isNull(column);
+    }
+
+    protected long getLong(int field) {
+        final int column = mColumns[field];
+        return column < 0 ? 0 : mCursor.getLong(column);
+    }
+
+    protected int getInt(int field) {
+        final int column = mColumns[field];
+        return column < 0 ? 0 : mCursor.getInt(column);
+    }
+
+    protected boolean getBoolean(int field) {
+        final int column = mColumns[field];
+        return column >= 0 && mCursor.getInt(column) != 0;
+    }
+
+    protected String getString(int field) {
+        final int column = mColumns[field];
+        return column < 0 ? null : mCursor.getString(column);
+    }
+
+    /**
+     * Copy a string field into a reusable buffer without creating a String.
+     */
+    protected void copyString(int field, CharArrayBuffer buffer) {
+        final int column = mColumns[field];
+        if (column < 0) {
+            buffer.sizeCopied = 0;
+        } else {
+            mCursor.copyStringToBuffer(column, buffer);
+        }
+    }
+
+    protected byte[] getBlob(int field) {
+        final int column = mColumns[field];
+        return column < 0 ? null : mCursor.getBlob(column);
+    }
+
+    /**
+     * Copy a blob field into dest, truncating if dest is too small.
+     *
+     * @return the full length of the blob; 0 if absent or null.
+     */
+    protected int copyBlob(int field, byte[] dest) {
+        final byte[] blob = getBlob(field);
+        if (blob == null) {
+            return 0;
+        }
+        System.arraycopy(blob, 0, dest, 0, Math.min(blob.length, dest.length));
+        return blob.length;
+    }
+}
@@ -0,0 +1,497 @@
+/*
+ * Copyright (C) 2011 Zeo Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.myzeo.android.api.data;
+
+import static com.myzeo.android.api.data.ZeoDataContract.SleepRecord;
+
+import android.database.Cursor;
+
+import java.util.Arrays;
+
+/**
+ * In memory index answering "nights like this one" by k nearest neighbour search over fixed size
+ * sketches of {@link SleepRecord#BASE_HYPNOGRAM}s.
+ *
+ * <p>
+ *
+ * A night's sketch is {@link #DIMENSIONS} floats: hours spent in each stage, the rate of each
+ * change between two stages per hour, and the night's mean sleep depth in
+ * {@link #PROFILE_BINS} equal slices of its length, each part weighted so that none dominates.
+ * Nights are compared by Euclidean distance between sketches. All sketches live back to back in
+ * one float array and each distance is a straight scan of two runs of it.
+ *
+ * </p>
+ *
+ * <p>
+ *
+ * Searches are exact but do not visit every night. The principal components of the sketches are
+ * found once and every night projected on the first few. Nights are ordered along the first
+ * component; as the distance along one direction never exceeds the whole distance, the search
+ * walks outwards from the query's position and stops each way once that gap alone exceeds the kth
+ * best distance found. A night passed on the way is skipped if its distance within the span of
+ * the components already does; otherwise its full distance is abandoned once the partial sum
+ * does. The order is rebuilt by the first search after nights are added. An index is not
+ * synchronized.
+ *
+ * </p>
+ */
+public class SimilarNightIndex {
+
+    /** Slices of the night whose mean depth is part of the sketch. */
+    public static final int PROFILE_BINS = 32;
+
+    /** Stages other than SLEEP_STAGE_UNDEFINED. */
+    private static final int STAGES = SleepRecord.SLEEP_STAGE_NMAX - 1;
+    private static final int OFFSET_TRANSITIONS = STAGES;
+    private static final int OFFSET_PROFILE = OFFSET_TRANSITIONS + STAGES * (STAGES - 1);
+
+    /** Floats in a sketch. */
+    public static final int DIMENSIONS = OFFSET_PROFILE + PROFILE_BINS;
+
+    /** Principal axes a night is projected on to bound its distance cheaply. */
+    private static final int AXES = 8;
+    private static final int POWER_ITERATIONS = 32;
+
+    /** Floats summed between checks whether a distance can be abandoned. */
+    private static final int BLOCK = 16;
+
+    private static final float EPOCHS_PER_HOUR = 120;
+    private static final float TRANSITION_WEIGHT = 0.25f;
+    private static final float PROFILE_WEIGHT = 0.35f;
+
+    /** Depth of each stage in a profile: wake 0, REM 1, light 2 and deep 3. */
+    private static final int[] DEPTH = new int[SleepRecord.SLEEP_STAGE_NMAX];
+
+    static {
+        DEPTH[SleepRecord.SLEEP_STAGE_REM] = 1;
+        DEPTH[SleepRecord.SLEEP_STAGE_LIGHT] = 2;
+        DEPTH[SleepRecord.SLEEP_STAGE_DEEP] = 3;
+    }
+
+    private static final int INITIAL_CAPACITY = 64;
+
+    private float[] mSketches;
+    private long[] mIds;
+    private int mSize;
+
+    // Search order, valid while mOrdered.
+    private boolean mOrdered;
+    /** Orthonormal directions along which the sketches vary most, the first most. */
+    private final float[] mAxes = new float[AXES * DIMENSIONS];
+    /** Row of each night in ascending order of its projection on the first axis. */
+    private int[] mOrder = new int[0];
+    /** Projections on every axis of each night in the same order. */
+    private float[] mProjections = new float[0];
+
+    private final HypnogramStats mStats = new HypnogramStats(0);
+    private final float[] mQuery = new float[DIMENSIONS];
+    private final float[] mQueryProjections = new float[AXES];
+
+    public SimilarNightIndex() {
+        this(INITIAL_CAPACITY);
+    }
+
+    public SimilarNightIndex(int capacity) {
+        capacity = Math.max(capacity, 1);
+        mSketches = new float[capacity * DIMENSIONS];
+        mIds = new long[capacity];
+    }
+
+    /**
+     * Index the sleep records of a cursor holding _ID and BASE_HYPNOGRAM.
+     */
+    public static SimilarNightIndex forSleepRecords(Cursor cursor) {
+        final int idColumn = cursor.getColumnIndexOrThrow(SleepRecord._ID);
+        final int stagesColumn = cursor.getColumnIndexOrThrow(SleepRecord.BASE_HYPNOGRAM);
+        SimilarNightIndex index = new SimilarNightIndex(cursor.getCount());
+        if (cursor.moveToFirst()) {
+            do {
+                final byte[] stages = cursor.getBlob(stagesColumn);
+                if (stages != null) {
+                    index.add(cursor.getLong(idColumn), stages, 0, stages.length);
+                }
+            } while (cursor.moveToNext());
+        }
+        return index;
+    }
+
+    /**
+     * Sketch len epochs of a hypnogram beginning at off into dest.
+     *
+     * @param stats scratch space, overwritten.
+     */
+    public static void sketch(byte[] stages, int off, int len, HypnogramStats stats,
+                              float[] dest, int destOff) {
+        Arrays.fill(dest, destOff, destOff + DIMENSIONS, 0);
+        HypnogramAnalyzer.analyze(stages, off, len, stats);
+        if (len == 0) {
+            return;
+        }
+
+        final int[] counts = stats.stageCounts;
+        for (int s = 0; s < STAGES; s++) {
+            dest[destOff + s] = counts[s + 1] / EPOCHS_PER_HOUR;
+        }
+        final float perHour = TRANSITION_WEIGHT * EPOCHS_PER_HOUR / len;
+        final int[] transitions = stats.transitions;
+        int d = destOff + OFFSET_TRANSITIONS;
+        for (int from = 1; from <= STAGES; from++) {
+            for (int to = 1; to <= STAGES; to++) {
+                if (from != to) {
+                    dest[d++] = transitions[from * SleepRecord.SLEEP_STAGE_NMAX + to] * perHour;
+                }
+            }
+        }
+
+        // Slice i covers epochs [i * len / PROFILE_BINS, (i + 1) * len / PROFILE_BINS).
+        int start = off;
+        for (int bin = 0; bin < PROFILE_BINS; bin++) {
+            final int end = off + (int) ((long) len * (bin + 1) / PROFILE_BINS);
+            int depth = 0;
+            for (int i = start; i < end; i++) {
+                final int stage = stages[i];
+                depth += stage >= 0 && stage < SleepRecord.SLEEP_STAGE_NMAX ? DEPTH[stage] : 0;
+            }
+            if (end > start) {
+                dest[destOff + OFFSET_PROFILE + bin] = PROFILE_WEIGHT * depth / (end - start);
+            }
+            start = end;
+        }
+    }
+
+    /**
+     * Add a night. Ids are not checked for uniqueness.
+     */
+    public void add(long id, byte[] stages, int off, int len) {
+        if (mSize == mIds.length) {
+            grow();
+        }
+        sketch(stages, off, len, mStats, mSketches, mSize * DIMENSIONS);
+        mIds[mSize++] = id;
+        mOrdered = false;
+    }
+
+    private void grow() {
+        final int capacity = mIds.length * 2;
+        final float[] sketches = new float[capacity * DIMENSIONS];
+        System.arraycopy(mSketches, 0, sketches, 0, mSize * DIMENSIONS);
+        mSketches = sketches;
+        final long[] ids = new long[capacity];
+        System.arraycopy(mIds, 0, ids, 0, mSize);
+        mIds = ids;
+    }
+
+    /** @return number of nights. */
+    public int size() {
+        return mSize;
+    }
+
+    /** @return row id of the night at index, in order of addition. */
+    public long id(int index) {
+        return mIds[index];
+    }
+
+    /**
+     * Find the directions in which the sketches vary most, project every night on them and order
+     * the nights along the first.
+     */
+    private void order() {
+        final float[] sketches = mSketches;
+        final int size = mSize;
+
+        final double[] mean = new double[DIMENSIONS];
+        for (int i = 0, p = 0; i < size; i++) {
+            for (int d = 0; d < DIMENSIONS; d++, p++) {
+                mean[d] += sketches[p];
+            }
+        }
+        for (int d = 0; d < DIMENSIONS; d++) {
+            mean[d] /= Math.max(size, 1);
+        }
+        final double[] covariance = new double[DIMENSIONS * DIMENSIONS];
+        final double[] centered = new double[DIMENSIONS];
+        for (int i = 0, p = 0; i < size; i++, p += DIMENSIONS) {
+            for (int d = 0; d < DIMENSIONS; d++) {
+                centered[d] = sketches[p + d] - mean[d];
+            }
+            for (int row = 0; row < DIMENSIONS; row++) {
+                final double c = centered[row];
+                for (int column = row; column < DIMENSIONS; column++) {
+                    covariance[row * DIMENSIONS + column] += c * centered[column];
+                }
+            }
+        }
+        for (int row = 1; row < DIMENSIONS; row++) {
+            for (int column = 0; column < row; column++) {
+                covariance[row * DIMENSIONS + column] = covariance[column * DIMENSIONS + row];
+            }
+        }
+        principalAxes(covariance);
+
+        // Keys are packed above their row and sorted as longs; flipping the magnitude bits of
+        // negative floats makes their bits sort as the floats do.
+        final long[] packed = new long[size];
+        for (int i = 0; i < size; i++) {
+            int bits = Float.floatToIntBits(project(sketches, i * DIMENSIONS, 0));
+            bits ^= (bits >> 31) & 0x7fffffff;
+            packed[i] = (long) bits << 32 | i;
+        }
+        Arrays.sort(packed);
+        if (mOrder.length < size) {
+            mOrder = new int[mIds.length];
+            mProjections = new float[mIds.length * AXES];
+        }
+        for (int i = 0; i < size; i++) {
+            final int row = (int) packed[i];
+            mOrder[i] = row;
+            for (int axis = 0; axis < AXES; axis++) {
+                mProjections[i * AXES + axis] = project(sketches, row * DIMENSIONS, axis);
+            }
+        }
+        mOrdered = true;
+    }
+
+    /**
+     * Fill mAxes with the leading eigenvectors of covariance by power iteration, each kept
+     * orthogonal to those before it. An axis along which nothing varies is left zero, which
+     * keeps projected distances a lower bound.
+     */
+    private void principalAxes(double[] covariance) {
+        final double[] axes = new double[AXES * DIMENSIONS];
+        final double[] vector = new double[DIMENSIONS];
+        final double[] next = new double[DIMENSIONS];
+        for (int axis = 0; axis < AXES; axis++) {
+            for (int d = 0; d < DIMENSIONS; d++) {
+                vector[d] = 1 + (d * 7 + axis * 13) % 11;
+            }
+            boolean varies = normalize(vector, axes, axis);
+            for (int iteration = 0; varies && iteration < POWER_ITERATIONS; iteration++) {
+                for (int row = 0; row < DIMENSIONS; row++) {
+                    double sum = 0;
+                    for (int column = 0; column < DIMENSIONS; column++) {
+                        sum += covariance[row * DIMENSIONS + column] * vector[column];
+                    }
+                    next[row] = sum;
+                }
+                varies = normalize(next, axes, axis);
+                System.arraycopy(next, 0, vector, 0, DIMENSIONS);
+            }
+            for (int d = 0; d < DIMENSIONS; d++) {
+                final double value = varies ? vector[d] : 0;
+                axes[axis * DIMENSIONS + d] = value;
+                mAxes[axis * DIMENSIONS + d] = (float) value;
+            }
+        }
+    }
+
+    /**
+     * Remove from vector its components along the first count axes and scale it to unit length.
+     *
+     * @return false if nothing of it remained.
+     */
+    private static boolean normalize(double[] vector, double[] axes, int count) {
+        for (int axis = 0; axis < count; axis++) {
+            double dot = 0;
+            for (int d = 0; d < DIMENSIONS; d++) {
+                dot += vector[d] * axes[axis * DIMENSIONS + d];
+            }
+            for (int d = 0; d < DIMENSIONS; d++) {
+                vector[d] -= dot * axes[axis * DIMENSIONS + d];
+            }
+        }
+        double norm = 0;
+        for (int d = 0; d < DIMENSIONS; d++) {
+            norm += vector[d] * vector[d];
+        }
+        norm = Math.sqrt(norm);
+        if (norm < 1e-9) {
+            return false;
+        }
+        for (int d = 0; d < DIMENSIONS; d++) {
+            vector[d] /= norm;
+        }
+        return true;
+    }
+
+    /**
+     * @return position of the sketch at off along an axis.
+     */
+    private float project(float[] sketches, int off, int axis) {
+        final float[] axes = mAxes;
+        final int base = axis * DIMENSIONS;
+        float sum = 0;
+        for (int d = 0; d < DIMENSIONS; d++) {
+            sum += axes[base + d] * sketches[off + d];
+        }
+        return sum;
+    }
+
+    /**
+     * Find the nights most similar to a hypnogram.
+     *
+     * @param excludeId id of a night to leave out, such as the query's own, or -1.
+     * @param ids receives the ids of up to ids.length nearest nights, nearest first.
+     * @param distances receives their distances, or null.
+     * @return the number of nights found.
+     */
+    public int nearest(byte[] stages, int off, int len, long excludeId, long[] ids,
+                       float[] distances) {
+        sketch(stages, off, len, mStats, mQuery, 0);
+        return nearest(mQuery, excludeId, ids, distances);
+    }
+
+    /**
+     * Find the nights whose sketches are nearest to query.
+     *
+     * @see #nearest(byte[], int, int, long, long[], float[])
+     */
+    public int nearest(float[] query, long excludeId, long[] ids, float[] distances) {
+        final int k = ids.length;
+        if (k == 0 || mSize == 0) {
+            return 0;
+        }
+        if (!mOrdered) {
+            order();
+        }
+        final float[] projections = mProjections;
+        final int[] order = mOrder;
+        final long[] allIds = mIds;
+        final float[] queryProjections = mQueryProjections;
+        for (int axis = 0; axis < AXES; axis++) {
+            queryProjections[axis] = project(query, 0, axis);
+        }
+        final float key = queryProjections[0];
+
+        // Best squared distances so far, ascending, with their rows.
+        final float[] best = new float[k];
+        final int[] bestRows = new int[k];
+        int found = 0;
+        float worst = Float.POSITIVE_INFINITY;
+
+        int high = lowerBound(key);
+        int low = high - 1;
+        while (low >= 0 || high < mSize) {
+            final float gapLow = low >= 0
+                ? key - projections[low * AXES] : Float.POSITIVE_INFINITY;
+            final float gapHigh = high < mSize
+                ? projections[high * AXES] - key : Float.POSITIVE_INFINITY;
+            final int position;
+            final float gap;
+            if (gapLow <= gapHigh) {
+                position = low--;
+                gap = gapLow;
+            } else {
+                position = high++;
+                gap = gapHigh;
+            }
+            if (found == k && gap * gap >= worst) {
+                // The nearer side is already too far, so is everything else.
+                break;
+            }
+            final int row = order[position];
+            if (allIds[row] == excludeId) {
+                continue;
+            }
+            // Distance within the span of the axes, a lower bound costing a few floats.
+            float bound = 0;
+            for (int axis = 0, p = position * AXES; axis < AXES; axis++, p++) {
+                final float difference = queryProjections[axis] - projections[p];
+                bound += difference * difference;
+            }
+            if (bound >= worst) {
+                continue;
+            }
+            final float distance = distance(query, row, worst);
+            if (distance >= worst) {
+                continue;
+            }
+            int i = found < k ? found++ : k - 1;
+            for (; i > 0 && best[i - 1] > distance; i--) {
+                best[i] = best[i - 1];
+                bestRows[i] = bestRows[i - 1];
+            }
+            best[i] = distance;
+            bestRows[i] = row;
+            if (found == k) {
+                worst = best[k - 1];
+            }
+        }
+
+        for (int i = 0; i < found; i++) {
+            ids[i] = allIds[bestRows[i]];
+            if (distances != null) {
+                distances[i] = (float) Math.sqrt(best[i]);
+            }
+        }
+        return found;
+    }
+
+    /**
+     * @return the first position whose projection on the first axis is not below key.
+     */
+    private int lowerBound(float key) {
+        int low = 0;
+        int high = mSize;
+        while (low < high) {
+            final int mid = (low + high) >>> 1;
+            if (mProjections[mid * AXES] < key) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * @return squared distance between query and the sketch of row, or some value of at least
+     *     limit once the distance is known to reach it.
+     */
+    private float distance(float[] query, int row, float limit) {
+        final float[] sketches = mSketches;
+        final int base = row * DIMENSIONS;
+        float sum = 0;
+        for (int block = 0; block < DIMENSIONS; block += BLOCK) {
+            // Independent partial sums let the additions overlap.
+            float s0 = 0;
+            float s1 = 0;
+            float s2 = 0;
+            float s3 = 0;
+            final int end = Math.min(block + BLOCK, DIMENSIONS);
+            int d = block;
+            for (; d + 4 <= end; d += 4) {
+                final float d0 = query[d] - sketches[base + d];
+                final float d1 = query[d + 1] - sketches[base + d + 1];
+                final float d2 = query[d + 2] - sketches[base + d + 2];
+                final float d3 = query[d + 3] - sketches[base + d + 3];
+                s0 += d0 * d0;
+                s1 += d1 * d1;
+                s2 += d2 * d2;
+                s3 += d3 * d3;
+            }
+            for (; d < end; d++) {
+                final float d0 = query[d] - sketches[base + d];
+                s0 += d0 * d0;
+            }
+            sum += (s0 + s1) + (s2 + s3);
+            if (sum >= limit) {
+                break;
+            }
+        }
+        return sum;
+    }
+}
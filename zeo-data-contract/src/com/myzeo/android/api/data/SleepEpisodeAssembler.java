@@ -0,0 +1,237 @@
+/*
+ * Copyright (C) 2011 Zeo Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.myzeo.android.api.data;
+
+import com.myzeo.android.api.data.ZeoDataContract.AlarmAlertEvent;
+import com.myzeo.android.api.data.ZeoDataContract.AlarmSnoozeEvent;
+import com.myzeo.android.api.data.ZeoDataContract.AlarmTimeoutEvent;
+import com.myzeo.android.api.data.ZeoDataContract.SleepEpisode;
+import com.myzeo.android.api.data.ZeoDataContract.SleepRecord;
+
+import android.content.ContentResolver;
+import android.database.Cursor;
+
+/**
+ * Assembles whole nights by merge joining the sleep episode table with the sleep record and alarm
+ * event tables on their sleep episode id.
+ *
+ * <p>
+ *
+ * Each table is queried once, sorted on the join key, and the five cursors are walked forward
+ * together. For every episode the listener receives the same {@link Night} holder, positioned on
+ * the episode, with the range of each child cursor that belongs to it. Nothing is copied; the
+ * holder is only valid during the callback.
+ *
+ * </p>
+ */
+public class SleepEpisodeAssembler {
+
+    /** Receives each assembled night in episode id order. */
+    public interface Listener {
+        void onNight(Night night);
+    }
+
+    /** Child rows of one table belonging to the current episode. */
+    public static class Children<V extends RowView> {
+        private final V mView;
+        private Cursor mCursor;
+        private boolean mHasRow;
+        private int mNext;
+        private int mStart;
+        private int mCount;
+        private int mOrphans;
+
+        Children(V view) {
+            mView = view;
+        }
+
+        /** @return number of rows belonging to the episode. */
+        public int count() {
+            return mCount;
+        }
+
+        /**
+         * Position the view on the index-th row belonging to the episode.
+         *
+         * @return the view.
+         */
+        public V moveTo(int index) {
+            if (index < 0 || index >= mCount) {
+                throw new IndexOutOfBoundsException("index " + index + " of " + mCount);
+            }
+            mCursor.moveToPosition(mStart + index);
+            return mView;
+        }
+
+        void start(Cursor cursor) {
+            mCursor = cursor;
+            mCount = 0;
+            mNext = 0;
+            mOrphans = 0;
+            mHasRow = cursor != null && cursor.moveToFirst();
+            if (cursor != null) {
+                mView.bind(cursor);
+            }
+        }
+
+        /**
+         * Claim the rows of the given episode, skipping rows of episodes that do not exist.
+         */
+        void advance(long episodeId) {
+            mCount = 0;
+            if (mHasRow) {
+                mHasRow = mCursor.moveToPosition(mNext);
+            }
+            while (mHasRow) {
+                final long id = mView.getLong(FIELD_SLEEP_EPISODE_ID);
+                if (id > episodeId) {
+                    break;
+                }
+                if (id < episodeId) {
+                    mOrphans++;
+                } else if (mCount++ == 0) {
+                    mStart = mNext;
+                }
+                mNext++;
+                mHasRow = mCursor.moveToNext();
+            }
+        }
+
+        /** Count the rows past the last episode as orphans. */
+        void finish() {
+            mCount = 0;
+            if (mHasRow && mCursor.moveToPosition(mNext)) {
+                mOrphans += mCursor.getCount() - mNext;
+            }
+            mCursor = null;
+        }
+    }
+
+    /** One sleep episode with its sleep records and alarm events. */
+    public static class Night {
+        public final SleepEpisodeView episode = new SleepEpisodeView();
+        public final Children<SleepRecordView> records =
+            new Children<SleepRecordView>(new SleepRecordView());
+        public final Children<AlarmAlertEventView> alerts =
+            new Children<AlarmAlertEventView>(new AlarmAlertEventView());
+        public final Children<AlarmSnoozeEventView> snoozes =
+            new Children<AlarmSnoozeEventView>(new AlarmSnoozeEventView());
+        public final Children<AlarmTimeoutEventView> timeouts =
+            new Children<AlarmTimeoutEventView>(new AlarmTimeoutEventView());
+    }
+
+    /** Field index of the join key, shared by every child view. */
+    private static final int FIELD_SLEEP_EPISODE_ID = SleepRecordView.FIELD_SLEEP_EPISODE_ID;
+
+    private static final String ORDER_EPISODES = SleepEpisode._ID + " ASC";
+    private static final String ORDER_RECORDS =
+        SleepRecord.SLEEP_EPISODE_ID + " ASC, " + SleepRecord.START_OF_NIGHT + " ASC";
+    private static final String ORDER_ALERTS =
+        AlarmAlertEvent.SLEEP_EPISODE_ID + " ASC, " + AlarmAlertEvent.TIMESTAMP + " ASC";
+    private static final String ORDER_SNOOZES =
+        AlarmSnoozeEvent.SLEEP_EPISODE_ID + " ASC, " + AlarmSnoozeEvent.TIMESTAMP + " ASC";
+    private static final String ORDER_TIMEOUTS =
+        AlarmTimeoutEvent.SLEEP_EPISODE_ID + " ASC, " + AlarmTimeoutEvent.TIMESTAMP + " ASC";
+
+    private final Night mNight = new Night();
+    private int mOrphans;
+
+    /**
+     * Query the five tables and assemble every night. Cursors are closed before returning.
+     *
+     * @return number of episodes delivered.
+     */
+    public int assemble(ContentResolver resolver, Listener listener) {
+        Cursor episodes = null;
+        Cursor records = null;
+        Cursor alerts = null;
+        Cursor snoozes = null;
+        Cursor timeouts = null;
+        try {
+            episodes = resolver.query(SleepEpisode.CONTENT_URI, SleepEpisodeView.PROJECTION,
+                                      null, null, ORDER_EPISODES);
+            records = resolver.query(SleepRecord.CONTENT_URI, SleepRecordView.PROJECTION,
+                                     null, null, ORDER_RECORDS);
+            alerts = resolver.query(AlarmAlertEvent.CONTENT_URI, AlarmAlertEventView.PROJECTION,
+                                    null, null, ORDER_ALERTS);
+            snoozes = resolver.query(AlarmSnoozeEvent.CONTENT_URI,
+                                     AlarmSnoozeEventView.PROJECTION, null, null, ORDER_SNOOZES);
+            timeouts = resolver.query(AlarmTimeoutEvent.CONTENT_URI,
+                                      AlarmTimeoutEventView.PROJECTION, null, null,
+                                      ORDER_TIMEOUTS);
+            return assemble(episodes, records, alerts, snoozes, timeouts, listener);
+        } finally {
+            close(episodes);
+            close(records);
+            close(alerts);
+            close(snoozes);
+            close(timeouts);
+        }
+    }
+
+    private static void close(Cursor cursor) {
+        if (cursor != null) {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Assemble nights from cursors already sorted ascending on the episode id; the children
+     * additionally in whichever order they should be presented. A null child cursor contributes
+     * no rows.
+     *
+     * @return number of episodes delivered.
+     */
+    public int assemble(Cursor episodes, Cursor records, Cursor alerts, Cursor snoozes,
+                        Cursor timeouts, Listener listener) {
+        final Night night = mNight;
+        night.records.start(records);
+        night.alerts.start(alerts);
+        night.snoozes.start(snoozes);
+        night.timeouts.start(timeouts);
+
+        int delivered = 0;
+        if (episodes != null) {
+            night.episode.bind(episodes);
+            int position = 0;
+            while (episodes.moveToPosition(position++)) {
+                final long id = night.episode.id();
+                night.records.advance(id);
+                night.alerts.advance(id);
+                night.snoozes.advance(id);
+                night.timeouts.advance(id);
+                listener.onNight(night);
+                delivered++;
+            }
+        }
+
+        night.records.finish();
+        night.alerts.finish();
+        night.snoozes.finish();
+        night.timeouts.finish();
+        mOrphans = night.records.mOrphans + night.alerts.mOrphans + night.snoozes.mOrphans
+            + night.timeouts.mOrphans;
+        return delivered;
+    }
+
+    /**
+     * @return child rows of the last assembly whose episode id matched no episode.
+     */
+    public int getOrphanCount() {
+        return mOrphans;
+    }
+}
@@ -0,0 +1,65 @@
+/*
+ * Copyright (C) 2011 Zeo Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.myzeo.android.api.data;
+
+import com.myzeo.android.api.data.ZeoDataContract.SleepEpisode;
+
+import android.database.CharArrayBuffer;
+
+/**
+ * Typed view over the current row of a {@link SleepEpisode} cursor.
+ */
+public class SleepEpisodeView extends RowView {
+
+    /** Every sleep episode column, in field order. */
+    public static final String[] PROJECTION = new String[] {
+        SleepEpisode._ID,
+        SleepEpisode.CREATED_ON,
+        SleepEpisode.UPDATED_ON,
+        SleepEpisode.TIMEZONE,
+        SleepEpisode.START_TIMESTAMP,
+        SleepEpisode.END_TIMESTAMP
+    };
+
+    public static final int FIELD_TIMEZONE = 3;
+    public static final int FIELD_START_TIMESTAMP = 4;
+    public static final int FIELD_END_TIMESTAMP = 5;
+
+    public SleepEpisodeView() {
+        super(PROJECTION);
+    }
+
+    /** @see SleepEpisode#TIMEZONE */
+    public String timezone() {
+        return getString(FIELD_TIMEZONE);
+    }
+
+    /** @see SleepEpisode#TIMEZONE */
+    public void timezone(CharArrayBuffer buffer) {
+        copyString(FIELD_TIMEZONE, buffer);
+    }
+
+    /** @see SleepEpisode#START_TIMESTAMP */
+    public long startTimestamp() {
+        return getLong(FIELD_START_TIMESTAMP);
+    }
+
+    /** @see SleepEpisode#END_TIMESTAMP */
+    public long endTimestamp() {
+        return getLong(FIELD_END_TIMESTAMP);
+    }
+}
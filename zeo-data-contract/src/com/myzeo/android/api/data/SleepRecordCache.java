@@ -0,0 +1,351 @@
+/*
+ * Copyright (C) 2011 Zeo Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.myzeo.android.api.data;
+
+import static com.myzeo.android.api.data.ZeoDataContract.SleepRecord;
+
+import android.content.ContentResolver;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.os.Handler;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Least recently used cache of {@link DecodedSleepRecord}s keyed by {@link SleepRecord#_ID} and
+ * bounded by their approximate size in bytes.
+ *
+ * <p>
+ *
+ * Entries stay fresh until a {@link ChangeSource} reports a change. A change to a known row drops
+ * it; a change to an unknown row, which is all a {@link ContentObserver} can report, marks every
+ * entry stale. A stale entry is revalidated on its next lookup by reading only its
+ * {@link SleepRecord#UPDATED_ON}: if that still matches, the entry is kept and its hypnograms are
+ * not read again. A fresh entry is returned without touching the provider.
+ *
+ * </p>
+ *
+ * <p>
+ *
+ * All methods are thread safe so that changes can be reported from any thread. Lookups query the
+ * provider without holding the cache's lock.
+ *
+ * </p>
+ */
+public class SleepRecordCache {
+
+    /** Passed to {@link #invalidate(long)} when the changed row is not known. */
+    public static final long ALL_ROWS = -1;
+
+    /** Delivers provider changes to a cache. */
+    public interface ChangeSource {
+        /** Start reporting changes to the cache through {@link SleepRecordCache#invalidate}. */
+        void register(SleepRecordCache cache);
+
+        /** Stop reporting changes to the cache. */
+        void unregister(SleepRecordCache cache);
+    }
+
+    /**
+     * Reports every change under {@link ZeoDataContract#BASE_CONTENT_URI} as a change to unknown
+     * rows.
+     */
+    public static class ObserverChangeSource implements ChangeSource {
+        private final ContentResolver mResolver;
+        private final Handler mHandler;
+        private ContentObserver mObserver;
+
+        /**
+         * @param handler handler the observer is called on, or null for the binder thread.
+         */
+        public ObserverChangeSource(ContentResolver resolver, Handler handler) {
+            mResolver = resolver;
+            mHandler = handler;
+        }
+
+        @Override
+        public synchronized void register(final SleepRecordCache cache) {
+            if (mObserver != null) {
+                throw new IllegalStateException("Already registered");
+            }
+            mObserver = new ContentObserver(mHandler) {
+                @Override
+                public void onChange(boolean selfChange) {
+                    cache.invalidate(ALL_ROWS);
+                }
+            };
+            mResolver.registerContentObserver(ZeoDataContract.BASE_CONTENT_URI, true, mObserver);
+        }
+
+        @Override
+        public synchronized void unregister(SleepRecordCache cache) {
+            if (mObserver != null) {
+                mResolver.unregisterContentObserver(mObserver);
+                mObserver = null;
+            }
+        }
+    }
+
+    private static final String SELECTION_ID = SleepRecord._ID + " = ?";
+    private static final String[] PROJECTION_UPDATED_ON = new String[] {
+        SleepRecord.UPDATED_ON
+    };
+
+    private static class Entry {
+        final DecodedSleepRecord record;
+        final int size;
+        /** Generation at which the entry was last known to be current. */
+        int generation;
+
+        Entry(DecodedSleepRecord record, int generation) {
+            this.record = record;
+            this.size = record.sizeInBytes();
+            this.generation = generation;
+        }
+    }
+
+    private final LinkedHashMap<Long, Entry> mEntries =
+        new LinkedHashMap<Long, Entry>(16, 0.75f, true);
+    private final int mMaxSize;
+
+    private int mSize;
+    private int mGeneration;
+    /** Count of single row invalidations, to detect those racing with a load. */
+    private int mRemovals;
+    private int mHits;
+    private int mRevalidations;
+    private int mMisses;
+    private int mEvictions;
+    private ChangeSource mChangeSource;
+
+    /**
+     * @param maxSize upper bound on the summed {@link DecodedSleepRecord#sizeInBytes()}.
+     */
+    public SleepRecordCache(int maxSize) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("maxSize <= 0: " + maxSize);
+        }
+        mMaxSize = maxSize;
+    }
+
+    /**
+     * Take invalidations from source, replacing any source attached before.
+     */
+    public synchronized void attach(ChangeSource source) {
+        detach();
+        mChangeSource = source;
+        source.register(this);
+    }
+
+    /**
+     * Stop taking invalidations; every entry is marked stale since changes may now go unseen.
+     */
+    public synchronized void detach() {
+        if (mChangeSource != null) {
+            mChangeSource.unregister(this);
+            mChangeSource = null;
+            mGeneration++;
+        }
+    }
+
+    /**
+     * @return the record if cached and current, otherwise null. Never queries the provider, so a
+     *     stale entry is returned as null without being dropped.
+     */
+    public synchronized DecodedSleepRecord peek(long id) {
+        Entry entry = mEntries.get(id);
+        return entry != null && entry.generation == mGeneration ? entry.record : null;
+    }
+
+    /**
+     * Look up a sleep record, revalidating or loading it through resolver as needed. The provider
+     * is queried without holding the cache's lock.
+     *
+     * @return the record, or null if the provider has no such row.
+     */
+    public DecodedSleepRecord get(ContentResolver resolver, long id) {
+        final Entry stale;
+        int generation;
+        synchronized (this) {
+            stale = mEntries.get(id);
+            if (stale != null && stale.generation == mGeneration) {
+                mHits++;
+                return stale.record;
+            }
+            generation = mGeneration;
+        }
+
+        final String[] selectionArgs = new String[] { Long.toString(id) };
+        if (stale != null) {
+            final long updatedOn = queryUpdatedOn(resolver, selectionArgs);
+            synchronized (this) {
+                mRevalidations++;
+                final boolean cached = mEntries.get(id) == stale;
+                if (updatedOn == stale.record.updatedOn) {
+                    // Changes reported during the query leave the entry stale.
+                    if (cached && mGeneration == generation) {
+                        stale.generation = generation;
+                    }
+                    return stale.record;
+                }
+                if (cached) {
+                    remove(id);
+                }
+                generation = mGeneration;
+            }
+        }
+
+        final int removals;
+        synchronized (this) {
+            mMisses++;
+            removals = mRemovals;
+        }
+        final Cursor cursor = resolver.query(SleepRecord.CONTENT_URI, SleepRecordView.PROJECTION,
+                                             SELECTION_ID, selectionArgs, null);
+        if (cursor == null) {
+            return null;
+        }
+        final DecodedSleepRecord record;
+        try {
+            if (!cursor.moveToFirst()) {
+                return null;
+            }
+            SleepRecordView view = new SleepRecordView();
+            view.bind(cursor);
+            record = new DecodedSleepRecord(view);
+        } finally {
+            cursor.close();
+        }
+        synchronized (this) {
+            // A change reported during the load may postdate what was read, so it is not cached.
+            if (mGeneration == generation && mRemovals == removals) {
+                put(record);
+            }
+        }
+        return record;
+    }
+
+    /**
+     * @return the row's UPDATED_ON, or -1 if it no longer exists.
+     */
+    private static long queryUpdatedOn(ContentResolver resolver, String[] selectionArgs) {
+        final Cursor cursor = resolver.query(SleepRecord.CONTENT_URI, PROJECTION_UPDATED_ON,
+                                             SELECTION_ID, selectionArgs, null);
+        if (cursor == null) {
+            return -1;
+        }
+        try {
+            return cursor.moveToFirst() ? cursor.getLong(0) : -1;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Cache a record read elsewhere, e.g. during a scan. It replaces a cached copy of the same row
+     * unless that copy is newer.
+     */
+    public synchronized void put(DecodedSleepRecord record) {
+        Entry previous = mEntries.get(record.id);
+        if (previous != null) {
+            if (previous.record.updatedOn > record.updatedOn) {
+                return;
+            }
+            mSize -= previous.size;
+        }
+        Entry entry = new Entry(record, mGeneration);
+        mEntries.put(record.id, entry);
+        mSize += entry.size;
+        trimToSize();
+    }
+
+    private void trimToSize() {
+        Iterator<Map.Entry<Long, Entry>> eldest = mEntries.entrySet().iterator();
+        while (mSize > mMaxSize && eldest.hasNext()) {
+            mSize -= eldest.next().getValue().size;
+            eldest.remove();
+            mEvictions++;
+        }
+    }
+
+    private void remove(long id) {
+        Entry entry = mEntries.remove(id);
+        if (entry != null) {
+            mSize -= entry.size;
+        }
+    }
+
+    /**
+     * Report a changed row; {@link #ALL_ROWS} marks every entry stale.
+     */
+    public synchronized void invalidate(long id) {
+        if (id == ALL_ROWS) {
+            mGeneration++;
+        } else {
+            remove(id);
+            mRemovals++;
+        }
+    }
+
+    /**
+     * Drop every entry; counters are kept.
+     */
+    public synchronized void clear() {
+        mEntries.clear();
+        mSize = 0;
+    }
+
+    /** @return summed approximate size of the cached records in bytes. */
+    public synchronized int size() {
+        return mSize;
+    }
+
+    /** @return the size bound given at construction. */
+    public int maxSize() {
+        return mMaxSize;
+    }
+
+    /** @return number of cached records, fresh or stale. */
+    public synchronized int count() {
+        return mEntries.size();
+    }
+
+    /** @return lookups answered from the cache without querying the provider. */
+    public synchronized int hitCount() {
+        return mHits;
+    }
+
+    /**
+     * @return lookups of stale entries that queried the provider's UPDATED_ON. Those whose row
+     *     changed are also counted as misses.
+     */
+    public synchronized int revalidationCount() {
+        return mRevalidations;
+    }
+
+    /** @return lookups that read the full row from the provider. */
+    public synchronized int missCount() {
+        return mMisses;
+    }
+
+    /** @return records dropped to stay within the size bound. */
+    public synchronized int evictionCount() {
+        return mEvictions;
+    }
+}
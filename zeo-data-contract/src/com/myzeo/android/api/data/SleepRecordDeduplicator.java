@@ -0,0 +1,260 @@
+/*
+ * Copyright (C) 2011 Zeo Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.myzeo.android.api.data;
+
+import static com.myzeo.android.api.data.ZeoDataContract.SleepRecord;
+
+import android.content.ContentResolver;
+import android.database.Cursor;
+
+/**
+ * Collapses the copies of a night that arrive from both {@link SleepRecord#DATA_SOURCE_PRIMARY}
+ * and {@link SleepRecord#DATA_SOURCE_REMOTE}, e.g. after a restore, into a single record.
+ *
+ * <p>
+ *
+ * Records are the same night when they share {@link SleepRecord#LOCALIZED_START_OF_NIGHT} and
+ * {@link SleepRecord#HEADBAND_ID}. The cursor is walked once and must hold such records next to
+ * each other, which {@link #SORT_ORDER} guarantees. Only the best record seen so far of the
+ * current night is remembered; when the night ends the cursor is moved back to it for the
+ * listener. Copies are told apart by a {@link #fingerprint} of their base hypnograms, which is
+ * only read for nights that have more than one record: equal fingerprints are plain duplicates
+ * and differing ones conflicting versions, settled by the precedence policy.
+ *
+ * </p>
+ */
+public class SleepRecordDeduplicator {
+
+    /** Keep the headband's own record over one synced from the web. */
+    public static final int PREFER_PRIMARY = 1;
+    /** Keep the record synced from the web. */
+    public static final int PREFER_REMOTE = 2;
+    /** Keep the record with the most base epochs. */
+    public static final int PREFER_LONGER = 3;
+    /** Keep the most recently updated record. */
+    public static final int PREFER_NEWEST = 4;
+
+    /** Order in which copies of a night are adjacent. */
+    public static final String SORT_ORDER = SleepRecord.LOCALIZED_START_OF_NIGHT + " ASC, "
+        + SleepRecord.HEADBAND_ID + " ASC, " + SleepRecord._ID + " ASC";
+
+    /** Receives one record per night. */
+    public interface Listener {
+        /**
+         * @param record positioned on the record kept; the cursor must not be moved.
+         * @param copies number of records of the night, the kept one included.
+         */
+        void onRecord(SleepRecordView record, int copies);
+    }
+
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    /** What is remembered of a record to compare it with the night's other copies. */
+    private static class Candidate {
+        int position;
+        long id;
+        int source;
+        long updatedOn;
+        int epochs;
+        boolean hasFingerprint;
+        long fingerprint;
+
+        void set(SleepRecordView view, int position) {
+            this.position = position;
+            id = view.id();
+            source = view.source();
+            updatedOn = view.updatedOn();
+            epochs = view.baseHypnogramCount();
+            hasFingerprint = false;
+        }
+
+        void copy(Candidate other) {
+            position = other.position;
+            id = other.id;
+            source = other.source;
+            updatedOn = other.updatedOn;
+            epochs = other.epochs;
+            hasFingerprint = other.hasFingerprint;
+            fingerprint = other.fingerprint;
+        }
+    }
+
+    private final int mPolicy;
+    private final SleepRecordView mView = new SleepRecordView();
+    private final Candidate mBest = new Candidate();
+    private final Candidate mCurrent = new Candidate();
+
+    private int mDuplicates;
+    private int mConflicts;
+
+    /**
+     * @param policy one of the PREFER_* constants; ties fall back to primary, then longer, then
+     *     newer, then the lower id.
+     */
+    public SleepRecordDeduplicator(int policy) {
+        if (policy < PREFER_PRIMARY || policy > PREFER_NEWEST) {
+            throw new IllegalArgumentException("Unknown policy: " + policy);
+        }
+        mPolicy = policy;
+    }
+
+    /**
+     * Query every sleep record in {@link #SORT_ORDER}.
+     *
+     * @param projection columns to read; must include _ID, UPDATED_ON, LOCALIZED_START_OF_NIGHT,
+     *     HEADBAND_ID, SOURCE, BASE_HYPNOGRAM and BASE_HYPNOGRAM_COUNT.
+     * @return the cursor or null if the Zeo provider is not available.
+     */
+    public Cursor query(ContentResolver resolver, String[] projection) {
+        return resolver.query(SleepRecord.CONTENT_URI, projection, null, null, SORT_ORDER);
+    }
+
+    /**
+     * Deliver one record per night of the cursor to listener. Counts of the previous call are
+     * reset. The cursor is not closed.
+     *
+     * @return the number of records delivered.
+     */
+    public int deduplicate(Cursor cursor, Listener listener) {
+        mDuplicates = 0;
+        mConflicts = 0;
+        final SleepRecordView view = mView;
+        final Candidate best = mBest;
+        final Candidate current = mCurrent;
+        view.bind(cursor);
+
+        int delivered = 0;
+        int copies = 0;
+        boolean conflict = false;
+        long localizedStart = 0;
+        long headbandId = 0;
+        int position = 0;
+        while (cursor.moveToPosition(position)) {
+            final long rowStart = view.localizedStartOfNight();
+            final long rowHeadband = view.headbandId();
+            if (copies > 0 && rowStart == localizedStart && rowHeadband == headbandId) {
+                current.set(view, position);
+                fingerprint(current);
+                if (!best.hasFingerprint) {
+                    cursor.moveToPosition(best.position);
+                    fingerprint(best);
+                    cursor.moveToPosition(position);
+                }
+                conflict |= current.fingerprint != best.fingerprint;
+                if (better(current, best)) {
+                    best.copy(current);
+                }
+                copies++;
+                mDuplicates++;
+            } else {
+                if (copies > 0) {
+                    deliver(cursor, listener, copies, conflict);
+                    delivered++;
+                    cursor.moveToPosition(position);
+                }
+                best.set(view, position);
+                localizedStart = rowStart;
+                headbandId = rowHeadband;
+                copies = 1;
+                conflict = false;
+            }
+            position++;
+        }
+        if (copies > 0) {
+            deliver(cursor, listener, copies, conflict);
+            delivered++;
+        }
+        return delivered;
+    }
+
+    private void deliver(Cursor cursor, Listener listener, int copies, boolean conflict) {
+        if (conflict) {
+            mConflicts++;
+        }
+        cursor.moveToPosition(mBest.position);
+        listener.onRecord(mView, copies);
+    }
+
+    private void fingerprint(Candidate candidate) {
+        final byte[] stages = mView.baseHypnogram();
+        candidate.fingerprint = stages == null ? 0 : fingerprint(stages, 0, stages.length);
+        candidate.hasFingerprint = true;
+    }
+
+    /**
+     * @return 64 bit FNV-1a hash of the stages and their count.
+     */
+    public static long fingerprint(byte[] stages, int off, int len) {
+        long hash = FNV_OFFSET_BASIS;
+        final int end = off + len;
+        for (int i = off; i < end; i++) {
+            hash = (hash ^ (stages[i] & 0xff)) * FNV_PRIME;
+        }
+        return (hash ^ len) * FNV_PRIME;
+    }
+
+    /**
+     * @return whether a should be kept over b.
+     */
+    private boolean better(Candidate a, Candidate b) {
+        int order = 0;
+        switch (mPolicy) {
+        case PREFER_PRIMARY:
+            order = compare(b.source, a.source);
+            break;
+        case PREFER_REMOTE:
+            order = compare(a.source, b.source);
+            break;
+        case PREFER_LONGER:
+            order = compare(a.epochs, b.epochs);
+            break;
+        case PREFER_NEWEST:
+            order = compare(a.updatedOn, b.updatedOn);
+            break;
+        default:
+            break;
+        }
+        if (order == 0) {
+            order = compare(b.source, a.source);
+        }
+        if (order == 0) {
+            order = compare(a.epochs, b.epochs);
+        }
+        if (order == 0) {
+            order = compare(a.updatedOn, b.updatedOn);
+        }
+        if (order == 0) {
+            order = compare(b.id, a.id);
+        }
+        return order > 0;
+    }
+
+    private static int compare(long a, long b) {
+        return a < b ? -1 : (a == b ? 0 : 1);
+    }
+
+    /** @return records dropped by the last run as copies of another. */
+    public int getDuplicateCount() {
+        return mDuplicates;
+    }
+
+    /** @return nights of the last run whose copies had differing hypnograms. */
+    public int getConflictCount() {
+        return mConflicts;
+    }
+}
@@ -0,0 +1,219 @@
+/*
+ * Copyright (C) 2011 Zeo Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.myzeo.android.api.data;
+
+import com.myzeo.android.api.data.ZeoDataContract.SleepRecord;
+
+import android.content.ContentResolver;
+import android.database.Cursor;
+
+import java.io.Closeable;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Walks sleep records in {@link SleepRecord#START_OF_NIGHT} order one bounded page at a time.
+ *
+ * <p>
+ *
+ * Each page is a separate query whose selection starts strictly after the
+ * ({@link SleepRecord#START_OF_NIGHT}, {@link SleepRecord#_ID}) key of the last row returned, and
+ * whose sort order carries a LIMIT. Only one page's cursor is open at a time, so memory stays flat
+ * no matter how much history is stored, and rows inserted behind the walk neither shift nor repeat
+ * later pages as an OFFSET would.
+ *
+ * </p>
+ *
+ * <p>
+ *
+ * The iterator returns the same {@link SleepRecordView} for every row, positioned on it; read it
+ * before advancing. Records with a null start of night are excluded by every page's selection.
+ *
+ * </p>
+ */
+public class SleepRecordPager implements Iterator<SleepRecordView>, Closeable {
+
+    /** Rows per page unless specified. */
+    public static final int DEFAULT_PAGE_SIZE = 100;
+
+    /** No bound on the start of night. */
+    public static final long UNBOUNDED = Long.MIN_VALUE;
+
+    private final ContentResolver mResolver;
+    private final String[] mProjection;
+    private final String mRangeSelection;
+    private final String[] mRangeArgs;
+    private final String mSortOrder;
+    private final int mPageSize;
+    private final boolean mDescending;
+    private final SleepRecordView mView = new SleepRecordView();
+
+    private Cursor mCursor;
+    private boolean mPending;
+    private boolean mExhausted;
+    private boolean mStarted;
+    private long mLastStartOfNight;
+    private long mLastId;
+
+    /**
+     * Page through every sleep record, oldest first.
+     */
+    public SleepRecordPager(ContentResolver resolver, String[] projection) {
+        this(resolver, projection, UNBOUNDED, UNBOUNDED, DEFAULT_PAGE_SIZE, false);
+    }
+
+    /**
+     * @param projection columns to read; _ID and START_OF_NIGHT are added if missing.
+     * @param from earliest start of night included, or {@link #UNBOUNDED}.
+     * @param to start of night excluded onwards, or {@link #UNBOUNDED}.
+     * @param pageSize rows per query.
+     * @param descending true to walk from the newest record back.
+     */
+    public SleepRecordPager(ContentResolver resolver, String[] projection, long from, long to,
+                            int pageSize, boolean descending) {
+        if (pageSize < 1) {
+            throw new IllegalArgumentException("pageSize < 1: " + pageSize);
+        }
+        mResolver = resolver;
+        mProjection = withKeyColumns(projection);
+        mPageSize = pageSize;
+        mDescending = descending;
+
+        // SQLite sorts nulls first, so an unbounded walk would otherwise return them.
+        StringBuilder selection = new StringBuilder(SleepRecord.START_OF_NIGHT + " IS NOT NULL");
+        String[] args = new String[(from != UNBOUNDED ? 1 : 0) + (to != UNBOUNDED ? 1 : 0)];
+        int arg = 0;
+        if (from != UNBOUNDED) {
+            selection.append(" AND ").append(SleepRecord.START_OF_NIGHT).append(" >= ?");
+            args[arg++] = Long.toString(from);
+        }
+        if (to != UNBOUNDED) {
+            selection.append(" AND ").append(SleepRecord.START_OF_NIGHT).append(" < ?");
+            args[arg++] = Long.toString(to);
+        }
+        mRangeSelection = selection.toString();
+        mRangeArgs = args;
+
+        final String direction = descending ? " DESC" : " ASC";
+        mSortOrder = SleepRecord.START_OF_NIGHT + direction + ", " + SleepRecord._ID + direction
+            + " LIMIT " + pageSize;
+    }
+
+    private static String[] withKeyColumns(String[] projection) {
+        boolean hasId = false;
+        boolean hasStart = false;
+        for (String column : projection) {
+            hasId |= SleepRecord._ID.equals(column);
+            hasStart |= SleepRecord.START_OF_NIGHT.equals(column);
+        }
+        if (hasId && hasStart) {
+            return projection;
+        }
+        String[] columns = new String[projection.length + (hasId ? 0 : 1) + (hasStart ? 0 : 1)];
+        System.arraycopy(projection, 0, columns, 0, projection.length);
+        int i = projection.length;
+        if (!hasId) {
+            columns[i++] = SleepRecord._ID;
+        }
+        if (!hasStart) {
+            columns[i] = SleepRecord.START_OF_NIGHT;
+        }
+        return columns;
+    }
+
+    @Override
+    public boolean hasNext() {
+        while (!mPending) {
+            if (mCursor != null) {
+                if (mCursor.moveToNext()) {
+                    mPending = true;
+                    break;
+                }
+                mExhausted = mCursor.getCount() < mPageSize;
+                mCursor.close();
+                mCursor = null;
+            }
+            if (mExhausted || !queryPage()) {
+                mExhausted = true;
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public SleepRecordView next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        mPending = false;
+        mLastStartOfNight = mView.startOfNight();
+        mLastId = mView.id();
+        mStarted = true;
+        return mView;
+    }
+
+    @Override
+    public void remove() {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * Close the open page, if any; the iterator then reports no further rows.
+     */
+    @Override
+    public void close() {
+        if (mCursor != null) {
+            mCursor.close();
+            mCursor = null;
+        }
+        mPending = false;
+        mExhausted = true;
+    }
+
+    /**
+     * Query the page following the last returned key.
+     *
+     * @return false if the provider returned no cursor.
+     */
+    private boolean queryPage() {
+        String selection = mRangeSelection;
+        String[] args = mRangeArgs;
+        if (mStarted) {
+            final String after = mDescending ? " < ?" : " > ?";
+            final String keyset = "(" + SleepRecord.START_OF_NIGHT + after
+                + " OR (" + SleepRecord.START_OF_NIGHT + " = ? AND " + SleepRecord._ID + after
+                + "))";
+            selection = selection + " AND " + keyset;
+
+            final String start = Long.toString(mLastStartOfNight);
+            args = new String[mRangeArgs.length + 3];
+            System.arraycopy(mRangeArgs, 0, args, 0, mRangeArgs.length);
+            args[mRangeArgs.length] = start;
+            args[mRangeArgs.length + 1] = start;
+            args[mRangeArgs.length + 2] = Long.toString(mLastId);
+        }
+
+        mCursor = mResolver.query(SleepRecord.CONTENT_URI, mProjection, selection, args,
+                                  mSortOrder);
+        if (mCursor == null) {
+            return false;
+        }
+        mView.bind(mCursor);
+        return true;
+    }
+}
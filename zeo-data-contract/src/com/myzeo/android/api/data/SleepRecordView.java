@@ -0,0 +1,204 @@
+/*
+ * Copyright (C) 2011 Zeo Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.myzeo.android.api.data;
+
+import com.myzeo.android.api.data.ZeoDataContract.SleepRecord;
+
+import android.database.CharArrayBuffer;
+
+/**
+ * Typed view over the current row of a {@link SleepRecord} cursor.
+ */
+public class SleepRecordView extends RowView {
+
+    /** Every sleep record column, in field order. */
+    public static final String[] PROJECTION = new String[] {
+        SleepRecord._ID,
+        SleepRecord.CREATED_ON,
+        SleepRecord.UPDATED_ON,
+        SleepRecord.SLEEP_EPISODE_ID,
+        SleepRecord.AWAKENINGS,
+        SleepRecord.BASE_HYPNOGRAM,
+        SleepRecord.BASE_HYPNOGRAM_COUNT,
+        SleepRecord.DISPLAY_HYPNOGRAM,
+        SleepRecord.DISPLAY_HYPNOGRAM_COUNT,
+        SleepRecord.END_OF_NIGHT,
+        SleepRecord.END_REASON,
+        SleepRecord.HEADBAND_ID,
+        SleepRecord.LOCALIZED_START_OF_NIGHT,
+        SleepRecord.SOURCE,
+        SleepRecord.START_OF_NIGHT,
+        SleepRecord.TIMEZONE,
+        SleepRecord.TIME_IN_DEEP,
+        SleepRecord.TIME_IN_LIGHT,
+        SleepRecord.TIME_IN_REM,
+        SleepRecord.TIME_IN_WAKE,
+        SleepRecord.TIME_TO_Z,
+        SleepRecord.TOTAL_Z,
+        SleepRecord.ZQ_SCORE
+    };
+
+    public static final int FIELD_SLEEP_EPISODE_ID = 3;
+    public static final int FIELD_AWAKENINGS = 4;
+    public static final int FIELD_BASE_HYPNOGRAM = 5;
+    public static final int FIELD_BASE_HYPNOGRAM_COUNT = 6;
+    public static final int FIELD_DISPLAY_HYPNOGRAM = 7;
+    public static final int FIELD_DISPLAY_HYPNOGRAM_COUNT = 8;
+    public static final int FIELD_END_OF_NIGHT = 9;
+    public static final int FIELD_END_REASON = 10;
+    public static final int FIELD_HEADBAND_ID = 11;
+    public static final int FIELD_LOCALIZED_START_OF_NIGHT = 12;
+    public static final int FIELD_SOURCE = 13;
+    public static final int FIELD_START_OF_NIGHT = 14;
+    public static final int FIELD_TIMEZONE = 15;
+    public static final int FIELD_TIME_IN_DEEP = 16;
+    public static final int FIELD_TIME_IN_LIGHT = 17;
+    public static final int FIELD_TIME_IN_REM = 18;
+    public static final int FIELD_TIME_IN_WAKE = 19;
+    public static final int FIELD_TIME_TO_Z = 20;
+    public static final int FIELD_TOTAL_Z = 21;
+    public static final int FIELD_ZQ_SCORE = 22;
+
+    public SleepRecordView() {
+        super(PROJECTION);
+    }
+
+    /** @see SleepRecord#SLEEP_EPISODE_ID */
+    public long sleepEpisodeId() {
+        return getLong(FIELD_SLEEP_EPISODE_ID);
+    }
+
+    /** @see SleepRecord#AWAKENINGS */
+    public int awakenings() {
+        return getInt(FIELD_AWAKENINGS);
+    }
+
+    /**
+     * The blob itself is read from the cursor; no further copy is made beyond dest.
+     *
+     * @param dest receives the base hypnogram, truncated to its length.
+     * @return the number of 30 second epochs in the base hypnogram.
+     * @see SleepRecord#BASE_HYPNOGRAM
+     */
+    public int baseHypnogram(byte[] dest) {
+        return copyBlob(FIELD_BASE_HYPNOGRAM, dest);
+    }
+
+    /** @see SleepRecord#BASE_HYPNOGRAM */
+    public byte[] baseHypnogram() {
+        return getBlob(FIELD_BASE_HYPNOGRAM);
+    }
+
+    /** @see SleepRecord#BASE_HYPNOGRAM_COUNT */
+    public int baseHypnogramCount() {
+        return getInt(FIELD_BASE_HYPNOGRAM_COUNT);
+    }
+
+    /**
+     * @param dest receives the display hypnogram, truncated to its length.
+     * @return the number of 5 minute buckets in the display hypnogram.
+     * @see SleepRecord#DISPLAY_HYPNOGRAM
+     */
+    public int displayHypnogram(byte[] dest) {
+        return copyBlob(FIELD_DISPLAY_HYPNOGRAM, dest);
+    }
+
+    /** @see SleepRecord#DISPLAY_HYPNOGRAM */
+    public byte[] displayHypnogram() {
+        return getBlob(FIELD_DISPLAY_HYPNOGRAM);
+    }
+
+    /** @see SleepRecord#DISPLAY_HYPNOGRAM_COUNT */
+    public int displayHypnogramCount() {
+        return getInt(FIELD_DISPLAY_HYPNOGRAM_COUNT);
+    }
+
+    /** @see SleepRecord#END_OF_NIGHT */
+    public long endOfNight() {
+        return getLong(FIELD_END_OF_NIGHT);
+    }
+
+    /** @see SleepRecord#END_REASON */
+    public int endReason() {
+        return getInt(FIELD_END_REASON);
+    }
+
+    /** @see SleepRecord#HEADBAND_ID */
+    public long headbandId() {
+        return getLong(FIELD_HEADBAND_ID);
+    }
+
+    /** @see SleepRecord#LOCALIZED_START_OF_NIGHT */
+    public long localizedStartOfNight() {
+        return getLong(FIELD_LOCALIZED_START_OF_NIGHT);
+    }
+
+    /** @see SleepRecord#SOURCE */
+    public int source() {
+        return getInt(FIELD_SOURCE);
+    }
+
+    /** @see SleepRecord#START_OF_NIGHT */
+    public long startOfNight() {
+        return getLong(FIELD_START_OF_NIGHT);
+    }
+
+    /** @see SleepRecord#TIMEZONE */
+    public String timezone() {
+        return getString(FIELD_TIMEZONE);
+    }
+
+    /** @see SleepRecord#TIMEZONE */
+    public void timezone(CharArrayBuffer buffer) {
+        copyString(FIELD_TIMEZONE, buffer);
+    }
+
+    /** @see SleepRecord#TIME_IN_DEEP */
+    public int timeInDeep() {
+        return getInt(FIELD_TIME_IN_DEEP);
+    }
+
+    /** @see SleepRecord#TIME_IN_LIGHT */
+    public int timeInLight() {
+        return getInt(FIELD_TIME_IN_LIGHT);
+    }
+
+    /** @see SleepRecord#TIME_IN_REM */
+    public int timeInRem() {
+        return getInt(FIELD_TIME_IN_REM);
+    }
+
+    /** @see SleepRecord#TIME_IN_WAKE */
+    public int timeInWake() {
+        return getInt(FIELD_TIME_IN_WAKE);
+    }
+
+    /** @see SleepRecord#TIME_TO_Z */
+    public int timeToZ() {
+        return getInt(FIELD_TIME_TO_Z);
+    }
+
+    /** @see SleepRecord#TOTAL_Z */
+    public int totalZ() {
+        return getInt(FIELD_TOTAL_Z);
+    }
+
+    /** @see SleepRecord#ZQ_SCORE */
+    public int zqScore() {
+        return getInt(FIELD_ZQ_SCORE);
+    }
+}
@@ -0,0 +1,333 @@
+/*
+ * Copyright (C) 2011 Zeo Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.myzeo.android.api.data;
+
+import com.myzeo.android.api.data.ZeoDataContract.SleepEpisode;
+import com.myzeo.android.api.data.ZeoDataContract.SleepRecord;
+
+import android.database.Cursor;
+
+/**
+ * In memory index of time intervals, such as sleep records' {@link SleepRecord#START_OF_NIGHT}
+ * to {@link SleepRecord#END_OF_NIGHT} or sleep episodes' {@link SleepEpisode#START_TIMESTAMP} to
+ * {@link SleepEpisode#END_TIMESTAMP}, answering point and range questions by binary search.
+ *
+ * <p>
+ *
+ * Intervals are half open, [start, end), and kept in parallel long arrays sorted by start then
+ * id, alongside the running maximum of end. Since that maximum never decreases, intervals that
+ * overlap each other are handled without a tree: everything covering a time lies between the
+ * first index whose running end passes it and the last index starting at or before it. Lookups
+ * allocate nothing.
+ *
+ * </p>
+ *
+ * <p>
+ *
+ * Rows can be added or updated one at a time as they arrive; appending a new row, one whose id is
+ * greater than every id indexed so far, in start order costs O(1) and any other insertion or
+ * update O(n). An index is not synchronized.
+ *
+ * </p>
+ */
+public class TimeIndex {
+
+    private static final int INITIAL_CAPACITY = 64;
+
+    private long[] mStarts;
+    private long[] mEnds;
+    private long[] mIds;
+    /** mMaxEnds[i] is the greatest end among intervals 0 through i. */
+    private long[] mMaxEnds;
+    private int mSize;
+    /** Greatest id ever indexed; ids above it are known not to be indexed. */
+    private long mMaxId = Long.MIN_VALUE;
+
+    public TimeIndex() {
+        this(INITIAL_CAPACITY);
+    }
+
+    public TimeIndex(int capacity) {
+        capacity = Math.max(capacity, 1);
+        mStarts = new long[capacity];
+        mEnds = new long[capacity];
+        mIds = new long[capacity];
+        mMaxEnds = new long[capacity];
+    }
+
+    /**
+     * Index the sleep records of a cursor holding _ID, START_OF_NIGHT and END_OF_NIGHT.
+     */
+    public static TimeIndex forSleepRecords(Cursor cursor) {
+        return fromCursor(cursor, cursor.getColumnIndexOrThrow(SleepRecord._ID),
+                          cursor.getColumnIndexOrThrow(SleepRecord.START_OF_NIGHT),
+                          cursor.getColumnIndexOrThrow(SleepRecord.END_OF_NIGHT));
+    }
+
+    /**
+     * Index the sleep episodes of a cursor holding _ID, START_TIMESTAMP and END_TIMESTAMP.
+     */
+    public static TimeIndex forSleepEpisodes(Cursor cursor) {
+        return fromCursor(cursor, cursor.getColumnIndexOrThrow(SleepEpisode._ID),
+                          cursor.getColumnIndexOrThrow(SleepEpisode.START_TIMESTAMP),
+                          cursor.getColumnIndexOrThrow(SleepEpisode.END_TIMESTAMP));
+    }
+
+    private static TimeIndex fromCursor(Cursor cursor, int idColumn, int startColumn,
+                                        int endColumn) {
+        TimeIndex index = new TimeIndex(cursor.getCount());
+        if (cursor.moveToFirst()) {
+            do {
+                // Row ids of one cursor are unique.
+                index.insert(cursor.getLong(startColumn), cursor.getLong(endColumn),
+                             cursor.getLong(idColumn), -1);
+            } while (cursor.moveToNext());
+        }
+        return index;
+    }
+
+    /**
+     * Add an interval, replacing any interval with the same id. An end before start is taken as
+     * start, giving an empty interval that covers no time.
+     */
+    public void put(long start, long end, long id) {
+        if (end < start) {
+            end = start;
+        }
+        // New rows get increasing ids, so most puts need not search for a previous interval.
+        final int existing = id > mMaxId ? -1 : indexOfId(id);
+        if (existing >= 0) {
+            if (mStarts[existing] == start && mEnds[existing] == end) {
+                return;
+            }
+            removeAt(existing);
+        }
+        insert(start, end, id, existing);
+    }
+
+    /**
+     * Insert an interval whose id is not indexed.
+     *
+     * @param removed index an interval was just removed from, or -1.
+     */
+    private void insert(long start, long end, long id, int removed) {
+        if (end < start) {
+            end = start;
+        }
+        int i = mSize;
+        if (i > 0 && compare(mStarts[i - 1], mIds[i - 1], start, id) > 0) {
+            i = insertionPoint(start, id);
+        }
+        if (mSize == mStarts.length) {
+            grow();
+        }
+        final int moved = mSize - i;
+        if (moved > 0) {
+            System.arraycopy(mStarts, i, mStarts, i + 1, moved);
+            System.arraycopy(mEnds, i, mEnds, i + 1, moved);
+            System.arraycopy(mIds, i, mIds, i + 1, moved);
+        }
+        mStarts[i] = start;
+        mEnds[i] = end;
+        mIds[i] = id;
+        mSize++;
+        mMaxId = Math.max(mMaxId, id);
+        updateMaxEnds(removed >= 0 ? Math.min(removed, i) : i);
+    }
+
+    /**
+     * Remove the interval with the given id.
+     *
+     * @return false if there was none.
+     */
+    public boolean remove(long id) {
+        final int i = indexOfId(id);
+        if (i < 0) {
+            return false;
+        }
+        removeAt(i);
+        updateMaxEnds(i);
+        return true;
+    }
+
+    private void removeAt(int i) {
+        final int moved = mSize - i - 1;
+        if (moved > 0) {
+            System.arraycopy(mStarts, i + 1, mStarts, i, moved);
+            System.arraycopy(mEnds, i + 1, mEnds, i, moved);
+            System.arraycopy(mIds, i + 1, mIds, i, moved);
+        }
+        mSize--;
+    }
+
+    private int indexOfId(long id) {
+        final long[] ids = mIds;
+        for (int i = mSize - 1; i >= 0; i--) {
+            if (ids[i] == id) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static int compare(long startA, long idA, long startB, long idB) {
+        if (startA != startB) {
+            return startA < startB ? -1 : 1;
+        }
+        return idA < idB ? -1 : (idA == idB ? 0 : 1);
+    }
+
+    private int insertionPoint(long start, long id) {
+        int low = 0;
+        int high = mSize;
+        while (low < high) {
+            final int mid = (low + high) >>> 1;
+            if (compare(mStarts[mid], mIds[mid], start, id) <= 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private void updateMaxEnds(int from) {
+        long max = from > 0 ? mMaxEnds[from - 1] : Long.MIN_VALUE;
+        for (int i = from; i < mSize; i++) {
+            max = Math.max(max, mEnds[i]);
+            mMaxEnds[i] = max;
+        }
+    }
+
+    private void grow() {
+        final int capacity = mStarts.length * 2;
+        mStarts = copy(mStarts, capacity);
+        mEnds = copy(mEnds, capacity);
+        mIds = copy(mIds, capacity);
+        mMaxEnds = copy(mMaxEnds, capacity);
+    }
+
+    private long[] copy(long[] values, int capacity) {
+        long[] copy = new long[capacity];
+        System.arraycopy(values, 0, copy, 0, mSize);
+        return copy;
+    }
+
+    /** @return number of intervals. */
+    public int size() {
+        return mSize;
+    }
+
+    /** @return start of the interval at index, in start order. */
+    public long start(int index) {
+        return mStarts[index];
+    }
+
+    /** @return end of the interval at index. */
+    public long end(int index) {
+        return mEnds[index];
+    }
+
+    /** @return row id of the interval at index. */
+    public long id(int index) {
+        return mIds[index];
+    }
+
+    /**
+     * @return the number of intervals starting at or before time, which is also the index of the
+     *     first interval starting after it.
+     */
+    public int startingBefore(long time) {
+        int low = 0;
+        int high = mSize;
+        while (low < high) {
+            final int mid = (low + high) >>> 1;
+            if (mStarts[mid] <= time) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * @return the index of the first interval that may still be running at time: no interval
+     *     before it ends after time.
+     */
+    public int firstEndingAfter(long time) {
+        int low = 0;
+        int high = mSize;
+        while (low < high) {
+            final int mid = (low + high) >>> 1;
+            if (mMaxEnds[mid] <= time) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * @return index of the latest starting interval covering time, or -1 if none does.
+     */
+    public int find(long time) {
+        final int first = firstEndingAfter(time);
+        for (int i = startingBefore(time) - 1; i >= first; i--) {
+            if (mEnds[i] > time) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return row id of the latest starting interval covering time, or -1 if none does.
+     */
+    public long findId(long time) {
+        final int i = find(time);
+        return i < 0 ? -1 : mIds[i];
+    }
+
+    /**
+     * @return index of the latest interval starting at or before time whether or not it has
+     *     ended, or -1; e.g. the night an alarm rang after.
+     */
+    public int floor(long time) {
+        return startingBefore(time) - 1;
+    }
+
+    /**
+     * Copy the ids of intervals overlapping [from, to) into ids, in start order.
+     *
+     * @return the number of overlapping intervals, which may exceed the ids copied.
+     */
+    public int overlapping(long from, long to, long[] ids) {
+        final int last = startingBefore(to - 1);
+        int count = 0;
+        for (int i = firstEndingAfter(from); i < last; i++) {
+            if (mEnds[i] > from) {
+                if (count < ids.length) {
+                    ids[count] = mIds[i];
+                }
+                count++;
+            }
+        }
+        return count;
+    }
+}
@@ -0,0 +1,287 @@
+/*
+ * Copyright (C) 2011 Zeo Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.myzeo.android.api.data;
+
+import com.myzeo.android.api.data.ZeoDataContract.SleepEpisode;
+import com.myzeo.android.api.data.ZeoDataContract.SleepRecord;
+
+import java.util.TimeZone;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Resolves the TZ ids stored in {@link SleepRecord#TIMEZONE} and {@link SleepEpisode#TIMEZONE}
+ * once per id and answers offset and local date questions from a precomputed table of offset
+ * transitions.
+ *
+ * <p>
+ *
+ * {@link TimeZone#getTimeZone(String)} is synchronized and, on older runtimes, slow; calling it per
+ * row dominates localized formatting and calendar bucketing. Here each id is looked up in a
+ * concurrent map, which reads without locking, and resolved on first use only. The resolved
+ * {@link Zone} holds the UTC instants at which the zone's offset changes within the covered range
+ * along with the offset in effect from each, so an offset is a binary search over a few dozen
+ * longs. Instants outside the covered range fall back to the underlying {@link TimeZone}.
+ *
+ * </p>
+ *
+ * <p>
+ *
+ * A cache is thread safe. Unknown ids resolve to GMT, as with {@link TimeZone#getTimeZone}; a
+ * null id resolves to UTC.
+ *
+ * </p>
+ */
+public class TimeZoneCache {
+
+    /** Start of the range covered by default, 2000-01-01T00:00Z. */
+    public static final long DEFAULT_FROM_MILLIS = 946684800000L;
+    /** End of the range covered by default, 2040-01-01T00:00Z. */
+    public static final long DEFAULT_TO_MILLIS = 2208988800000L;
+
+    private static final long MILLIS_PER_DAY = 24L * 60 * 60 * 1000;
+    private static final String UTC_ID = "UTC";
+
+    private static TimeZoneCache sDefault;
+
+    /** A resolved zone with its offset transitions. Immutable apart from the fallback zone. */
+    public static class Zone {
+        private final String mId;
+        private final TimeZone mTimeZone;
+        private final long mFrom;
+        private final long mTo;
+        /** Instants at which an offset takes effect; the first is Long.MIN_VALUE. */
+        private final long[] mTransitions;
+        private final int[] mOffsets;
+
+        Zone(String id, TimeZone timeZone, long from, long to) {
+            mId = id;
+            mTimeZone = timeZone;
+            mFrom = from;
+            mTo = to;
+
+            // Sample daily and bisect each change down to the millisecond. Offsets never change
+            // twice within a day in the tz database.
+            int capacity = 16;
+            long[] transitions = new long[capacity];
+            int[] offsets = new int[capacity];
+            int count = 1;
+            transitions[0] = Long.MIN_VALUE;
+            offsets[0] = timeZone.getOffset(from);
+            int offset = offsets[0];
+            for (long t = from; t < to; ) {
+                final long next = Math.min(t + MILLIS_PER_DAY, to - 1);
+                final int nextOffset = timeZone.getOffset(next);
+                if (nextOffset != offset) {
+                    long low = t;
+                    long high = next;
+                    while (high - low > 1) {
+                        final long mid = (low + high) >>> 1;
+                        if (timeZone.getOffset(mid) == offset) {
+                            low = mid;
+                        } else {
+                            high = mid;
+                        }
+                    }
+                    if (count == capacity) {
+                        capacity *= 2;
+                        transitions = copyOf(transitions, capacity);
+                        offsets = copyOf(offsets, capacity);
+                    }
+                    transitions[count] = high;
+                    offsets[count] = nextOffset;
+                    count++;
+                    offset = nextOffset;
+                }
+                if (next == to - 1) {
+                    break;
+                }
+                t = next;
+            }
+            mTransitions = copyOf(transitions, count);
+            mOffsets = copyOf(offsets, count);
+        }
+
+        /** @return the id the zone was resolved from, one shared instance per id. */
+        public String getId() {
+            return mId;
+        }
+
+        /** @return a copy of the underlying zone, e.g. for a Calendar or DateFormat. */
+        public TimeZone getTimeZone() {
+            return (TimeZone) mTimeZone.clone();
+        }
+
+        /** @return offset from UTC in milliseconds in effect at utcMillis. */
+        public int getOffset(long utcMillis) {
+            if (utcMillis < mFrom || utcMillis >= mTo) {
+                synchronized (mTimeZone) {
+                    return mTimeZone.getOffset(utcMillis);
+                }
+            }
+            final long[] transitions = mTransitions;
+            int low = 0;
+            int high = transitions.length - 1;
+            while (low < high) {
+                final int mid = (low + high + 1) >>> 1;
+                if (transitions[mid] <= utcMillis) {
+                    low = mid;
+                } else {
+                    high = mid - 1;
+                }
+            }
+            return mOffsets[low];
+        }
+
+        /** @return the local epoch day holding utcMillis. */
+        public int localDate(long utcMillis) {
+            return (int) floorDiv(utcMillis + getOffset(utcMillis), MILLIS_PER_DAY);
+        }
+
+        /**
+         * @return the UTC instant at which the local day holding utcMillis began: its first
+         *     midnight if the clocks went back over it, or the transition that skipped it.
+         */
+        public long localMidnight(long utcMillis) {
+            final int offset = getOffset(utcMillis);
+            final long local = floorDiv(utcMillis + offset, MILLIS_PER_DAY) * MILLIS_PER_DAY;
+            // At most one transition lies near midnight; these are the offsets on either side.
+            final long approx = local - offset;
+            final int before = getOffset(approx - MILLIS_PER_DAY);
+            final int after = getOffset(approx + MILLIS_PER_DAY);
+            final int first = Math.max(before, after);
+            final int second = Math.min(before, after);
+            if (getOffset(local - first) == first) {
+                return local - first;
+            }
+            if (getOffset(local - second) == second) {
+                return local - second;
+            }
+            // Midnight fell in a gap, the day began when the clocks jumped over it.
+            return transitionAt(local - first, local - second);
+        }
+
+        /** @return the first instant in (from, to] whose offset differs from that at from. */
+        private long transitionAt(long from, long to) {
+            final int offset = getOffset(from);
+            long low = from;
+            long high = to;
+            while (high - low > 1) {
+                final long mid = (low + high) >>> 1;
+                if (getOffset(mid) == offset) {
+                    low = mid;
+                } else {
+                    high = mid;
+                }
+            }
+            return high;
+        }
+
+        /** @return offset changes within the covered range. */
+        public int transitionCount() {
+            return mTransitions.length - 1;
+        }
+    }
+
+    private final ConcurrentHashMap<String, Zone> mZones = new ConcurrentHashMap<String, Zone>();
+    private final long mFrom;
+    private final long mTo;
+    private final Zone mUtc;
+
+    /**
+     * Cover {@link #DEFAULT_FROM_MILLIS} to {@link #DEFAULT_TO_MILLIS}.
+     */
+    public TimeZoneCache() {
+        this(DEFAULT_FROM_MILLIS, DEFAULT_TO_MILLIS);
+    }
+
+    /**
+     * @param fromMillis start of the range tabulated for each zone.
+     * @param toMillis end of the range; resolving a zone samples it once per day of the range.
+     */
+    public TimeZoneCache(long fromMillis, long toMillis) {
+        if (toMillis <= fromMillis) {
+            throw new IllegalArgumentException("toMillis <= fromMillis: " + toMillis);
+        }
+        mFrom = fromMillis;
+        mTo = toMillis;
+        mUtc = get(UTC_ID);
+    }
+
+    /**
+     * @return the process wide cache covering the default range.
+     */
+    public static synchronized TimeZoneCache getDefault() {
+        if (sDefault == null) {
+            sDefault = new TimeZoneCache();
+        }
+        return sDefault;
+    }
+
+    /**
+     * @param tzId TZ id as stored in a row, or null for UTC.
+     */
+    public Zone get(String tzId) {
+        if (tzId == null) {
+            return mUtc;
+        }
+        Zone zone = mZones.get(tzId);
+        if (zone == null) {
+            zone = new Zone(tzId, TimeZone.getTimeZone(tzId), mFrom, mTo);
+            Zone raced = mZones.putIfAbsent(tzId, zone);
+            if (raced != null) {
+                zone = raced;
+            }
+        }
+        return zone;
+    }
+
+    /**
+     * @return the UTC instant at which the local day holding utcMillis began in zone tzId.
+     */
+    public long localMidnight(long utcMillis, String tzId) {
+        return get(tzId).localMidnight(utcMillis);
+    }
+
+    /**
+     * @return the epoch day of the local date holding utcMillis in zone tzId.
+     */
+    public int localDate(long utcMillis, String tzId) {
+        return get(tzId).localDate(utcMillis);
+    }
+
+    /** @return number of resolved zones. */
+    public int size() {
+        return mZones.size();
+    }
+
+    private static long[] copyOf(long[] values, int length) {
+        long[] copy = new long[length];
+        System.arraycopy(values, 0, copy, 0, Math.min(values.length, length));
+        return copy;
+    }
+
+    private static int[] copyOf(int[] values, int length) {
+        int[] copy = new int[length];
+        System.arraycopy(values, 0, copy, 0, Math.min(values.length, length));
+        return copy;
+    }
+
+    static long floorDiv(long x, long y) {
+        final long q = x / y;
+        return (x % y != 0 && ((x ^ y) < 0)) ? q - 1 : q;
+    }
+}
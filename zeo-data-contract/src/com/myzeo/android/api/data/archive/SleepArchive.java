@@ -0,0 +1,349 @@
+/*
+ * Copyright (C) 2011 Zeo Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.myzeo.android.api.data.archive;
+
+import static com.myzeo.android.api.data.ZeoDataContract.SleepRecord;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Read only, memory mapped view of a columnar sleep record archive produced by
+ * {@link SleepArchiveWriter}.
+ *
+ * <h1>File layout</h1>
+ *
+ * <p>
+ *
+ * All values are little endian. The file begins with a header: magic, format version, row count
+ * and column count (one int each) followed by a directory entry per column holding the column name
+ * (length prefixed ASCII), its type, and the int offset and byte length of its section.
+ *
+ * </p>
+ *
+ * <ul>
+ * <li>{@link #TYPE_LONG} and {@link #TYPE_INT} sections hold one fixed width value per row.</li>
+ * <li>A {@link #TYPE_DICTIONARY} section holds the offset of an int code per row (-1 for null),
+ * the entry count and each entry as a length prefixed UTF-8 string.</li>
+ * <li>A {@link #TYPE_BLOB} section holds an int file offset and int length per row locating its
+ * bytes in the shared blob data region which follows the header.</li>
+ * </ul>
+ *
+ * <p>
+ *
+ * Column accessors read straight from the mapping and never copy column data, so aggregates over
+ * years of nights only page in the columns they touch.
+ *
+ * </p>
+ */
+public class SleepArchive {
+
+    /** Leading file marker ("ZSA1"). */
+    static final int MAGIC = 0x5a534131;
+
+    /** Version of the file layout. */
+    static final int VERSION = 1;
+
+    /** Column of 8 byte integers. */
+    public static final int TYPE_LONG = 1;
+    /** Column of 4 byte integers. */
+    public static final int TYPE_INT = 2;
+    /** Dictionary encoded string column. */
+    public static final int TYPE_DICTIONARY = 3;
+    /** Variable length binary column. */
+    public static final int TYPE_BLOB = 4;
+
+    /** Sleep record columns stored as longs. */
+    static final String[] LONG_COLUMNS = new String[] {
+        SleepRecord._ID,
+        SleepRecord.SLEEP_EPISODE_ID,
+        SleepRecord.HEADBAND_ID,
+        SleepRecord.START_OF_NIGHT,
+        SleepRecord.END_OF_NIGHT,
+        SleepRecord.LOCALIZED_START_OF_NIGHT,
+        SleepRecord.CREATED_ON,
+        SleepRecord.UPDATED_ON
+    };
+
+    /** Sleep record columns stored as ints. */
+    static final String[] INT_COLUMNS = new String[] {
+        SleepRecord.ZQ_SCORE,
+        SleepRecord.AWAKENINGS,
+        SleepRecord.TIME_IN_DEEP,
+        SleepRecord.TIME_IN_LIGHT,
+        SleepRecord.TIME_IN_REM,
+        SleepRecord.TIME_IN_WAKE,
+        SleepRecord.TIME_TO_Z,
+        SleepRecord.TOTAL_Z,
+        SleepRecord.SOURCE,
+        SleepRecord.END_REASON,
+        SleepRecord.BASE_HYPNOGRAM_COUNT,
+        SleepRecord.DISPLAY_HYPNOGRAM_COUNT
+    };
+
+    /** Sleep record columns stored as dictionary codes. */
+    static final String[] DICTIONARY_COLUMNS = new String[] {
+        SleepRecord.TIMEZONE
+    };
+
+    /** Sleep record columns stored as blobs. */
+    static final String[] BLOB_COLUMNS = new String[] {
+        SleepRecord.BASE_HYPNOGRAM,
+        SleepRecord.DISPLAY_HYPNOGRAM
+    };
+
+    private final MappedByteBuffer mBuffer;
+    private final int mRowCount;
+    private final String[] mNames;
+    private final int[] mTypes;
+    private final int[] mOffsets;
+    private final String[][] mDictionaries;
+
+    /**
+     * Map the given archive file.
+     *
+     * @throws IOException if the file can not be read or is not an archive.
+     */
+    public static SleepArchive open(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            // The mapping stays valid after the channel is closed.
+            return new SleepArchive(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        } finally {
+            raf.close();
+        }
+    }
+
+    private SleepArchive(MappedByteBuffer buffer) throws IOException {
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        if (buffer.remaining() < 16 || buffer.getInt(0) != MAGIC) {
+            throw new IOException("Not a sleep archive");
+        }
+        if (buffer.getInt(4) != VERSION) {
+            throw new IOException("Unsupported sleep archive version " + buffer.getInt(4));
+        }
+        mBuffer = buffer;
+        mRowCount = buffer.getInt(8);
+        final int columns = buffer.getInt(12);
+        mNames = new String[columns];
+        mTypes = new int[columns];
+        mOffsets = new int[columns];
+        mDictionaries = new String[columns][];
+
+        int position = 16;
+        for (int i = 0; i < columns; i++) {
+            final int nameLength = buffer.get(position++);
+            final byte[] name = new byte[nameLength];
+            for (int j = 0; j < nameLength; j++) {
+                name[j] = buffer.get(position++);
+            }
+            mNames[i] = new String(name, "US-ASCII");
+            mTypes[i] = buffer.get(position++);
+            mOffsets[i] = buffer.getInt(position);
+            position += 8;
+            if (mTypes[i] == TYPE_DICTIONARY) {
+                mDictionaries[i] = readDictionary(mOffsets[i]);
+            }
+        }
+    }
+
+    /**
+     * @return the number of sleep records in the archive.
+     */
+    public int getRowCount() {
+        return mRowCount;
+    }
+
+    /**
+     * @return the index of the named column or -1 if the archive does not hold it.
+     */
+    public int getColumnIndex(String name) {
+        for (int i = 0; i < mNames.length; i++) {
+            if (mNames[i].equals(name)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return the index of the named column.
+     * @throws IllegalArgumentException if the archive does not hold the column.
+     */
+    public int getColumnIndexOrThrow(String name) {
+        final int column = getColumnIndex(name);
+        if (column < 0) {
+            throw new IllegalArgumentException("Column '" + name + "' does not exist");
+        }
+        return column;
+    }
+
+    /**
+     * @return the storage type of the given column.
+     */
+    public int getColumnType(int column) {
+        return mTypes[column];
+    }
+
+    /**
+     * Read a {@link #TYPE_LONG} or {@link #TYPE_INT} value.
+     */
+    public long getLong(int column, int row) {
+        if (mTypes[column] == TYPE_LONG) {
+            return mBuffer.getLong(mOffsets[column] + (row << 3));
+        }
+        return getInt(column, row);
+    }
+
+    /**
+     * Read a {@link #TYPE_INT} value.
+     */
+    public int getInt(int column, int row) {
+        checkType(column, TYPE_INT);
+        return mBuffer.getInt(mOffsets[column] + (row << 2));
+    }
+
+    /**
+     * @return a view over the whole of a {@link #TYPE_LONG} column backed by the mapping.
+     */
+    public LongBuffer longColumn(int column) {
+        checkType(column, TYPE_LONG);
+        return view(column, mRowCount << 3).asLongBuffer();
+    }
+
+    /**
+     * @return a view over the whole of a {@link #TYPE_INT} column backed by the mapping.
+     */
+    public IntBuffer intColumn(int column) {
+        checkType(column, TYPE_INT);
+        return view(column, mRowCount << 2).asIntBuffer();
+    }
+
+    /**
+     * @return a view over the per row codes of a {@link #TYPE_DICTIONARY} column.
+     */
+    public IntBuffer dictionaryCodes(int column) {
+        checkType(column, TYPE_DICTIONARY);
+        final ByteBuffer codes = mBuffer.duplicate();
+        codes.position(codesOffset(column));
+        codes.limit(codesOffset(column) + (mRowCount << 2));
+        return codes.slice().order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+    }
+
+    /**
+     * @return the dictionary code of the given row; -1 for null.
+     */
+    public int getDictionaryCode(int column, int row) {
+        checkType(column, TYPE_DICTIONARY);
+        return mBuffer.getInt(codesOffset(column) + (row << 2));
+    }
+
+    /**
+     * @return the distinct values of a {@link #TYPE_DICTIONARY} column indexed by code.
+     */
+    public String[] getDictionary(int column) {
+        checkType(column, TYPE_DICTIONARY);
+        return mDictionaries[column].clone();
+    }
+
+    /**
+     * @return the string value of a {@link #TYPE_DICTIONARY} column or null.
+     */
+    public String getString(int column, int row) {
+        final int code = getDictionaryCode(column, row);
+        return code < 0 ? null : mDictionaries[column][code];
+    }
+
+    /**
+     * @return the number of bytes held by a {@link #TYPE_BLOB} value.
+     */
+    public int getBlobLength(int column, int row) {
+        checkType(column, TYPE_BLOB);
+        return mBuffer.getInt(mOffsets[column] + (row << 3) + 4);
+    }
+
+    /**
+     * Copy a {@link #TYPE_BLOB} value into dest at off.
+     *
+     * @return the number of bytes copied.
+     */
+    public int getBlob(int column, int row, byte[] dest, int off) {
+        checkType(column, TYPE_BLOB);
+        final int entry = mOffsets[column] + (row << 3);
+        final int start = mBuffer.getInt(entry);
+        final int length = mBuffer.getInt(entry + 4);
+        final ByteBuffer blob = mBuffer.duplicate();
+        blob.position(start);
+        blob.get(dest, off, length);
+        return length;
+    }
+
+    /**
+     * Read a single byte of a {@link #TYPE_BLOB} value such as one epoch of a hypnogram.
+     */
+    public byte getBlobByte(int column, int row, int index) {
+        checkType(column, TYPE_BLOB);
+        return mBuffer.get(mBuffer.getInt(mOffsets[column] + (row << 3)) + index);
+    }
+
+    private ByteBuffer view(int column, int length) {
+        final ByteBuffer view = mBuffer.duplicate();
+        view.position(mOffsets[column]);
+        view.limit(mOffsets[column] + length);
+        return view.slice().order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    private int codesOffset(int column) {
+        return mBuffer.getInt(mOffsets[column]);
+    }
+
+    private void checkType(int column, int type) {
+        if (mTypes[column] != type) {
+            throw new IllegalArgumentException("Column '" + mNames[column] + "' is of type " +
+                                               mTypes[column] + " not " + type);
+        }
+    }
+
+    /**
+     * Dictionary sections begin with the offset of their code array followed by the entry count
+     * and the entries themselves.
+     */
+    private String[] readDictionary(int offset) throws IOException {
+        int position = offset + 4;
+        final int count = mBuffer.getInt(position);
+        position += 4;
+        final String[] dictionary = new String[count];
+        for (int i = 0; i < count; i++) {
+            final int length = mBuffer.getInt(position);
+            position += 4;
+            final byte[] bytes = new byte[length];
+            for (int j = 0; j < length; j++) {
+                bytes[j] = mBuffer.get(position++);
+            }
+            dictionary[i] = new String(bytes, "UTF-8");
+        }
+        return dictionary;
+    }
+}
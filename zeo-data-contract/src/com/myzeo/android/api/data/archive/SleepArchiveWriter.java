@@ -0,0 +1,369 @@
+/*
+ * Copyright (C) 2011 Zeo Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.myzeo.android.api.data.archive;
+
+import android.database.Cursor;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * Writes sleep records taken from a cursor into the columnar layout read by {@link SleepArchive}.
+ *
+ * <p>
+ *
+ * Hypnogram blobs are streamed to disk as rows arrive; only the fixed width columns (a few dozen
+ * bytes per night) are held in memory until {@link #close()} writes them out along with the
+ * header.
+ *
+ * </p>
+ */
+public class SleepArchiveWriter implements Closeable {
+
+    /** Size of the buffer through which all file writes pass. */
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /** Rows reserved before the column arrays first grow. */
+    private static final int INITIAL_CAPACITY = 256;
+
+    private final RandomAccessFile mFile;
+    private final FileChannel mChannel;
+    private final ByteBuffer mBuffer;
+    private final int mHeaderSize;
+
+    private long[][] mLongs;
+    private int[][] mInts;
+    private int[][] mCodes;
+    /** Start offset and length of every blob, two ints per row. */
+    private int[][] mBlobs;
+    private final ArrayList<HashMap<String, Integer>> mDictionaries;
+    private final ArrayList<ArrayList<String>> mDictionaryEntries;
+    private int mRowCount;
+    private boolean mClosed;
+
+    /**
+     * Create (or truncate) the given archive file.
+     */
+    public SleepArchiveWriter(File file) throws IOException {
+        mFile = new RandomAccessFile(file, "rw");
+        mFile.setLength(0);
+        mChannel = mFile.getChannel();
+        mBuffer = ByteBuffer.allocateDirect(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+
+        int headerSize = 16;
+        for (String[] names : allColumns()) {
+            for (String name : names) {
+                headerSize += 1 + name.length() + 1 + 4 + 4;
+            }
+        }
+        mHeaderSize = headerSize;
+        mChannel.position(headerSize);
+
+        mLongs = new long[SleepArchive.LONG_COLUMNS.length][INITIAL_CAPACITY];
+        mInts = new int[SleepArchive.INT_COLUMNS.length][INITIAL_CAPACITY];
+        mCodes = new int[SleepArchive.DICTIONARY_COLUMNS.length][INITIAL_CAPACITY];
+        mBlobs = new int[SleepArchive.BLOB_COLUMNS.length][INITIAL_CAPACITY * 2];
+        mDictionaries = new ArrayList<HashMap<String, Integer>>();
+        mDictionaryEntries = new ArrayList<ArrayList<String>>();
+        for (int i = 0; i < SleepArchive.DICTIONARY_COLUMNS.length; i++) {
+            mDictionaries.add(new HashMap<String, Integer>());
+            mDictionaryEntries.add(new ArrayList<String>());
+        }
+    }
+
+    /**
+     * @return the number of rows appended so far.
+     */
+    public int getRowCount() {
+        return mRowCount;
+    }
+
+    /**
+     * Resolve the cursor index of every archived column in the order {@link #appendRow} expects.
+     * Columns missing from the cursor's projection are given index -1 and stored as zero, null or
+     * empty.
+     */
+    public int[] bindColumns(Cursor cursor) {
+        int count = 0;
+        for (String[] names : allColumns()) {
+            count += names.length;
+        }
+        final int[] columns = new int[count];
+        int i = 0;
+        for (String[] names : allColumns()) {
+            for (String name : names) {
+                columns[i++] = cursor.getColumnIndex(name);
+            }
+        }
+        return columns;
+    }
+
+    /**
+     * Append every row of the cursor. The cursor is not closed.
+     *
+     * @return the number of rows appended.
+     */
+    public int append(Cursor cursor) throws IOException {
+        final int[] columns = bindColumns(cursor);
+        int rows = 0;
+        if (cursor.moveToFirst()) {
+            do {
+                appendRow(cursor, columns);
+                rows++;
+            } while (cursor.moveToNext());
+        }
+        return rows;
+    }
+
+    /**
+     * Append the row at the cursor's current position.
+     *
+     * @param columns indices previously obtained from {@link #bindColumns(Cursor)}.
+     */
+    public void appendRow(Cursor cursor, int[] columns) throws IOException {
+        if (mClosed) {
+            throw new IllegalStateException("Archive writer is closed");
+        }
+        ensureCapacity(mRowCount + 1);
+        final int row = mRowCount;
+        int c = 0;
+        for (long[] values : mLongs) {
+            final int column = columns[c++];
+            values[row] = column < 0 || cursor.isNull(column) ? 0 : cursor.getLong(column);
+        }
+        for (int[] values : mInts) {
+            final int column = columns[c++];
+            values[row] = column < 0 || cursor.isNull(column) ? 0 : cursor.getInt(column);
+        }
+        for (int i = 0; i < mCodes.length; i++) {
+            final int column = columns[c++];
+            final String value = column < 0 ? null : cursor.getString(column);
+            mCodes[i][row] = value == null ? -1 : intern(i, value);
+        }
+        for (int[] blobs : mBlobs) {
+            final int column = columns[c++];
+            final byte[] blob = column < 0 ? null : cursor.getBlob(column);
+            blobs[row << 1] = position();
+            if (blob != null) {
+                write(blob);
+                blobs[(row << 1) + 1] = blob.length;
+            }
+        }
+        mRowCount++;
+    }
+
+    /**
+     * Write the column sections and header; the archive is readable once this returns.
+     */
+    @Override
+    public void close() throws IOException {
+        if (mClosed) {
+            return;
+        }
+        mClosed = true;
+        try {
+            finish();
+        } finally {
+            mFile.close();
+        }
+    }
+
+    private void finish() throws IOException {
+        final int rows = mRowCount;
+        final int columnCount = mLongs.length + mInts.length + mCodes.length + mBlobs.length;
+        final int[] offsets = new int[columnCount];
+        final int[] lengths = new int[columnCount];
+        int c = 0;
+
+        for (long[] values : mLongs) {
+            align();
+            offsets[c] = position();
+            for (int row = 0; row < rows; row++) {
+                reserve(8);
+                mBuffer.putLong(values[row]);
+            }
+            lengths[c++] = rows << 3;
+        }
+        for (int[] values : mInts) {
+            offsets[c] = position();
+            writeInts(values, rows);
+            lengths[c++] = rows << 2;
+        }
+        for (int i = 0; i < mCodes.length; i++) {
+            final int codes = position();
+            writeInts(mCodes[i], rows);
+            offsets[c] = position();
+            reserve(8);
+            mBuffer.putInt(codes);
+            final ArrayList<String> entries = mDictionaryEntries.get(i);
+            mBuffer.putInt(entries.size());
+            for (String entry : entries) {
+                final byte[] bytes = entry.getBytes("UTF-8");
+                reserve(4);
+                mBuffer.putInt(bytes.length);
+                write(bytes);
+            }
+            lengths[c] = position() - offsets[c];
+            c++;
+        }
+        for (int[] values : mBlobs) {
+            align();
+            offsets[c] = position();
+            writeInts(values, rows << 1);
+            lengths[c++] = rows << 3;
+        }
+        drain();
+
+        // Header and directory.
+        mChannel.position(0);
+        reserve(16);
+        mBuffer.putInt(SleepArchive.MAGIC);
+        mBuffer.putInt(SleepArchive.VERSION);
+        mBuffer.putInt(rows);
+        mBuffer.putInt(columnCount);
+        c = 0;
+        final int[] types = new int[] {
+            SleepArchive.TYPE_LONG, SleepArchive.TYPE_INT,
+            SleepArchive.TYPE_DICTIONARY, SleepArchive.TYPE_BLOB
+        };
+        int group = 0;
+        for (String[] names : allColumns()) {
+            for (String name : names) {
+                reserve(1 + name.length() + 1 + 8);
+                mBuffer.put((byte) name.length());
+                for (int i = 0; i < name.length(); i++) {
+                    mBuffer.put((byte) name.charAt(i));
+                }
+                mBuffer.put((byte) types[group]);
+                mBuffer.putInt(offsets[c]);
+                mBuffer.putInt(lengths[c]);
+                c++;
+            }
+            group++;
+        }
+        drain();
+        if (mChannel.position() != mHeaderSize) {
+            throw new IllegalStateException("Archive header size mismatch");
+        }
+        mChannel.force(false);
+    }
+
+    private static String[][] allColumns() {
+        return new String[][] {
+            SleepArchive.LONG_COLUMNS,
+            SleepArchive.INT_COLUMNS,
+            SleepArchive.DICTIONARY_COLUMNS,
+            SleepArchive.BLOB_COLUMNS
+        };
+    }
+
+    private int intern(int dictionary, String value) {
+        final HashMap<String, Integer> codes = mDictionaries.get(dictionary);
+        Integer code = codes.get(value);
+        if (code == null) {
+            final ArrayList<String> entries = mDictionaryEntries.get(dictionary);
+            code = entries.size();
+            entries.add(value);
+            codes.put(value, code);
+        }
+        return code;
+    }
+
+    private void ensureCapacity(int rows) {
+        if (rows <= mLongs[0].length) {
+            return;
+        }
+        final int capacity = Math.max(rows, mLongs[0].length * 2);
+        for (int i = 0; i < mLongs.length; i++) {
+            final long[] grown = new long[capacity];
+            System.arraycopy(mLongs[i], 0, grown, 0, mRowCount);
+            mLongs[i] = grown;
+        }
+        for (int i = 0; i < mInts.length; i++) {
+            mInts[i] = grow(mInts[i], capacity);
+        }
+        for (int i = 0; i < mCodes.length; i++) {
+            mCodes[i] = grow(mCodes[i], capacity);
+        }
+        for (int i = 0; i < mBlobs.length; i++) {
+            mBlobs[i] = grow(mBlobs[i], capacity * 2);
+        }
+    }
+
+    private static int[] grow(int[] values, int capacity) {
+        final int[] grown = new int[capacity];
+        System.arraycopy(values, 0, grown, 0, values.length);
+        return grown;
+    }
+
+    private void writeInts(int[] values, int count) throws IOException {
+        for (int i = 0; i < count; i++) {
+            reserve(4);
+            mBuffer.putInt(values[i]);
+        }
+    }
+
+    private void write(byte[] bytes) throws IOException {
+        int off = 0;
+        while (off < bytes.length) {
+            if (!mBuffer.hasRemaining()) {
+                drain();
+            }
+            final int length = Math.min(mBuffer.remaining(), bytes.length - off);
+            mBuffer.put(bytes, off, length);
+            off += length;
+        }
+    }
+
+    /** Pad the file so the next section starts on an 8 byte boundary. */
+    private void align() throws IOException {
+        while ((position() & 7) != 0) {
+            reserve(1);
+            mBuffer.put((byte) 0);
+        }
+    }
+
+    /** @return the file offset at which the next byte will be written. */
+    private int position() throws IOException {
+        final long position = mChannel.position() + mBuffer.position();
+        if (position > Integer.MAX_VALUE) {
+            throw new IOException("Sleep archive exceeds 2GB");
+        }
+        return (int) position;
+    }
+
+    private void reserve(int count) throws IOException {
+        if (mBuffer.remaining() < count) {
+            drain();
+        }
+    }
+
+    private void drain() throws IOException {
+        mBuffer.flip();
+        while (mBuffer.hasRemaining()) {
+            mChannel.write(mBuffer);
+        }
+        mBuffer.clear();
+    }
+}
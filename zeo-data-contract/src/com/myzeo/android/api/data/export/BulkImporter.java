@@ -0,0 +1,747 @@
+/*
+ * Copyright (C) 2011 Zeo Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.myzeo.android.api.data.export;
+
+import com.myzeo.android.api.data.SleepEpisodeView;
+import com.myzeo.android.api.data.SleepRecordView;
+import com.myzeo.android.api.data.ZeoDataContract.SleepRecord;
+import com.myzeo.android.api.data.metrics.Metrics;
+import com.myzeo.android.api.data.metrics.PhaseTimer;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.OperationApplicationException;
+import android.net.Uri;
+import android.os.RemoteException;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Loads sleep records or sleep episodes back from a {@link SleepRecordCsvExporter} CSV export or
+ * a {@link RecordStreamExporter} binary export into a {@link Target}, such as the Zeo provider or
+ * a local store mirroring its tables.
+ *
+ * <p>
+ *
+ * The export is parsed as a stream straight into {@link ContentValues} keyed by the table's
+ * column names; columns the table does not have, or that were skipped, are read past. Rows are
+ * handed to the target in batches ending at a row count or at an estimate of their size, whichever
+ * comes first, so that hypnogram heavy batches stay well inside the binder transaction buffer.
+ * Each batch is one {@link ContentResolver#bulkInsert} or {@link ContentResolver#applyBatch} call,
+ * and so one transaction for providers that wrap those in one.
+ *
+ * </p>
+ *
+ * <p>
+ *
+ * Given an executor, the next batch is parsed while the previous one is inserted. Only two
+ * batches exist: the parser waits for the insert before it may start a third, which bounds memory
+ * and keeps it from outrunning a slow store. Batch objects and their values are reused, so targets
+ * must not keep them after returning. Progress and throughput are reported after every batch.
+ *
+ * </p>
+ */
+public class BulkImporter {
+
+    /** A {@link SleepRecordCsvExporter} export with its header line. */
+    public static final int FORMAT_CSV = 1;
+    /** A {@link RecordStreamExporter#FORMAT_BINARY} export. */
+    public static final int FORMAT_BINARY = 2;
+
+    /** Rows per batch unless specified. */
+    public static final int DEFAULT_BATCH_ROWS = 500;
+    /** Estimated bytes per batch unless specified; a quarter of the binder transaction buffer. */
+    public static final int DEFAULT_BATCH_BYTES = 256 * 1024;
+
+    /** Approximate bytes a value costs besides its contents, its key included. */
+    private static final int VALUE_OVERHEAD = 32;
+
+    /** Stores batches of rows. */
+    public interface Target {
+        /**
+         * Insert rows[0] through rows[count - 1]. Calls never overlap but may be made on the
+         * executor's thread.
+         *
+         * @return the number of rows inserted.
+         */
+        int insert(ContentValues[] rows, int count) throws IOException;
+    }
+
+    /** Receives progress of an import and may cancel it. */
+    public interface ProgressListener {
+        /**
+         * Called on the importing thread after every batch.
+         *
+         * @param rows rows inserted so far.
+         * @param bytes bytes of the export read so far.
+         * @param elapsedNanos time since the import started.
+         * @return false to cancel the import; rows inserted so far stay.
+         */
+        boolean onProgress(long rows, long bytes, long elapsedNanos);
+    }
+
+    /** Rows parsed and not yet inserted. */
+    private static class Batch {
+        final ContentValues[] rows;
+        int count;
+        int bytes;
+        int inserted;
+        long insertNanos;
+
+        Batch(int capacity) {
+            rows = new ContentValues[capacity];
+        }
+
+        /**
+         * @return the emptied values of the next row.
+         */
+        ContentValues next(int columns) {
+            ContentValues values = rows[count];
+            if (values == null) {
+                values = new ContentValues(columns);
+                rows[count] = values;
+            } else {
+                values.clear();
+            }
+            return values;
+        }
+    }
+
+    private final Target mTarget;
+    private final int mMaxRows;
+    private final int mMaxBytes;
+    /** Columns of the table that can be imported, by name. */
+    private final String[] mColumns;
+    private final HashSet<String> mSkipped = new HashSet<String>();
+
+    // Layout of the export being imported.
+    private String[] mKeys;
+    private int[] mTypes;
+    private byte[] mScratch = new byte[1024];
+    // Last CSV field read: its length in mScratch, -1 for an empty unquoted text field, and the
+    // value of an integer field.
+    private int mTextLength;
+    private long mInteger;
+
+    private long mRows;
+    private long mInserted;
+    private int mBatches;
+    private long mBytes;
+    private long mElapsedNanos;
+
+    /**
+     * Import with the default batch limits.
+     *
+     * @param table {@link RecordStreamExporter#TABLE_SLEEP_RECORD} or
+     *     {@link RecordStreamExporter#TABLE_SLEEP_EPISODE}.
+     */
+    public BulkImporter(int table, Target target) {
+        this(table, target, DEFAULT_BATCH_ROWS, DEFAULT_BATCH_BYTES);
+    }
+
+    /**
+     * @param table {@link RecordStreamExporter#TABLE_SLEEP_RECORD} or
+     *     {@link RecordStreamExporter#TABLE_SLEEP_EPISODE}.
+     * @param maxBatchRows most rows in a batch.
+     * @param maxBatchBytes estimated size at which a batch is inserted even if not full.
+     */
+    public BulkImporter(int table, Target target, int maxBatchRows, int maxBatchBytes) {
+        if (table == RecordStreamExporter.TABLE_SLEEP_RECORD) {
+            mColumns = SleepRecordView.PROJECTION;
+        } else if (table == RecordStreamExporter.TABLE_SLEEP_EPISODE) {
+            mColumns = SleepEpisodeView.PROJECTION;
+        } else {
+            throw new IllegalArgumentException("Unknown table: " + table);
+        }
+        if (maxBatchRows <= 0 || maxBatchBytes <= 0) {
+            throw new IllegalArgumentException("Batch limits must be positive");
+        }
+        mTarget = target;
+        mMaxRows = maxBatchRows;
+        mMaxBytes = maxBatchBytes;
+    }
+
+    /**
+     * A target inserting each batch with {@link ContentResolver#bulkInsert}.
+     */
+    public static Target bulkInsert(final ContentResolver resolver, final Uri uri) {
+        return new Target() {
+            @Override
+            public int insert(ContentValues[] rows, int count) {
+                if (count < rows.length) {
+                    final ContentValues[] exact = new ContentValues[count];
+                    System.arraycopy(rows, 0, exact, 0, count);
+                    rows = exact;
+                }
+                return resolver.bulkInsert(uri, rows);
+            }
+        };
+    }
+
+    /**
+     * A target inserting each batch as one {@link ContentResolver#applyBatch} of insert
+     * operations.
+     */
+    public static Target applyBatch(final ContentResolver resolver, final String authority,
+                                    final Uri uri) {
+        return new Target() {
+            @Override
+            public int insert(ContentValues[] rows, int count) throws IOException {
+                final ArrayList<ContentProviderOperation> operations =
+                    new ArrayList<ContentProviderOperation>(count);
+                for (int i = 0; i < count; i++) {
+                    operations.add(ContentProviderOperation.newInsert(uri)
+                                   .withValues(rows[i]).build());
+                }
+                try {
+                    return resolver.applyBatch(authority, operations).length;
+                } catch (RemoteException e) {
+                    throw failure(e);
+                } catch (OperationApplicationException e) {
+                    throw failure(e);
+                }
+            }
+        };
+    }
+
+    private static IOException failure(Exception cause) {
+        IOException e = new IOException("Batch insert failed: " + cause.getMessage());
+        e.initCause(cause);
+        return e;
+    }
+
+    /**
+     * Leave column out of imported rows, e.g. {@link SleepRecord#_ID} to have the store assign
+     * new ids.
+     */
+    public void skipColumn(String column) {
+        mSkipped.add(column);
+    }
+
+    /**
+     * Import every row on the calling thread.
+     *
+     * @return the number of rows parsed.
+     */
+    public long importFrom(InputStream in, int format) throws IOException {
+        return importFrom(in, format, null, null);
+    }
+
+    /**
+     * Import every row of an export. The stream is read to its end but not closed. If parsing or
+     * an insert fails, batches inserted before stay.
+     *
+     * @param executor runs inserts while the next batch is parsed, or null to insert on the
+     *     calling thread.
+     * @param listener progress listener or null.
+     * @return the number of rows parsed.
+     * @throws InterruptedIOException if the listener cancelled the import or the thread was
+     *     interrupted while waiting for an insert.
+     */
+    public long importFrom(InputStream in, int format, ExecutorService executor,
+                           ProgressListener listener) throws IOException {
+        if (format != FORMAT_CSV && format != FORMAT_BINARY) {
+            throw new IllegalArgumentException("Unknown format: " + format);
+        }
+        mRows = 0;
+        mInserted = 0;
+        mBatches = 0;
+        mElapsedNanos = 0;
+        final long start = System.nanoTime();
+        final PhaseTimer timer = PhaseTimer.start();
+        final ImportSource source = new ImportSource(in, ExportSink.DEFAULT_BUFFER_SIZE);
+        final Batch[] batches = new Batch[executor == null ? 1 : 2];
+        for (int i = 0; i < batches.length; i++) {
+            batches[i] = new Batch(mMaxRows);
+        }
+
+        Future<Void> pending = null;
+        Batch pendingBatch = null;
+        boolean done = false;
+        try {
+            final boolean binary = format == FORMAT_BINARY;
+            final boolean hasHeader = binary ? readBinaryHeader(source) : readCsvHeader(source);
+            int current = 0;
+            Batch batch = batches[current];
+            long parseNanos = 0;
+            boolean more = hasHeader;
+            while (more) {
+                final long parseStart = timer == null ? 0 : System.nanoTime();
+                more = binary ? readBinaryRow(source, batch) : readCsvRow(source, batch);
+                if (timer != null) {
+                    parseNanos += System.nanoTime() - parseStart;
+                }
+                if (more) {
+                    mRows++;
+                    batch.count++;
+                }
+                if (batch.count == 0 || (more && batch.count < mMaxRows
+                                         && batch.bytes < mMaxBytes)) {
+                    continue;
+                }
+                if (executor == null) {
+                    insert(batch);
+                    completed(batch, source, start, timer, listener);
+                    continue;
+                }
+                if (pending != null) {
+                    await(pending);
+                    pending = null;
+                    completed(pendingBatch, source, start, timer, listener);
+                }
+                pending = executor.submit(insertTask(batch));
+                pendingBatch = batch;
+                current ^= 1;
+                batch = batches[current];
+            }
+            if (pending != null) {
+                await(pending);
+                pending = null;
+                completed(pendingBatch, source, start, timer, listener);
+            }
+            if (timer != null) {
+                timer.add(Metrics.PHASE_PARSE, parseNanos, mRows, source.bytesRead());
+            }
+            done = true;
+        } finally {
+            if (pending != null) {
+                // Failed while an insert ran; it must not outlive the import.
+                pending.cancel(false);
+                awaitQuietly(pending);
+            }
+            mBytes = source.bytesRead();
+            mElapsedNanos = System.nanoTime() - start;
+            if (timer != null && done) {
+                timer.publish();
+            }
+        }
+        return mRows;
+    }
+
+    private Callable<Void> insertTask(final Batch batch) {
+        return new Callable<Void>() {
+            @Override
+            public Void call() throws IOException {
+                insert(batch);
+                return null;
+            }
+        };
+    }
+
+    private void insert(Batch batch) throws IOException {
+        final long start = System.nanoTime();
+        batch.inserted = mTarget.insert(batch.rows, batch.count);
+        batch.insertNanos = System.nanoTime() - start;
+    }
+
+    /**
+     * Account for an inserted batch, empty it and report progress.
+     */
+    private void completed(Batch batch, ImportSource source, long start, PhaseTimer timer,
+                           ProgressListener listener) throws InterruptedIOException {
+        mInserted += batch.inserted;
+        mBatches++;
+        if (timer != null) {
+            timer.add(Metrics.PHASE_INSERT, batch.insertNanos, batch.count, batch.bytes);
+        }
+        batch.count = 0;
+        batch.bytes = 0;
+        if (listener != null
+            && !listener.onProgress(mInserted, source.bytesRead(), System.nanoTime() - start)) {
+            throw new InterruptedIOException("Import cancelled");
+        }
+    }
+
+    private static void await(Future<Void> future) throws IOException {
+        try {
+            future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Import interrupted");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new RuntimeException(cause);
+        }
+    }
+
+    private static void awaitQuietly(Future<Void> future) {
+        boolean interrupted = false;
+        while (true) {
+            try {
+                future.get();
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            } catch (Exception e) {
+                // The import already failed; this one is not reported.
+                break;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Map the export's columns to keys, null for those not imported.
+     */
+    private void bindColumns(String[] names, int[] types) {
+        mKeys = new String[names.length];
+        mTypes = types;
+        for (int i = 0; i < names.length; i++) {
+            if (mSkipped.contains(names[i])) {
+                continue;
+            }
+            for (String column : mColumns) {
+                if (column.equals(names[i])) {
+                    mKeys[i] = column;
+                    break;
+                }
+            }
+        }
+    }
+
+    /**
+     * @return false if the export is empty.
+     */
+    private boolean readBinaryHeader(ImportSource source) throws IOException {
+        if (!source.hasMore()) {
+            return false;
+        }
+        if (source.readInt() != RecordStreamExporter.BINARY_MAGIC) {
+            throw new IOException("Not a record stream");
+        }
+        final int version = source.readInt();
+        if (version != RecordStreamExporter.BINARY_VERSION) {
+            throw new IOException("Unsupported record stream version " + version);
+        }
+        final int count = source.readInt();
+        final String[] names = new String[count];
+        final int[] types = new int[count];
+        for (int i = 0; i < count; i++) {
+            types[i] = source.readByte();
+            final int length = source.readInt();
+            names[i] = readString(source, length);
+        }
+        bindColumns(names, types);
+        return true;
+    }
+
+    /**
+     * Read the next row into batch.
+     *
+     * @return false at the end of the export.
+     */
+    private boolean readBinaryRow(ImportSource source, Batch batch) throws IOException {
+        if (!source.hasMore()) {
+            return false;
+        }
+        final String[] keys = mKeys;
+        final int length = source.readInt();
+        final long start = source.bytesRead();
+        final ContentValues values = batch.next(keys.length);
+        int bytes = 0;
+        for (int i = 0; i < keys.length; i++) {
+            final String key = keys[i];
+            final int type = source.readByte();
+            switch (type) {
+            case RecordStreamExporter.TYPE_NULL:
+                if (key != null) {
+                    values.putNull(key);
+                }
+                break;
+            case RecordStreamExporter.TYPE_INTEGER:
+                final long value = source.readLong();
+                if (key != null) {
+                    values.put(key, value);
+                    bytes += 8;
+                }
+                break;
+            case RecordStreamExporter.TYPE_BLOB:
+                final int blobLength = source.readInt();
+                if (key == null) {
+                    source.skip(blobLength);
+                    break;
+                }
+                final byte[] blob = new byte[blobLength];
+                source.readFully(blob, 0, blobLength);
+                values.put(key, blob);
+                bytes += blobLength;
+                break;
+            case RecordStreamExporter.TYPE_STRING:
+                final int stringLength = source.readInt();
+                if (key == null) {
+                    source.skip(stringLength);
+                    break;
+                }
+                values.put(key, readString(source, stringLength));
+                bytes += 2 * stringLength;
+                break;
+            default:
+                throw new IOException("Unknown value type " + type + " in row " + (mRows + 1));
+            }
+            if (key != null) {
+                bytes += VALUE_OVERHEAD;
+            }
+        }
+        if (source.bytesRead() - start != length) {
+            throw new IOException("Row " + (mRows + 1) + " does not match its length");
+        }
+        batch.bytes += bytes;
+        return true;
+    }
+
+    private String readString(ImportSource source, int length) throws IOException {
+        final byte[] scratch = scratch(length);
+        source.readFully(scratch, 0, length);
+        return new String(scratch, 0, length, "UTF-8");
+    }
+
+    /**
+     * @return mScratch grown to hold at least length bytes, keeping its contents.
+     */
+    private byte[] scratch(int length) {
+        if (mScratch.length < length) {
+            final byte[] grown = new byte[Math.max(length, 2 * mScratch.length)];
+            System.arraycopy(mScratch, 0, grown, 0, mScratch.length);
+            mScratch = grown;
+        }
+        return mScratch;
+    }
+
+    /**
+     * @return false if the export is empty.
+     */
+    private boolean readCsvHeader(ImportSource source) throws IOException {
+        if (!source.hasMore()) {
+            return false;
+        }
+        final ArrayList<String> names = new ArrayList<String>();
+        int c;
+        do {
+            int length = 0;
+            while ((c = source.read()) >= 0 && c != ',' && c != '\n') {
+                if (c != '\r') {
+                    scratch(length + 1)[length++] = (byte) c;
+                }
+            }
+            names.add(new String(mScratch, 0, length, "UTF-8"));
+        } while (c == ',');
+
+        final int[] types = new int[names.size()];
+        for (int i = 0; i < types.length; i++) {
+            types[i] = RecordStreamExporter.typeOf(names.get(i));
+        }
+        bindColumns(names.toArray(new String[types.length]), types);
+        return true;
+    }
+
+    /**
+     * Read the next line into batch. Empty fields are imported as null.
+     *
+     * @return false at the end of the export.
+     */
+    private boolean readCsvRow(ImportSource source, Batch batch) throws IOException {
+        while (source.peek() == '\n' || source.peek() == '\r') {
+            source.read();
+        }
+        if (!source.hasMore()) {
+            return false;
+        }
+        final String[] keys = mKeys;
+        final int[] types = mTypes;
+        final ContentValues values = batch.next(keys.length);
+        int bytes = 0;
+        for (int i = 0; i < keys.length; i++) {
+            final String key = keys[i];
+            final int terminator;
+            if (key == null || types[i] == RecordStreamExporter.TYPE_STRING) {
+                terminator = readCsvText(source);
+                if (key != null) {
+                    if (mTextLength < 0) {
+                        values.putNull(key);
+                    } else {
+                        values.put(key, new String(mScratch, 0, mTextLength, "UTF-8"));
+                        bytes += 2 * mTextLength;
+                    }
+                }
+            } else if (types[i] == RecordStreamExporter.TYPE_BLOB) {
+                terminator = readCsvStages(source);
+                if (mTextLength == 0) {
+                    values.putNull(key);
+                } else {
+                    final byte[] stages = new byte[mTextLength];
+                    System.arraycopy(mScratch, 0, stages, 0, mTextLength);
+                    values.put(key, stages);
+                    bytes += mTextLength;
+                }
+            } else {
+                terminator = readCsvInteger(source);
+                if (mTextLength == 0) {
+                    values.putNull(key);
+                } else {
+                    values.put(key, mInteger);
+                    bytes += 8;
+                }
+            }
+            if (key != null) {
+                bytes += VALUE_OVERHEAD;
+            }
+            final boolean last = i == keys.length - 1;
+            if (last ? terminator == ',' : terminator != ',') {
+                throw new IOException("Row " + (mRows + 1) + " does not have " + keys.length
+                                      + " fields");
+            }
+        }
+        batch.bytes += bytes;
+        return true;
+    }
+
+    /**
+     * Read a possibly quoted field into mScratch.
+     *
+     * @return the byte ending the field: ',', '\n' or -1.
+     */
+    private int readCsvText(ImportSource source) throws IOException {
+        int length = 0;
+        int c = source.read();
+        if (c == '"') {
+            while (true) {
+                c = source.read();
+                if (c < 0) {
+                    throw new IOException("Unterminated quote in row " + (mRows + 1));
+                }
+                if (c == '"') {
+                    if (source.peek() != '"') {
+                        break;
+                    }
+                    source.read();
+                }
+                scratch(length + 1)[length++] = (byte) c;
+            }
+            c = source.read();
+            if (c == '\r') {
+                c = source.read();
+            }
+            mTextLength = length;
+            return c;
+        }
+        for (; c >= 0 && c != ',' && c != '\n'; c = source.read()) {
+            if (c != '\r') {
+                scratch(length + 1)[length++] = (byte) c;
+            }
+        }
+        mTextLength = length == 0 ? -1 : length;
+        return c;
+    }
+
+    /**
+     * Read a field of stage digits into mScratch.
+     *
+     * @return the byte ending the field: ',', '\n' or -1.
+     */
+    private int readCsvStages(ImportSource source) throws IOException {
+        int length = 0;
+        int c;
+        while ((c = source.read()) >= 0 && c != ',' && c != '\n') {
+            if (c >= '0' && c <= '9') {
+                scratch(length + 1)[length++] = (byte) (c - '0');
+            } else if (c != '\r') {
+                throw new IOException("Invalid stage in row " + (mRows + 1));
+            }
+        }
+        mTextLength = length;
+        return c;
+    }
+
+    /**
+     * Read a decimal field into mInteger, setting mTextLength to its digit count.
+     *
+     * @return the byte ending the field: ',', '\n' or -1.
+     */
+    private int readCsvInteger(ImportSource source) throws IOException {
+        int digits = 0;
+        long value = 0;
+        int c = source.read();
+        final boolean negative = c == '-';
+        if (negative) {
+            c = source.read();
+        }
+        for (; c >= 0 && c != ',' && c != '\n'; c = source.read()) {
+            if (c >= '0' && c <= '9') {
+                value = value * 10 + (c - '0');
+                digits++;
+            } else if (c != '\r') {
+                throw new IOException("Invalid integer in row " + (mRows + 1));
+            }
+        }
+        if (negative && digits == 0) {
+            throw new IOException("Invalid integer in row " + (mRows + 1));
+        }
+        mInteger = negative ? -value : value;
+        mTextLength = digits;
+        return c;
+    }
+
+    /** @return rows parsed by the last import. */
+    public long getRowCount() {
+        return mRows;
+    }
+
+    /** @return rows the target reported inserted by the last import. */
+    public long getInsertedCount() {
+        return mInserted;
+    }
+
+    /** @return batches inserted by the last import. */
+    public int getBatchCount() {
+        return mBatches;
+    }
+
+    /** @return bytes of the export read by the last import. */
+    public long getBytesRead() {
+        return mBytes;
+    }
+
+    /** @return duration of the last import. */
+    public long getElapsedNanos() {
+        return mElapsedNanos;
+    }
+
+    /** @return rows inserted per second by the last import. */
+    public double getRowsPerSecond() {
+        return mElapsedNanos == 0 ? 0 : mInserted * 1e9 / mElapsedNanos;
+    }
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright (C) 2011 Zeo Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.myzeo.android.api.data.export;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Streams an export file gzip compressed, e.g. into a pipe read by another app, so that no
+ * compressed copy is ever stored and only one buffer of it is held in memory.
+ *
+ * <p>
+ *
+ * Hypnogram digits dominate a sleep record CSV and compress better than ten to one.
+ *
+ * </p>
+ */
+public final class CompressedExport {
+
+    /** File name suffix of a compressed export. */
+    public static final String EXTENSION = ".gz";
+
+    /** MIME type of a compressed export. */
+    public static final String MIME_TYPE = "application/x-gzip";
+
+    private CompressedExport() {
+    }
+
+    /**
+     * Compress file into out. Only the bytes present when the file is opened are read so that rows
+     * appended meanwhile by {@link IncrementalCsvExport} are never cut short; a rewrite replaces
+     * the file by rename and leaves the open copy intact. The gzip trailer is written and out is
+     * flushed but left open.
+     *
+     * @return the number of uncompressed bytes written.
+     */
+    public static long write(File file, OutputStream out) throws IOException {
+        InputStream in = new FileInputStream(file);
+        try {
+            long remaining = file.length();
+            final long length = remaining;
+            GZIPOutputStream gzip = new GZIPOutputStream(out, ExportSink.DEFAULT_BUFFER_SIZE);
+            final byte[] buffer = new byte[ExportSink.DEFAULT_BUFFER_SIZE];
+            while (remaining > 0) {
+                final int count = in.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+                if (count == -1) {
+                    break;
+                }
+                gzip.write(buffer, 0, count);
+                remaining -= count;
+            }
+            gzip.finish();
+            gzip.flush();
+            return length - remaining;
+        } finally {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,227 @@
+/*
+ * Copyright (C) 2011 Zeo Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.myzeo.android.api.data.export;
+
+import static com.myzeo.android.api.data.ZeoDataContract.SleepRecord;
+
+import com.myzeo.android.api.data.metrics.Metrics;
+import com.myzeo.android.api.data.metrics.PhaseTimer;
+
+import android.content.ContentResolver;
+import android.database.Cursor;
+
+import java.io.IOException;
+
+/**
+ * Expands sleep records into one row per 30 second epoch of their
+ * {@link SleepRecord#BASE_HYPNOGRAM}, streamed into an {@link ExportSink} as CSV or fixed width
+ * binary.
+ *
+ * <p>
+ *
+ * Each row holds the sleep record id, the epoch's start as a Unix timestamp in milliseconds and
+ * its sleep stage. Epoch i of a record starts at {@link SleepRecord#START_OF_NIGHT} plus i times
+ * {@link #EPOCH_MILLIS}. The CSV record id prefix is encoded once per record and each stage's
+ * trailing field comes from a table, so the only per-epoch work is the timestamp's digits and
+ * nothing is allocated per epoch.
+ *
+ * </p>
+ *
+ * <p>
+ *
+ * The binary form starts with {@link #BINARY_MAGIC} and {@link #BINARY_VERSION} as big endian
+ * ints, followed by {@link #BINARY_ROW_SIZE} byte rows: the record id and timestamp as big endian
+ * longs and the stage as a byte.
+ *
+ * </p>
+ */
+public class EpochTimelineExporter {
+
+    public static final int FORMAT_CSV = 1;
+    public static final int FORMAT_BINARY = 2;
+
+    /** Length of one base hypnogram epoch. */
+    public static final long EPOCH_MILLIS = 30 * 1000;
+
+    /** "ZET1" */
+    public static final int BINARY_MAGIC = 0x5a455431;
+    public static final int BINARY_VERSION = 1;
+    public static final int BINARY_ROW_SIZE = 8 + 8 + 1;
+
+    /** Columns read from each sleep record. */
+    public static final String[] PROJECTION = new String[] {
+        SleepRecord._ID,
+        SleepRecord.START_OF_NIGHT,
+        SleepRecord.BASE_HYPNOGRAM
+    };
+
+    /** Names of the CSV columns. */
+    public static final String CSV_HEADER = "sleep_record_id,timestamp,stage\n";
+
+    private static final String SORT_ORDER =
+        SleepRecord.START_OF_NIGHT + " ASC, " + SleepRecord._ID + " ASC";
+
+    /** ",<stage>\n" for every stage that fits a single digit, indexed by stage. */
+    private static final byte[][] STAGE_FIELDS = new byte[10][];
+
+    static {
+        for (int stage = 0; stage < STAGE_FIELDS.length; stage++) {
+            STAGE_FIELDS[stage] = new byte[] { ',', (byte) ('0' + stage), '\n' };
+        }
+    }
+
+    private final int mFormat;
+    /** The current record's id and separator as CSV. */
+    private final byte[] mPrefix = new byte[21];
+
+    public EpochTimelineExporter(int format) {
+        if (format != FORMAT_CSV && format != FORMAT_BINARY) {
+            throw new IllegalArgumentException("Unknown format: " + format);
+        }
+        mFormat = format;
+    }
+
+    /**
+     * Query every sleep record in start order for the columns this exporter reads.
+     *
+     * @return the cursor or null if the Zeo provider is not available.
+     */
+    public Cursor query(ContentResolver resolver) {
+        return resolver.query(SleepRecord.CONTENT_URI, PROJECTION, null, null, SORT_ORDER);
+    }
+
+    /**
+     * Write the CSV header line or binary file header.
+     */
+    public void writeHeader(ExportSink sink) throws IOException {
+        if (mFormat == FORMAT_CSV) {
+            sink.writeAscii(CSV_HEADER);
+        } else {
+            sink.writeInt(BINARY_MAGIC);
+            sink.writeInt(BINARY_VERSION);
+        }
+    }
+
+    /**
+     * Write a header followed by the epochs of every record of a cursor holding at least
+     * {@link #PROJECTION}. Records without a hypnogram contribute no rows. The cursor is not
+     * closed.
+     *
+     * @return the number of epoch rows written.
+     */
+    public long export(Cursor cursor, ExportSink sink) throws IOException {
+        final PhaseTimer timer = PhaseTimer.start();
+        writeHeader(sink);
+        final int idColumn = cursor.getColumnIndexOrThrow(SleepRecord._ID);
+        final int startColumn = cursor.getColumnIndexOrThrow(SleepRecord.START_OF_NIGHT);
+        final int hypnogramColumn = cursor.getColumnIndexOrThrow(SleepRecord.BASE_HYPNOGRAM);
+
+        long epochs = 0;
+        long blobNanos = 0;
+        long blobBytes = 0;
+        final long start = timer == null ? 0 : System.nanoTime();
+        final long startBytes = sink.bytesWritten();
+        final long startWriteNanos = sink.writeNanos();
+        if (cursor.moveToFirst()) {
+            do {
+                if (cursor.isNull(hypnogramColumn)) {
+                    continue;
+                }
+                final long blobStart = timer == null ? 0 : System.nanoTime();
+                final byte[] stages = cursor.getBlob(hypnogramColumn);
+                if (timer != null) {
+                    blobNanos += System.nanoTime() - blobStart;
+                    blobBytes += stages.length;
+                }
+                epochs += writeRecord(cursor.getLong(idColumn), cursor.getLong(startColumn),
+                                      stages, stages.length, sink);
+            } while (cursor.moveToNext());
+        }
+        if (timer != null) {
+            timer.add(Metrics.PHASE_BLOB_READ, blobNanos, cursor.getCount(), blobBytes);
+            // Draining a full buffer is already reported by the sink as PHASE_WRITE.
+            final long writeNanos = sink.writeNanos() - startWriteNanos;
+            timer.add(Metrics.PHASE_FORMAT, System.nanoTime() - start - blobNanos - writeNanos,
+                      epochs, sink.bytesWritten() - startBytes);
+            timer.publish();
+        }
+        return epochs;
+    }
+
+    /**
+     * Write one row per epoch of a record.
+     *
+     * @param stages base hypnogram of the record.
+     * @param count number of epochs to write from the start of stages.
+     * @return count.
+     */
+    public int writeRecord(long id, long startOfNight, byte[] stages, int count,
+                           ExportSink sink) throws IOException {
+        if (mFormat == FORMAT_BINARY) {
+            long timestamp = startOfNight;
+            for (int i = 0; i < count; i++) {
+                sink.writeLong(id);
+                sink.writeLong(timestamp);
+                sink.writeByte(stages[i]);
+                timestamp += EPOCH_MILLIS;
+            }
+            return count;
+        }
+
+        final byte[] prefix = mPrefix;
+        final int prefixLength = encodePrefix(id, prefix);
+        final byte[][] fields = STAGE_FIELDS;
+        long timestamp = startOfNight;
+        for (int i = 0; i < count; i++) {
+            sink.writeBytes(prefix, 0, prefixLength);
+            sink.writeDecimal(timestamp);
+            final int stage = stages[i];
+            if (stage >= 0 && stage < fields.length) {
+                sink.writeBytes(fields[stage], 0, 3);
+            } else {
+                sink.writeByte(',');
+                sink.writeDecimal(stage);
+                sink.writeByte('\n');
+            }
+            timestamp += EPOCH_MILLIS;
+        }
+        return count;
+    }
+
+    /**
+     * Encode id and a trailing comma into dest.
+     *
+     * @return the number of bytes used.
+     */
+    private static int encodePrefix(long id, byte[] dest) {
+        // Digits are produced right to left at the end of dest and then moved to the front.
+        int position = dest.length;
+        dest[--position] = ',';
+        final boolean negative = id < 0;
+        do {
+            final int digit = (int) (id % 10);
+            dest[--position] = (byte) ('0' + (negative ? -digit : digit));
+            id /= 10;
+        } while (id != 0);
+        if (negative) {
+            dest[--position] = '-';
+        }
+        final int length = dest.length - position;
+        System.arraycopy(dest, position, dest, 0, length);
+        return length;
+    }
+}
@@ -0,0 +1,384 @@
+/*
+ * Copyright (C) 2011 Zeo Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.myzeo.android.api.data.export;
+
+import com.myzeo.android.api.data.metrics.Metrics;
+import com.myzeo.android.api.data.metrics.PhaseTimer;
+
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Bounded byte buffer that exporters encode values into before handing them off to an output
+ * stream or channel in large chunks.
+ *
+ * <p>
+ *
+ * Numbers and strings are encoded straight into the buffer so that walking a cursor of several
+ * years of sleep records produces no per-row or per-epoch garbage. Peak memory use is the size of
+ * the buffer regardless of how much data passes through the sink.
+ *
+ * </p>
+ *
+ * <p>
+ *
+ * Instances are not thread safe.
+ *
+ * </p>
+ *
+ * <p>
+ *
+ * When {@link Metrics} are enabled, the time spent handing bytes to the underlying stream,
+ * closing included, is reported as {@link Metrics#PHASE_WRITE} on close.
+ *
+ * </p>
+ */
+public class ExportSink implements Closeable, Flushable {
+
+    /** Buffer size used when the caller does not specify one. */
+    public static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+
+    /** Smallest buffer accepted; large enough for any encoded long. */
+    private static final int MIN_BUFFER_SIZE = 32;
+
+    /** ASCII digits indexed by their value. */
+    private static final byte[] DIGITS = {
+        '0', '1', '2', '3', '4', '5', '6', '7', '8', '9'
+    };
+
+    /** Base64 alphabet (RFC 4648) indexed by six bit value. */
+    private static final byte[] BASE64 = new byte[64];
+
+    static {
+        for (int i = 0; i < 26; i++) {
+            BASE64[i] = (byte) ('A' + i);
+            BASE64[26 + i] = (byte) ('a' + i);
+        }
+        for (int i = 0; i < 10; i++) {
+            BASE64[52 + i] = (byte) ('0' + i);
+        }
+        BASE64[62] = '+';
+        BASE64[63] = '/';
+    }
+
+    private final OutputStream mOut;
+    private final byte[] mBuffer;
+    private int mPosition;
+    private long mFlushed;
+    private final PhaseTimer mTimer;
+    private long mWriteNanos;
+    private long mWrites;
+
+    /**
+     * Create a sink with the default buffer size that writes to the given stream.
+     */
+    public ExportSink(OutputStream out) {
+        this(out, DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * Create a sink writing to the given stream in chunks of at most bufferSize bytes.
+     */
+    public ExportSink(OutputStream out, int bufferSize) {
+        if (out == null) {
+            throw new NullPointerException("out");
+        }
+        if (bufferSize < MIN_BUFFER_SIZE) {
+            throw new IllegalArgumentException("Buffer size must be at least " + MIN_BUFFER_SIZE);
+        }
+        mOut = out;
+        mBuffer = new byte[bufferSize];
+        mTimer = PhaseTimer.start();
+    }
+
+    /**
+     * Create a sink writing to the given channel (for instance a FileChannel) in chunks of at most
+     * bufferSize bytes.
+     */
+    public ExportSink(WritableByteChannel channel, int bufferSize) {
+        this(Channels.newOutputStream(channel), bufferSize);
+    }
+
+    /**
+     * @return total number of bytes accepted by this sink including those still buffered.
+     */
+    public long bytesWritten() {
+        return mFlushed + mPosition;
+    }
+
+    /**
+     * @return nanoseconds spent so far handing bytes to the underlying stream, reported as
+     *     {@link Metrics#PHASE_WRITE} on close; always 0 when metrics were disabled on creation.
+     */
+    public long writeNanos() {
+        return mWriteNanos;
+    }
+
+    /**
+     * Write a single byte.
+     */
+    public void writeByte(int b) throws IOException {
+        if (mPosition == mBuffer.length) {
+            drain();
+        }
+        mBuffer[mPosition++] = (byte) b;
+    }
+
+    /**
+     * Write len bytes of src beginning at off. Runs longer than the buffer go straight to the
+     * underlying stream.
+     */
+    public void writeBytes(byte[] src, int off, int len) throws IOException {
+        if (len > mBuffer.length - mPosition) {
+            drain();
+            if (len >= mBuffer.length) {
+                write(src, off, len);
+                mFlushed += len;
+                return;
+            }
+        }
+        System.arraycopy(src, off, mBuffer, mPosition, len);
+        mPosition += len;
+    }
+
+    /**
+     * Write the decimal representation of value as ASCII.
+     */
+    public void writeDecimal(long value) throws IOException {
+        if (value >= 0 && value < 10) {
+            writeByte(DIGITS[(int) value]);
+            return;
+        }
+        require(20);
+        final byte[] buffer = mBuffer;
+        if (value == Long.MIN_VALUE) {
+            // Negation would overflow; emit the leading digit separately.
+            buffer[mPosition++] = '-';
+            buffer[mPosition++] = '9';
+            value = -(value + 9000000000000000000L);
+        } else if (value < 0) {
+            buffer[mPosition++] = '-';
+            value = -value;
+        }
+
+        int length = 1;
+        for (long v = value; v >= 10; v /= 10) {
+            length++;
+        }
+        int position = mPosition + length;
+        mPosition = position;
+        do {
+            buffer[--position] = DIGITS[(int) (value % 10)];
+            value /= 10;
+        } while (value != 0);
+    }
+
+    /**
+     * Write value as four bytes, most significant first.
+     */
+    public void writeInt(int value) throws IOException {
+        require(4);
+        final byte[] buffer = mBuffer;
+        int position = mPosition;
+        buffer[position++] = (byte) (value >>> 24);
+        buffer[position++] = (byte) (value >>> 16);
+        buffer[position++] = (byte) (value >>> 8);
+        buffer[position++] = (byte) value;
+        mPosition = position;
+    }
+
+    /**
+     * Write value as eight bytes, most significant first.
+     */
+    public void writeLong(long value) throws IOException {
+        writeInt((int) (value >>> 32));
+        writeInt((int) value);
+    }
+
+    /**
+     * Write each value in the given range as its decimal representation with no separator. This
+     * is the textual hypnogram form where every sleep stage occupies a single character.
+     */
+    public void writeDigits(byte[] values, int off, int len) throws IOException {
+        final int end = off + len;
+        int i = off;
+        while (i < end) {
+            if (mPosition == mBuffer.length) {
+                drain();
+            }
+            final byte[] buffer = mBuffer;
+            final int chunkEnd = Math.min(end, i + buffer.length - mPosition);
+            int position = mPosition;
+            for (; i < chunkEnd; i++) {
+                final int value = values[i];
+                if (value < 0 || value > 9) {
+                    break;
+                }
+                buffer[position++] = DIGITS[value];
+            }
+            mPosition = position;
+            if (i < chunkEnd) {
+                writeDecimal(values[i++]);
+            }
+        }
+    }
+
+    /**
+     * Write len bytes of src beginning at off as padded Base64. Whole three byte groups are encoded
+     * straight into the buffer as many at a time as it has room for.
+     */
+    public void writeBase64(byte[] src, int off, int len) throws IOException {
+        final byte[] alphabet = BASE64;
+        final int end = off + len;
+        int i = off;
+        while (end - i >= 3) {
+            require(4);
+            final byte[] buffer = mBuffer;
+            int position = mPosition;
+            final int groups = Math.min((end - i) / 3, (buffer.length - position) / 4);
+            for (int g = 0; g < groups; g++) {
+                final int bits = (src[i] & 0xff) << 16 | (src[i + 1] & 0xff) << 8
+                    | (src[i + 2] & 0xff);
+                i += 3;
+                buffer[position++] = alphabet[bits >>> 18];
+                buffer[position++] = alphabet[(bits >>> 12) & 0x3f];
+                buffer[position++] = alphabet[(bits >>> 6) & 0x3f];
+                buffer[position++] = alphabet[bits & 0x3f];
+            }
+            mPosition = position;
+        }
+        final int remaining = end - i;
+        if (remaining > 0) {
+            require(4);
+            final int bits = (src[i] & 0xff) << 16 | (remaining == 2 ? (src[i + 1] & 0xff) << 8 : 0);
+            mBuffer[mPosition++] = alphabet[bits >>> 18];
+            mBuffer[mPosition++] = alphabet[(bits >>> 12) & 0x3f];
+            mBuffer[mPosition++] = remaining == 2 ? alphabet[(bits >>> 6) & 0x3f] : (byte) '=';
+            mBuffer[mPosition++] = '=';
+        }
+    }
+
+    /**
+     * Write a string whose characters are all within 7 bit ASCII.
+     */
+    public void writeAscii(CharSequence value) throws IOException {
+        final int length = value.length();
+        for (int i = 0; i < length; i++) {
+            writeByte(value.charAt(i));
+        }
+    }
+
+    /**
+     * Write a string encoded as UTF-8.
+     */
+    public void writeUtf8(CharSequence value) throws IOException {
+        writeUtf8(value, 0, value.length());
+    }
+
+    /**
+     * Write the characters of value between start (inclusive) and end (exclusive) as UTF-8.
+     */
+    public void writeUtf8(CharSequence value, int start, int end) throws IOException {
+        for (int i = start; i < end; i++) {
+            final char c = value.charAt(i);
+            if (c < 0x80) {
+                writeByte(c);
+            } else if (c < 0x800) {
+                require(2);
+                mBuffer[mPosition++] = (byte) (0xc0 | (c >> 6));
+                mBuffer[mPosition++] = (byte) (0x80 | (c & 0x3f));
+            } else if (Character.isHighSurrogate(c) && i + 1 < end
+                       && Character.isLowSurrogate(value.charAt(i + 1))) {
+                final int codePoint = Character.toCodePoint(c, value.charAt(++i));
+                require(4);
+                mBuffer[mPosition++] = (byte) (0xf0 | (codePoint >> 18));
+                mBuffer[mPosition++] = (byte) (0x80 | ((codePoint >> 12) & 0x3f));
+                mBuffer[mPosition++] = (byte) (0x80 | ((codePoint >> 6) & 0x3f));
+                mBuffer[mPosition++] = (byte) (0x80 | (codePoint & 0x3f));
+            } else {
+                require(3);
+                mBuffer[mPosition++] = (byte) (0xe0 | (c >> 12));
+                mBuffer[mPosition++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+                mBuffer[mPosition++] = (byte) (0x80 | (c & 0x3f));
+            }
+        }
+    }
+
+    /**
+     * Push buffered bytes to the underlying stream and flush it.
+     */
+    @Override
+    public void flush() throws IOException {
+        drain();
+        mOut.flush();
+    }
+
+    /**
+     * Flush remaining bytes and close the underlying stream.
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            drain();
+        } finally {
+            if (mTimer == null) {
+                mOut.close();
+            } else {
+                final long start = System.nanoTime();
+                mOut.close();
+                mTimer.add(Metrics.PHASE_WRITE, mWriteNanos + System.nanoTime() - start,
+                           mWrites, mFlushed);
+                mTimer.publish();
+            }
+        }
+    }
+
+    /**
+     * Make sure at least count bytes are free in the buffer.
+     */
+    private void require(int count) throws IOException {
+        if (mBuffer.length - mPosition < count) {
+            drain();
+        }
+    }
+
+    /**
+     * Hand buffered bytes to the underlying stream without flushing it.
+     */
+    private void drain() throws IOException {
+        if (mPosition > 0) {
+            write(mBuffer, 0, mPosition);
+            mFlushed += mPosition;
+            mPosition = 0;
+        }
+    }
+
+    private void write(byte[] src, int off, int len) throws IOException {
+        if (mTimer == null) {
+            mOut.write(src, off, len);
+            return;
+        }
+        final long start = System.nanoTime();
+        mOut.write(src, off, len);
+        mWriteNanos += System.nanoTime() - start;
+        mWrites++;
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright (C) 2011 Zeo Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.myzeo.android.api.data.export;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Properties;
+
+/**
+ * Small persistent store of per table export progress.
+ *
+ * <p>
+ *
+ * For every exported table the store remembers the largest
+ * {@link com.myzeo.android.api.data.ZeoDataContract.TimestampColumns#UPDATED_ON} and the largest
+ * row id already written, keyed by the table's content URI. Values live in a properties file that
+ * is replaced atomically on {@link #save()}.
+ *
+ * </p>
+ */
+public class ExportWatermarks {
+
+    private static final String UPDATED_ON_SUFFIX = ".updated_on";
+    private static final String MAX_ID_SUFFIX = ".max_id";
+
+    private final File mFile;
+    private final Properties mProperties = new Properties();
+
+    /**
+     * Load the watermarks kept in the given file; a missing file holds no watermarks.
+     */
+    public ExportWatermarks(File file) throws IOException {
+        mFile = file;
+        if (file.exists()) {
+            InputStream in = new FileInputStream(file);
+            try {
+                mProperties.load(in);
+            } finally {
+                in.close();
+            }
+        }
+    }
+
+    /**
+     * @return the largest updated on timestamp exported from table or -1 if nothing was.
+     */
+    public long getUpdatedOn(String table) {
+        return get(table + UPDATED_ON_SUFFIX);
+    }
+
+    /**
+     * @return the largest row id exported from table or -1 if nothing was.
+     */
+    public long getMaxId(String table) {
+        return get(table + MAX_ID_SUFFIX);
+    }
+
+    /**
+     * Record progress for table; takes effect on disk at the next {@link #save()}.
+     */
+    public void set(String table, long updatedOn, long maxId) {
+        mProperties.setProperty(table + UPDATED_ON_SUFFIX, Long.toString(updatedOn));
+        mProperties.setProperty(table + MAX_ID_SUFFIX, Long.toString(maxId));
+    }
+
+    /**
+     * Forget the progress of table so that its next export starts from scratch.
+     */
+    public void clear(String table) {
+        mProperties.remove(table + UPDATED_ON_SUFFIX);
+        mProperties.remove(table + MAX_ID_SUFFIX);
+    }
+
+    /**
+     * Write the watermarks to disk.
+     */
+    public void save() throws IOException {
+        File temp = new File(mFile.getPath() + ".tmp");
+        OutputStream out = new FileOutputStream(temp);
+        try {
+            mProperties.store(out, null);
+        } finally {
+            out.close();
+        }
+        if (!temp.renameTo(mFile)) {
+            throw new IOException("Unable to replace " + mFile);
+        }
+    }
+
+    private long get(String key) {
+        final String value = mProperties.getProperty(key);
+        if (value == null) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,158 @@
+/*
+ * Copyright (C) 2011 Zeo Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.myzeo.android.api.data.export;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Buffered reader of export files, the counterpart of {@link ExportSink}: bytes are taken from
+ * its own buffer and ints and longs decoded big endian as the sink writes them. Not thread safe.
+ */
+class ImportSource implements Closeable {
+
+    private final InputStream mIn;
+    private final byte[] mBuffer;
+    private int mPosition;
+    private int mLimit;
+    /** Bytes read from the stream before the buffer's contents. */
+    private long mConsumed;
+
+    ImportSource(InputStream in, int bufferSize) {
+        if (in == null) {
+            throw new NullPointerException("in");
+        }
+        mIn = in;
+        mBuffer = new byte[Math.max(bufferSize, 8)];
+    }
+
+    /**
+     * @return bytes consumed so far.
+     */
+    long bytesRead() {
+        return mConsumed + mPosition;
+    }
+
+    /**
+     * @return false if the stream is exhausted.
+     */
+    private boolean fill() throws IOException {
+        if (mPosition < mLimit) {
+            return true;
+        }
+        mConsumed += mLimit;
+        mPosition = 0;
+        mLimit = 0;
+        int count;
+        do {
+            count = mIn.read(mBuffer, 0, mBuffer.length);
+        } while (count == 0);
+        if (count < 0) {
+            return false;
+        }
+        mLimit = count;
+        return true;
+    }
+
+    /**
+     * @return the next byte, or -1 at the end of the stream.
+     */
+    int read() throws IOException {
+        if (mPosition == mLimit && !fill()) {
+            return -1;
+        }
+        return mBuffer[mPosition++] & 0xff;
+    }
+
+    /**
+     * @return the next byte without consuming it, or -1 at the end of the stream.
+     */
+    int peek() throws IOException {
+        if (mPosition == mLimit && !fill()) {
+            return -1;
+        }
+        return mBuffer[mPosition] & 0xff;
+    }
+
+    /**
+     * @return whether a byte remains.
+     */
+    boolean hasMore() throws IOException {
+        return mPosition < mLimit || fill();
+    }
+
+    int readByte() throws IOException {
+        final int b = read();
+        if (b < 0) {
+            throw new EOFException();
+        }
+        return b;
+    }
+
+    int readInt() throws IOException {
+        if (mLimit - mPosition < 4) {
+            return readByte() << 24 | readByte() << 16 | readByte() << 8 | readByte();
+        }
+        final byte[] buffer = mBuffer;
+        int p = mPosition;
+        final int value = buffer[p] << 24 | (buffer[p + 1] & 0xff) << 16
+            | (buffer[p + 2] & 0xff) << 8 | (buffer[p + 3] & 0xff);
+        mPosition = p + 4;
+        return value;
+    }
+
+    long readLong() throws IOException {
+        return (long) readInt() << 32 | (readInt() & 0xffffffffL);
+    }
+
+    /**
+     * Read exactly len bytes into dst beginning at off.
+     */
+    void readFully(byte[] dst, int off, int len) throws IOException {
+        while (len > 0) {
+            if (!fill()) {
+                throw new EOFException();
+            }
+            final int count = Math.min(len, mLimit - mPosition);
+            System.arraycopy(mBuffer, mPosition, dst, off, count);
+            mPosition += count;
+            off += count;
+            len -= count;
+        }
+    }
+
+    /**
+     * Skip exactly len bytes.
+     */
+    void skip(int len) throws IOException {
+        while (len > 0) {
+            if (!fill()) {
+                throw new EOFException();
+            }
+            final int count = Math.min(len, mLimit - mPosition);
+            mPosition += count;
+            len -= count;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        mIn.close();
+    }
+}
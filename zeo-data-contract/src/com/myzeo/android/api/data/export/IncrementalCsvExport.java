@@ -0,0 +1,392 @@
+/*
+ * Copyright (C) 2011 Zeo Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.myzeo.android.api.data.export;
+
+import static com.myzeo.android.api.data.ZeoDataContract.SleepRecord;
+
+import com.myzeo.android.api.data.metrics.Metrics;
+import com.myzeo.android.api.data.metrics.PhaseTimer;
+
+import android.content.ContentResolver;
+import android.database.Cursor;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+
+/**
+ * Keeps a sleep record CSV export up to date by exporting only rows whose
+ * {@link SleepRecord#UPDATED_ON} is at or after the last run's newest.
+ *
+ * <p>
+ *
+ * The export's first column is {@link SleepRecord#_ID}. Rows newer than every exported id are
+ * appended to the file; if an already exported row changed, the file is rewritten once, dropping
+ * the stale lines and appending their replacements. The progress watermark is kept in
+ * {@link ExportWatermarks} next to the export.
+ *
+ * </p>
+ *
+ * <p>
+ *
+ * Share one instance per export file; its updates are serialized, separate instances of the same
+ * file must not be updated concurrently.
+ *
+ * </p>
+ *
+ * <p>
+ *
+ * Lines are matched on their leading id so exported strings must not contain line breaks, which
+ * holds for every sleep record column.
+ *
+ * </p>
+ */
+public class IncrementalCsvExport {
+
+    /** Receives progress of an update and may cancel it. */
+    public interface ProgressListener {
+        /**
+         * Called after every {@link IncrementalCsvExport#PROGRESS_INTERVAL} rows and once all
+         * rows are written.
+         *
+         * @param rows changed rows written so far.
+         * @param total changed rows to write.
+         * @param bytes bytes written to the export so far, including unchanged rows copied by a
+         *     rewrite.
+         * @return false to cancel the update.
+         */
+        boolean onProgress(int rows, int total, long bytes);
+    }
+
+    /** Rows written between progress reports. */
+    public static final int PROGRESS_INTERVAL = 64;
+
+    /** Watermark key of the sleep record table. */
+    private static final String TABLE = SleepRecord.CONTENT_URI.toString();
+
+    private final SleepRecordCsvExporter mExporter;
+    private final String[] mQueryProjection;
+    private final File mFile;
+    private final ExportWatermarks mWatermarks;
+
+    /**
+     * Maintain file as a CSV export of the given sleep record columns preceded by the row id.
+     */
+    public IncrementalCsvExport(String[] projection, File file) throws IOException {
+        String[] columns = new String[projection.length + 1];
+        columns[0] = SleepRecord._ID;
+        System.arraycopy(projection, 0, columns, 1, projection.length);
+        mExporter = new SleepRecordCsvExporter(columns);
+
+        String[] query = new String[columns.length + 1];
+        System.arraycopy(columns, 0, query, 0, columns.length);
+        query[columns.length] = SleepRecord.UPDATED_ON;
+        mQueryProjection = query;
+
+        mFile = file;
+        mWatermarks = new ExportWatermarks(new File(file.getPath() + ".watermark"));
+    }
+
+    /**
+     * @return the export file.
+     */
+    public File getFile() {
+        return mFile;
+    }
+
+    /**
+     * Bring the export up to date with the Zeo provider.
+     *
+     * @return the number of rows exported or -1 if the provider is unavailable.
+     */
+    public int update(ContentResolver resolver) throws IOException {
+        return update(resolver, null);
+    }
+
+    /**
+     * Bring the export up to date with the Zeo provider, reporting progress to listener. If the
+     * listener cancels, the export and its watermark are left as they were. Updates and merges of
+     * this instance run one at a time, a second caller waits for the first to finish.
+     *
+     * @param listener progress listener or null.
+     * @return the number of rows exported or -1 if the provider is unavailable.
+     * @throws InterruptedIOException if the listener cancelled the update.
+     */
+    public synchronized int update(ContentResolver resolver, ProgressListener listener)
+        throws IOException {
+        if (!mFile.exists()) {
+            mWatermarks.clear(TABLE);
+        }
+        final long watermark = mWatermarks.getUpdatedOn(TABLE);
+        final PhaseTimer timer = PhaseTimer.start();
+        final long start = timer == null ? 0 : System.nanoTime();
+        // Rows at the watermark are queried again: another row may have been committed with the
+        // same millisecond after the last run. Merging skips the ones already exported.
+        final Cursor cursor = resolver.query(SleepRecord.CONTENT_URI, mQueryProjection,
+                                             SleepRecord.UPDATED_ON + " >= ?",
+                                             new String[] { Long.toString(watermark) },
+                                             SleepRecord._ID + " ASC");
+        if (cursor == null) {
+            return -1;
+        }
+        try {
+            if (timer != null) {
+                timer.add(Metrics.PHASE_QUERY, System.nanoTime() - start, 1, 0);
+            }
+            return merge(cursor, listener, timer);
+        } finally {
+            cursor.close();
+            if (timer != null) {
+                timer.publish();
+            }
+        }
+    }
+
+    /**
+     * Merge changed rows into the export and advance the watermark. The cursor must hold the
+     * exported columns, {@link SleepRecord#_ID} and {@link SleepRecord#UPDATED_ON}.
+     *
+     * @return the number of rows exported.
+     */
+    public int merge(Cursor changed) throws IOException {
+        return merge(changed, null);
+    }
+
+    /**
+     * Merge changed rows into the export reporting progress to listener. If the listener cancels,
+     * the export and its watermark are left as they were. Runs one at a time with the updates of
+     * this instance.
+     *
+     * @param listener progress listener or null.
+     * @return the number of rows exported.
+     * @throws InterruptedIOException if the listener cancelled the merge.
+     */
+    public synchronized int merge(Cursor changed, ProgressListener listener)
+        throws IOException {
+        final PhaseTimer timer = PhaseTimer.start();
+        try {
+            return merge(changed, listener, timer);
+        } finally {
+            if (timer != null) {
+                timer.publish();
+            }
+        }
+    }
+
+    private int merge(Cursor changed, ProgressListener listener, PhaseTimer timer)
+        throws IOException {
+        final int count = changed.getCount();
+        if (count == 0) {
+            return 0;
+        }
+
+        final boolean fresh = !mFile.exists() || mFile.length() == 0;
+        final long watermark = fresh ? -1 : mWatermarks.getUpdatedOn(TABLE);
+        final long exportedMaxId = fresh ? -1 : mWatermarks.getMaxId(TABLE);
+
+        // The changed ids are few, everything else is streamed. Rows already exported at the
+        // watermark are queried again by every update and left out, so that an update finding
+        // nothing new touches no file.
+        final int idColumn = changed.getColumnIndexOrThrow(SleepRecord._ID);
+        final int updatedColumn = changed.getColumnIndexOrThrow(SleepRecord.UPDATED_ON);
+        long[] ids = new long[count];
+        long updatedOn = watermark;
+        int changedCount = 0;
+        if (changed.moveToFirst()) {
+            do {
+                final long id = changed.getLong(idColumn);
+                final long rowUpdatedOn = changed.getLong(updatedColumn);
+                if (id <= exportedMaxId && rowUpdatedOn == watermark) {
+                    continue;
+                }
+                ids[changedCount++] = id;
+                updatedOn = Math.max(updatedOn, rowUpdatedOn);
+            } while (changed.moveToNext());
+        }
+        if (changedCount == 0) {
+            return 0;
+        }
+        if (changedCount < count) {
+            final long[] remaining = new long[changedCount];
+            System.arraycopy(ids, 0, remaining, 0, changedCount);
+            ids = remaining;
+        }
+        Arrays.sort(ids);
+
+        if (fresh) {
+            boolean written = false;
+            ExportSink sink = new ExportSink(new FileOutputStream(mFile));
+            try {
+                mExporter.writeHeader(sink);
+                appendRows(changed, ids, sink, listener, timer);
+                written = true;
+            } finally {
+                sink.close();
+                if (!written) {
+                    mFile.delete();
+                }
+            }
+        } else if (ids[0] > exportedMaxId) {
+            final long length = mFile.length();
+            boolean written = false;
+            ExportSink sink = new ExportSink(new FileOutputStream(mFile, true));
+            try {
+                appendRows(changed, ids, sink, listener, timer);
+                written = true;
+            } finally {
+                sink.close();
+                if (!written) {
+                    truncate(mFile, length);
+                }
+            }
+        } else {
+            rewrite(changed, ids, listener, timer);
+        }
+
+        mWatermarks.set(TABLE, updatedOn, Math.max(exportedMaxId, ids[changedCount - 1]));
+        mWatermarks.save();
+        return changedCount;
+    }
+
+    /**
+     * Write the cursor's rows whose id is one of ids.
+     *
+     * @param ids sorted ids of the rows to write.
+     * @param timer receives the phase measurements, may be null.
+     */
+    private void appendRows(Cursor cursor, long[] ids, ExportSink sink, ProgressListener listener,
+                            PhaseTimer timer) throws IOException {
+        final int[] columns = mExporter.bindColumns(cursor);
+        final int idColumn = cursor.getColumnIndexOrThrow(SleepRecord._ID);
+        final int total = ids.length;
+        int rows = 0;
+        long cursorNanos = 0;
+        long start = timer == null ? 0 : System.nanoTime();
+        boolean more = cursor.moveToFirst();
+        while (more) {
+            if (timer != null) {
+                cursorNanos += System.nanoTime() - start;
+            }
+            if (Arrays.binarySearch(ids, cursor.getLong(idColumn)) >= 0) {
+                mExporter.writeRow(cursor, columns, sink, timer);
+                rows++;
+                if (listener != null && rows % PROGRESS_INTERVAL == 0) {
+                    report(listener, rows, total, sink);
+                }
+            }
+            if (timer != null) {
+                start = System.nanoTime();
+            }
+            more = cursor.moveToNext();
+        }
+        if (timer != null) {
+            cursorNanos += System.nanoTime() - start;
+            timer.add(Metrics.PHASE_CURSOR, cursorNanos, rows, 0);
+        }
+        if (listener != null) {
+            report(listener, rows, total, sink);
+        }
+    }
+
+    private static void report(ProgressListener listener, int rows, int total, ExportSink sink)
+        throws InterruptedIOException {
+        if (!listener.onProgress(rows, total, sink.bytesWritten())) {
+            throw new InterruptedIOException("Export cancelled");
+        }
+    }
+
+    /**
+     * Cut file back to length, dropping a partially appended tail.
+     */
+    private static void truncate(File file, long length) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.setLength(length);
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * Copy the export dropping lines whose id changed, append the changed rows and swap the copy
+     * into place.
+     */
+    private void rewrite(Cursor changed, long[] ids, ProgressListener listener,
+                         PhaseTimer timer) throws IOException {
+        final File temp = new File(mFile.getPath() + ".tmp");
+        final InputStream in = new BufferedInputStream(new FileInputStream(mFile),
+                                                       ExportSink.DEFAULT_BUFFER_SIZE);
+        final ExportSink sink = new ExportSink(new FileOutputStream(temp));
+        boolean written = false;
+        try {
+            copyUnchanged(in, sink, ids);
+            appendRows(changed, ids, sink, listener, timer);
+            written = true;
+        } finally {
+            in.close();
+            sink.close();
+            if (!written) {
+                temp.delete();
+            }
+        }
+        if (!temp.renameTo(mFile)) {
+            throw new IOException("Unable to replace " + mFile);
+        }
+    }
+
+    /**
+     * Stream lines from in to sink, skipping those that begin with one of the sorted ids. The
+     * header line never begins with a digit and is always kept.
+     */
+    private static void copyUnchanged(InputStream in, ExportSink sink, long[] ids)
+        throws IOException {
+        // Digits of the current line's leading id, held until the line is known to be kept.
+        final byte[] prefix = new byte[20];
+        int b = in.read();
+        while (b != -1) {
+            int length = 0;
+            long id = 0;
+            while (b >= '0' && b <= '9' && length < prefix.length) {
+                prefix[length++] = (byte) b;
+                id = id * 10 + (b - '0');
+                b = in.read();
+            }
+            final boolean keep = length == 0 || Arrays.binarySearch(ids, id) < 0;
+            if (keep) {
+                sink.writeBytes(prefix, 0, length);
+            }
+            while (b != -1 && b != '\n') {
+                if (keep) {
+                    sink.writeByte(b);
+                }
+                b = in.read();
+            }
+            if (b == '\n') {
+                if (keep) {
+                    sink.writeByte(b);
+                }
+                b = in.read();
+            }
+        }
+    }
+}
@@ -0,0 +1,394 @@
+/*
+ * Copyright (C) 2011 Zeo Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.myzeo.android.api.data.export;
+
+import com.myzeo.android.api.data.SleepEpisodeView;
+import com.myzeo.android.api.data.SleepRecordView;
+import com.myzeo.android.api.data.ZeoDataContract.SleepEpisode;
+import com.myzeo.android.api.data.ZeoDataContract.SleepRecord;
+import com.myzeo.android.api.data.metrics.Metrics;
+import com.myzeo.android.api.data.metrics.PhaseTimer;
+
+import android.content.ContentResolver;
+import android.database.Cursor;
+
+import java.io.IOException;
+
+/**
+ * Streams sleep record or sleep episode rows from a cursor into an {@link ExportSink} as
+ * newline delimited JSON or as length prefixed binary records, for machine consumers that would
+ * otherwise have to parse CSV.
+ *
+ * <p>
+ *
+ * In JSON every row is one object keyed by column name. Hypnogram blobs are written as Base64
+ * strings encoded in bulk from the bytes returned by {@link Cursor#getBlob(int)};
+ * {@link SleepRecord#TIMEZONE} is a string and every other column a number. Nulls are written as
+ * null.
+ *
+ * </p>
+ *
+ * <p>
+ *
+ * The binary form starts with {@link #BINARY_MAGIC}, {@link #BINARY_VERSION} and the column count
+ * as big endian ints, then each column's type and its name as an int length and ASCII bytes. Each
+ * row follows as an int byte length and, per column, a type byte ({@link #TYPE_NULL},
+ * {@link #TYPE_INTEGER}, {@link #TYPE_STRING} or {@link #TYPE_BLOB}) and the value: a long, or an
+ * int length and the UTF-8 or blob bytes. Readers can skip rows or columns they do not want
+ * without decoding them.
+ *
+ * </p>
+ */
+public class RecordStreamExporter {
+
+    public static final int FORMAT_NDJSON = 1;
+    public static final int FORMAT_BINARY = 2;
+
+    public static final int TABLE_SLEEP_RECORD = 1;
+    public static final int TABLE_SLEEP_EPISODE = 2;
+
+    /** "ZRS1" */
+    public static final int BINARY_MAGIC = 0x5a525331;
+    public static final int BINARY_VERSION = 1;
+
+    /** Binary value types, numbered as Cursor's FIELD_TYPE_* constants. */
+    public static final int TYPE_NULL = 0;
+    public static final int TYPE_INTEGER = 1;
+    public static final int TYPE_STRING = 3;
+    public static final int TYPE_BLOB = 4;
+
+    private final int mTable;
+    private final int mFormat;
+    private final String[] mProjection;
+    private final int[] mTypes;
+    /** "{\"name\":" for the first column and ",\"name\":" for the rest. */
+    private final byte[][] mKeys;
+
+    // Values of the current row, kept to size binary rows before writing them.
+    private final long[] mLongs;
+    private final String[] mStrings;
+    private final byte[][] mBlobs;
+    private final boolean[] mNulls;
+
+    /**
+     * Export every column of the table in view order.
+     */
+    public RecordStreamExporter(int table, int format) {
+        this(table, format, table == TABLE_SLEEP_EPISODE
+             ? SleepEpisodeView.PROJECTION : SleepRecordView.PROJECTION);
+    }
+
+    /**
+     * Export the given columns of the table in the given order.
+     */
+    public RecordStreamExporter(int table, int format, String[] projection) {
+        if (table != TABLE_SLEEP_RECORD && table != TABLE_SLEEP_EPISODE) {
+            throw new IllegalArgumentException("Unknown table: " + table);
+        }
+        if (format != FORMAT_NDJSON && format != FORMAT_BINARY) {
+            throw new IllegalArgumentException("Unknown format: " + format);
+        }
+        mTable = table;
+        mFormat = format;
+        mProjection = projection.clone();
+        final int count = projection.length;
+        mTypes = new int[count];
+        mKeys = new byte[count][];
+        for (int i = 0; i < count; i++) {
+            final String name = projection[i];
+            mTypes[i] = typeOf(name);
+            final int length = name.length();
+            final byte[] key = new byte[length + 4];
+            key[0] = (byte) (i == 0 ? '{' : ',');
+            key[1] = '"';
+            for (int c = 0; c < length; c++) {
+                key[2 + c] = (byte) name.charAt(c);
+            }
+            key[length + 2] = '"';
+            key[length + 3] = ':';
+            mKeys[i] = key;
+        }
+        mLongs = new long[count];
+        mStrings = new String[count];
+        mBlobs = new byte[count][];
+        mNulls = new boolean[count];
+    }
+
+    /**
+     * @return the TYPE_* a column is written as.
+     */
+    static int typeOf(String column) {
+        if (SleepRecord.BASE_HYPNOGRAM.equals(column)
+            || SleepRecord.DISPLAY_HYPNOGRAM.equals(column)) {
+            return TYPE_BLOB;
+        }
+        if (SleepRecord.TIMEZONE.equals(column)) {
+            return TYPE_STRING;
+        }
+        return TYPE_INTEGER;
+    }
+
+    /**
+     * @return a copy of the columns written by this exporter.
+     */
+    public String[] getProjection() {
+        return mProjection.clone();
+    }
+
+    /**
+     * Query the table for the columns this exporter writes, in id order.
+     *
+     * @return the cursor or null if the Zeo provider is not available.
+     */
+    public Cursor query(ContentResolver resolver) {
+        if (mTable == TABLE_SLEEP_EPISODE) {
+            return resolver.query(SleepEpisode.CONTENT_URI, mProjection, null, null,
+                                  SleepEpisode._ID + " ASC");
+        }
+        return resolver.query(SleepRecord.CONTENT_URI, mProjection, null, null,
+                              SleepRecord._ID + " ASC");
+    }
+
+    /**
+     * Write the binary header; JSON has none.
+     */
+    public void writeHeader(ExportSink sink) throws IOException {
+        if (mFormat != FORMAT_BINARY) {
+            return;
+        }
+        sink.writeInt(BINARY_MAGIC);
+        sink.writeInt(BINARY_VERSION);
+        sink.writeInt(mProjection.length);
+        for (int i = 0; i < mProjection.length; i++) {
+            sink.writeByte(mTypes[i]);
+            sink.writeInt(mProjection[i].length());
+            sink.writeAscii(mProjection[i]);
+        }
+    }
+
+    /**
+     * Write a header followed by every row of the cursor, which must hold the exported columns.
+     * The cursor is not closed.
+     *
+     * @return the number of rows written.
+     */
+    public int export(Cursor cursor, ExportSink sink) throws IOException {
+        final PhaseTimer timer = PhaseTimer.start();
+        final long start = timer == null ? 0 : System.nanoTime();
+        final long startBytes = sink.bytesWritten();
+        final long startWriteNanos = sink.writeNanos();
+        writeHeader(sink);
+        final int[] columns = bindColumns(cursor);
+        int rows = 0;
+        if (cursor.moveToFirst()) {
+            do {
+                writeRow(cursor, columns, sink);
+                rows++;
+            } while (cursor.moveToNext());
+        }
+        if (timer != null) {
+            // Draining a full buffer is already reported by the sink as PHASE_WRITE.
+            final long writeNanos = sink.writeNanos() - startWriteNanos;
+            timer.add(Metrics.PHASE_FORMAT, System.nanoTime() - start - writeNanos, rows,
+                      sink.bytesWritten() - startBytes);
+            timer.publish();
+        }
+        return rows;
+    }
+
+    /**
+     * @return the cursor index of every exported column.
+     * @throws IllegalArgumentException if the cursor lacks one.
+     */
+    public int[] bindColumns(Cursor cursor) {
+        final int[] columns = new int[mProjection.length];
+        for (int i = 0; i < columns.length; i++) {
+            columns[i] = cursor.getColumnIndexOrThrow(mProjection[i]);
+        }
+        return columns;
+    }
+
+    /**
+     * Write the row at the cursor's current position.
+     *
+     * @param columns indices previously obtained from {@link #bindColumns(Cursor)}.
+     */
+    public void writeRow(Cursor cursor, int[] columns, ExportSink sink) throws IOException {
+        if (mFormat == FORMAT_BINARY) {
+            writeBinaryRow(cursor, columns, sink);
+        } else {
+            writeJsonRow(cursor, columns, sink);
+        }
+    }
+
+    private void writeJsonRow(Cursor cursor, int[] columns, ExportSink sink) throws IOException {
+        final int[] types = mTypes;
+        final byte[][] keys = mKeys;
+        for (int i = 0; i < columns.length; i++) {
+            final byte[] key = keys[i];
+            sink.writeBytes(key, 0, key.length);
+            final int column = columns[i];
+            if (cursor.isNull(column)) {
+                sink.writeAscii("null");
+                continue;
+            }
+            switch (types[i]) {
+            case TYPE_INTEGER:
+                sink.writeDecimal(cursor.getLong(column));
+                break;
+            case TYPE_BLOB:
+                final byte[] blob = cursor.getBlob(column);
+                sink.writeByte('"');
+                sink.writeBase64(blob, 0, blob.length);
+                sink.writeByte('"');
+                break;
+            default:
+                writeJsonString(cursor.getString(column), sink);
+                break;
+            }
+        }
+        if (columns.length == 0) {
+            sink.writeByte('{');
+        }
+        sink.writeByte('}');
+        sink.writeByte('\n');
+    }
+
+    /**
+     * Write value as a quoted JSON string, escaping quotes, backslashes and control characters.
+     */
+    static void writeJsonString(String value, ExportSink sink) throws IOException {
+        sink.writeByte('"');
+        final int length = value.length();
+        int run = 0;
+        for (int i = 0; i < length; i++) {
+            final char c = value.charAt(i);
+            if (c >= 0x20 && c != '"' && c != '\\') {
+                continue;
+            }
+            sink.writeUtf8(value, run, i);
+            run = i + 1;
+            sink.writeByte('\\');
+            switch (c) {
+            case '"':
+            case '\\':
+                sink.writeByte(c);
+                break;
+            case '\n':
+                sink.writeByte('n');
+                break;
+            case '\r':
+                sink.writeByte('r');
+                break;
+            case '\t':
+                sink.writeByte('t');
+                break;
+            default:
+                sink.writeAscii("u00");
+                sink.writeByte(Character.forDigit(c >> 4, 16));
+                sink.writeByte(Character.forDigit(c & 0xf, 16));
+                break;
+            }
+        }
+        sink.writeUtf8(value, run, length);
+        sink.writeByte('"');
+    }
+
+    private void writeBinaryRow(Cursor cursor, int[] columns, ExportSink sink)
+        throws IOException {
+        final int[] types = mTypes;
+        final long[] longs = mLongs;
+        final String[] strings = mStrings;
+        final byte[][] blobs = mBlobs;
+        final boolean[] nulls = mNulls;
+
+        int length = 0;
+        for (int i = 0; i < columns.length; i++) {
+            final int column = columns[i];
+            nulls[i] = cursor.isNull(column);
+            length++;
+            if (nulls[i]) {
+                continue;
+            }
+            switch (types[i]) {
+            case TYPE_INTEGER:
+                longs[i] = cursor.getLong(column);
+                length += 8;
+                break;
+            case TYPE_BLOB:
+                blobs[i] = cursor.getBlob(column);
+                length += 4 + blobs[i].length;
+                break;
+            default:
+                strings[i] = cursor.getString(column);
+                length += 4 + utf8Length(strings[i]);
+                break;
+            }
+        }
+
+        sink.writeInt(length);
+        for (int i = 0; i < columns.length; i++) {
+            if (nulls[i]) {
+                sink.writeByte(TYPE_NULL);
+                continue;
+            }
+            final int type = types[i];
+            sink.writeByte(type);
+            switch (type) {
+            case TYPE_INTEGER:
+                sink.writeLong(longs[i]);
+                break;
+            case TYPE_BLOB:
+                final byte[] blob = blobs[i];
+                sink.writeInt(blob.length);
+                sink.writeBytes(blob, 0, blob.length);
+                blobs[i] = null;
+                break;
+            default:
+                final String string = strings[i];
+                sink.writeInt(utf8Length(string));
+                sink.writeUtf8(string);
+                strings[i] = null;
+                break;
+            }
+        }
+    }
+
+    /**
+     * @return the number of bytes {@link ExportSink#writeUtf8(CharSequence)} writes for value.
+     */
+    static int utf8Length(String value) {
+        final int length = value.length();
+        int bytes = length;
+        for (int i = 0; i < length; i++) {
+            final char c = value.charAt(i);
+            if (c >= 0x800) {
+                if (Character.isHighSurrogate(c) && i + 1 < length
+                    && Character.isLowSurrogate(value.charAt(i + 1))) {
+                    // Four bytes for the pair.
+                    bytes += 2;
+                    i++;
+                } else {
+                    bytes += 2;
+                }
+            } else if (c >= 0x80) {
+                bytes++;
+            }
+        }
+        return bytes;
+    }
+}
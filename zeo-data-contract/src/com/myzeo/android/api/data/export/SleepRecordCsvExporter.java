@@ -0,0 +1,327 @@
+/*
+ * Copyright (C) 2011 Zeo Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.myzeo.android.api.data.export;
+
+import static com.myzeo.android.api.data.ZeoDataContract.SleepRecord;
+
+import com.myzeo.android.api.data.metrics.Metrics;
+import com.myzeo.android.api.data.metrics.PhaseTimer;
+
+import android.content.ContentResolver;
+import android.database.Cursor;
+
+import java.io.IOException;
+
+/**
+ * Streams sleep records from a cursor into an {@link ExportSink} as CSV.
+ *
+ * <p>
+ *
+ * Column indices are looked up once per cursor and every value is encoded directly into the sink's
+ * buffer; hypnogram blobs are written as one digit per epoch. Memory use is therefore bounded by
+ * the sink's buffer and a single row's blobs no matter how many records are exported.
+ *
+ * </p>
+ *
+ * <p>
+ *
+ * When {@link Metrics} are enabled, exports report cursor movement, blob reads and formatting
+ * as separate phases along with an estimate of the bytes the cursor allocated for blobs and
+ * strings.
+ *
+ * </p>
+ */
+public class SleepRecordCsvExporter {
+
+    /** The columns exported when no projection is given. */
+    public static final String[] DEFAULT_PROJECTION = new String[] {
+        SleepRecord.LOCALIZED_START_OF_NIGHT,
+        SleepRecord.START_OF_NIGHT,
+        SleepRecord.END_OF_NIGHT,
+        SleepRecord.TIMEZONE,
+        SleepRecord.ZQ_SCORE,
+        SleepRecord.AWAKENINGS,
+        SleepRecord.TIME_IN_DEEP,
+        SleepRecord.TIME_IN_LIGHT,
+        SleepRecord.TIME_IN_REM,
+        SleepRecord.TIME_IN_WAKE,
+        SleepRecord.TIME_TO_Z,
+        SleepRecord.TOTAL_Z,
+        SleepRecord.SOURCE,
+        SleepRecord.END_REASON,
+        SleepRecord.DISPLAY_HYPNOGRAM,
+        SleepRecord.BASE_HYPNOGRAM
+    };
+
+    /** Approximate bytes taken by an array or string besides its contents. */
+    private static final int ARRAY_OVERHEAD = 16;
+
+    /** Column is written as a (quoted if necessary) string. */
+    private static final int TYPE_STRING = 0;
+    /** Column is written as a decimal integer. */
+    private static final int TYPE_INTEGER = 1;
+    /** Column is a hypnogram blob written one digit per stage. */
+    private static final int TYPE_HYPNOGRAM = 2;
+
+    /** Sleep record columns holding integers. */
+    private static final String[] INTEGER_COLUMNS = new String[] {
+        SleepRecord._ID,
+        SleepRecord.CREATED_ON,
+        SleepRecord.UPDATED_ON,
+        SleepRecord.SLEEP_EPISODE_ID,
+        SleepRecord.AWAKENINGS,
+        SleepRecord.BASE_HYPNOGRAM_COUNT,
+        SleepRecord.DISPLAY_HYPNOGRAM_COUNT,
+        SleepRecord.END_OF_NIGHT,
+        SleepRecord.END_REASON,
+        SleepRecord.HEADBAND_ID,
+        SleepRecord.LOCALIZED_START_OF_NIGHT,
+        SleepRecord.SOURCE,
+        SleepRecord.START_OF_NIGHT,
+        SleepRecord.TIME_IN_DEEP,
+        SleepRecord.TIME_IN_LIGHT,
+        SleepRecord.TIME_IN_REM,
+        SleepRecord.TIME_IN_WAKE,
+        SleepRecord.TIME_TO_Z,
+        SleepRecord.TOTAL_Z,
+        SleepRecord.ZQ_SCORE
+    };
+
+    private final String[] mProjection;
+    private final int[] mTypes;
+
+    /**
+     * Create an exporter of the {@link #DEFAULT_PROJECTION}.
+     */
+    public SleepRecordCsvExporter() {
+        this(DEFAULT_PROJECTION);
+    }
+
+    /**
+     * Create an exporter writing the given sleep record columns in the given order.
+     */
+    public SleepRecordCsvExporter(String[] projection) {
+        mProjection = projection.clone();
+        mTypes = new int[projection.length];
+        for (int i = 0; i < projection.length; i++) {
+            mTypes[i] = typeOf(projection[i]);
+        }
+    }
+
+    /**
+     * @return a copy of the columns written by this exporter.
+     */
+    public String[] getProjection() {
+        return mProjection.clone();
+    }
+
+    /**
+     * Query the sleep record table for the columns this exporter writes.
+     *
+     * @return the cursor or null if the Zeo provider is not available.
+     */
+    public Cursor query(ContentResolver resolver) {
+        return resolver.query(SleepRecord.CONTENT_URI, mProjection, null, null, null);
+    }
+
+    /**
+     * Write the header line naming each exported column.
+     */
+    public void writeHeader(ExportSink sink) throws IOException {
+        for (int i = 0; i < mProjection.length; i++) {
+            if (i > 0) {
+                sink.writeByte(',');
+            }
+            sink.writeAscii(mProjection[i]);
+        }
+        sink.writeByte('\n');
+    }
+
+    /**
+     * Write a header followed by every row of the cursor. The cursor is not closed.
+     *
+     * @return the number of rows written.
+     */
+    public int export(Cursor cursor, ExportSink sink) throws IOException {
+        final PhaseTimer timer = PhaseTimer.start();
+        writeHeader(sink);
+        final int rows = writeRows(cursor, sink, timer);
+        if (timer != null) {
+            timer.publish();
+        }
+        return rows;
+    }
+
+    /**
+     * Write every row of the cursor without a header.
+     *
+     * @param timer receives the phase measurements, may be null.
+     * @return the number of rows written.
+     */
+    private int writeRows(Cursor cursor, ExportSink sink, PhaseTimer timer) throws IOException {
+        final int[] columns = bindColumns(cursor);
+        int rows = 0;
+        if (timer == null) {
+            if (cursor.moveToFirst()) {
+                do {
+                    writeRow(cursor, columns, sink);
+                    rows++;
+                } while (cursor.moveToNext());
+            }
+            return rows;
+        }
+
+        long start = System.nanoTime();
+        boolean more = cursor.moveToFirst();
+        long cursorNanos = System.nanoTime() - start;
+        while (more) {
+            writeRow(cursor, columns, sink, timer);
+            rows++;
+            start = System.nanoTime();
+            more = cursor.moveToNext();
+            cursorNanos += System.nanoTime() - start;
+        }
+        timer.add(Metrics.PHASE_CURSOR, cursorNanos, rows, 0);
+        return rows;
+    }
+
+    /**
+     * Resolve the cursor index of every exported column.
+     *
+     * @throws IllegalArgumentException if the cursor lacks one of the columns.
+     */
+    public int[] bindColumns(Cursor cursor) {
+        final int[] columns = new int[mProjection.length];
+        for (int i = 0; i < mProjection.length; i++) {
+            columns[i] = cursor.getColumnIndexOrThrow(mProjection[i]);
+        }
+        return columns;
+    }
+
+    /**
+     * Write the row at the cursor's current position.
+     *
+     * @param columns indices previously obtained from {@link #bindColumns(Cursor)}.
+     */
+    public void writeRow(Cursor cursor, int[] columns, ExportSink sink) throws IOException {
+        writeRow(cursor, columns, sink, null);
+    }
+
+    /**
+     * Write the row at the cursor's current position, measuring blob reads and formatting.
+     *
+     * @param columns indices previously obtained from {@link #bindColumns(Cursor)}.
+     * @param timer receives the phase measurements, may be null.
+     */
+    public void writeRow(Cursor cursor, int[] columns, ExportSink sink, PhaseTimer timer)
+        throws IOException {
+        final long start = timer == null ? 0 : System.nanoTime();
+        final long startBytes = timer == null ? 0 : sink.bytesWritten();
+        final long startWriteNanos = sink.writeNanos();
+        long blobNanos = 0;
+        final int[] types = mTypes;
+        for (int i = 0; i < types.length; i++) {
+            if (i > 0) {
+                sink.writeByte(',');
+            }
+            final int column = columns[i];
+            if (cursor.isNull(column)) {
+                continue;
+            }
+            switch (types[i]) {
+            case TYPE_INTEGER:
+                sink.writeDecimal(cursor.getLong(column));
+                break;
+            case TYPE_HYPNOGRAM:
+                final byte[] stages;
+                if (timer == null) {
+                    stages = cursor.getBlob(column);
+                } else {
+                    final long blobStart = System.nanoTime();
+                    stages = cursor.getBlob(column);
+                    final long nanos = System.nanoTime() - blobStart;
+                    blobNanos += nanos;
+                    timer.add(Metrics.PHASE_BLOB_READ, nanos, 1, stages.length);
+                    timer.allocated(ARRAY_OVERHEAD + stages.length);
+                }
+                sink.writeDigits(stages, 0, stages.length);
+                break;
+            default:
+                final String value = cursor.getString(column);
+                if (timer != null) {
+                    timer.allocated(2 * ARRAY_OVERHEAD + 2 * value.length());
+                }
+                writeString(value, sink);
+                break;
+            }
+        }
+        sink.writeByte('\n');
+        if (timer != null) {
+            // Draining a full buffer is already reported by the sink as PHASE_WRITE.
+            final long writeNanos = sink.writeNanos() - startWriteNanos;
+            timer.add(Metrics.PHASE_FORMAT, System.nanoTime() - start - blobNanos - writeNanos, 1,
+                      sink.bytesWritten() - startBytes);
+        }
+    }
+
+    /**
+     * Write a string field quoting it when it contains CSV meta characters.
+     */
+    static void writeString(String value, ExportSink sink) throws IOException {
+        boolean quote = false;
+        final int length = value.length();
+        for (int i = 0; i < length && !quote; i++) {
+            final char c = value.charAt(i);
+            quote = c == ',' || c == '"' || c == '\n' || c == '\r';
+        }
+        if (!quote) {
+            sink.writeUtf8(value);
+            return;
+        }
+        sink.writeByte('"');
+        int start = 0;
+        for (int i = 0; i < length; i++) {
+            if (value.charAt(i) == '"') {
+                // Emit everything up to and including the quote, then double it.
+                sink.writeUtf8(value, start, i + 1);
+                sink.writeByte('"');
+                start = i + 1;
+            }
+        }
+        sink.writeUtf8(value, start, length);
+        sink.writeByte('"');
+    }
+
+    /**
+     * Classify a sleep record column by how it is encoded.
+     */
+    private static int typeOf(String column) {
+        if (SleepRecord.BASE_HYPNOGRAM.equals(column) ||
+            SleepRecord.DISPLAY_HYPNOGRAM.equals(column)) {
+            return TYPE_HYPNOGRAM;
+        }
+        if (SleepRecord.TIMEZONE.equals(column)) {
+            return TYPE_STRING;
+        }
+        for (String integer : INTEGER_COLUMNS) {
+            if (integer.equals(column)) {
+                return TYPE_INTEGER;
+            }
+        }
+        return TYPE_STRING;
+    }
+}
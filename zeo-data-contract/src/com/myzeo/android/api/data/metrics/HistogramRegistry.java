@@ -0,0 +1,126 @@
+/*
+ * Copyright (C) 2011 Zeo Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.myzeo.android.api.data.metrics;
+
+/**
+ * {@link MetricsRegistry} keeping totals and a power of two histogram of operation times per
+ * phase, meant to be snapshotted and uploaded periodically.
+ */
+public class HistogramRegistry implements MetricsRegistry {
+
+    /** Histogram bucket count; bucket b counts operations of less than 2^b nanoseconds. */
+    public static final int BUCKETS = 64;
+
+    /** Totals and histogram of one phase. */
+    public static class PhaseStats {
+        /** Operations recorded. */
+        public long operations;
+        public long nanos;
+        public long items;
+        public long bytes;
+        /** Operations by the number of bits in their duration in nanoseconds. */
+        public final long[] histogram = new long[BUCKETS];
+
+        /** @return items per second of time spent in the phase. */
+        public double itemsPerSecond() {
+            return nanos == 0 ? 0 : items * 1e9 / nanos;
+        }
+
+        /** @return bytes per second of time spent in the phase. */
+        public double bytesPerSecond() {
+            return nanos == 0 ? 0 : bytes * 1e9 / nanos;
+        }
+
+        /**
+         * @return upper bound in nanoseconds of the operation time at quantile q, or 0 if no
+         *     operation was recorded.
+         */
+        public long quantileNanos(double q) {
+            if (operations == 0) {
+                return 0;
+            }
+            final long rank = Math.max(1, (long) Math.ceil(q * operations));
+            long seen = 0;
+            for (int b = 0; b < BUCKETS; b++) {
+                seen += histogram[b];
+                if (seen >= rank) {
+                    return b == BUCKETS - 1 ? Long.MAX_VALUE : 1L << b;
+                }
+            }
+            return Long.MAX_VALUE;
+        }
+
+        void copyFrom(PhaseStats other) {
+            operations = other.operations;
+            nanos = other.nanos;
+            items = other.items;
+            bytes = other.bytes;
+            System.arraycopy(other.histogram, 0, histogram, 0, BUCKETS);
+        }
+    }
+
+    private final PhaseStats[] mPhases = new PhaseStats[Metrics.PHASE_COUNT];
+    private long mAllocated;
+
+    public HistogramRegistry() {
+        for (int i = 0; i < mPhases.length; i++) {
+            mPhases[i] = new PhaseStats();
+        }
+    }
+
+    @Override
+    public synchronized void recordPhase(int phase, long nanos, long items, long bytes) {
+        final PhaseStats stats = mPhases[phase];
+        stats.operations++;
+        stats.nanos += nanos;
+        stats.items += items;
+        stats.bytes += bytes;
+        stats.histogram[64 - Long.numberOfLeadingZeros(Math.max(nanos, 0))]++;
+    }
+
+    @Override
+    public synchronized void recordAllocation(long bytes) {
+        mAllocated += bytes;
+    }
+
+    /**
+     * Copy the statistics of a phase into dest.
+     *
+     * @return dest.
+     */
+    public synchronized PhaseStats getStats(int phase, PhaseStats dest) {
+        dest.copyFrom(mPhases[phase]);
+        return dest;
+    }
+
+    /**
+     * @return estimated bytes allocated by all recorded operations.
+     */
+    public synchronized long getAllocatedBytes() {
+        return mAllocated;
+    }
+
+    /**
+     * Forget everything recorded, e.g. after an upload.
+     */
+    public synchronized void reset() {
+        for (int i = 0; i < mPhases.length; i++) {
+            mPhases[i] = new PhaseStats();
+        }
+        mAllocated = 0;
+    }
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright (C) 2011 Zeo Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.myzeo.android.api.data.metrics;
+
+/**
+ * Holds the process wide {@link MetricsRegistry}. With no registry installed, instrumented code
+ * reduces to one volatile read per operation and a null check per row.
+ */
+public final class Metrics {
+
+    /** Provider query. */
+    public static final int PHASE_QUERY = 0;
+    /** Cursor movement, including cursor window fills. */
+    public static final int PHASE_CURSOR = 1;
+    /** Reading hypnogram blobs out of the cursor. */
+    public static final int PHASE_BLOB_READ = 2;
+    /** Encoding values into the export buffer. */
+    public static final int PHASE_FORMAT = 3;
+    /** Handing buffered bytes to the underlying stream or file. */
+    public static final int PHASE_WRITE = 4;
+    /** Decoding imported rows into values. */
+    public static final int PHASE_PARSE = 5;
+    /** Handing imported batches to the store. */
+    public static final int PHASE_INSERT = 6;
+    /** Number of phases. */
+    public static final int PHASE_COUNT = 7;
+
+    private static final String[] PHASE_NAMES = new String[] {
+        "query", "cursor", "blob_read", "format", "write", "parse", "insert"
+    };
+
+    private static volatile MetricsRegistry sRegistry;
+
+    private Metrics() {
+    }
+
+    /**
+     * Install registry, or null to disable measuring. Operations already under way keep
+     * reporting to the registry they started with.
+     */
+    public static void setRegistry(MetricsRegistry registry) {
+        sRegistry = registry;
+    }
+
+    /**
+     * @return the installed registry or null if disabled.
+     */
+    public static MetricsRegistry getRegistry() {
+        return sRegistry;
+    }
+
+    /**
+     * @return a name for the phase suitable for logs and reports.
+     */
+    public static String phaseName(int phase) {
+        return PHASE_NAMES[phase];
+    }
+}
@@ -0,0 +1,46 @@
+/*
+ * Copyright (C) 2011 Zeo Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.myzeo.android.api.data.metrics;
+
+/**
+ * Destination of the phase measurements taken by the scans and exporters. Install one with
+ * {@link Metrics#setRegistry(MetricsRegistry)}; implementations must be thread safe.
+ *
+ * <p>
+ *
+ * Measurements are accumulated locally by a {@link PhaseTimer} and delivered once per scan or
+ * export, so a registry is called a handful of times per operation rather than per row.
+ *
+ * </p>
+ */
+public interface MetricsRegistry {
+
+    /**
+     * Record one operation's time in a phase.
+     *
+     * @param phase one of the Metrics.PHASE_* constants.
+     * @param nanos time spent in the phase.
+     * @param items rows, blobs or writes handled in the phase.
+     * @param bytes bytes handled in the phase.
+     */
+    void recordPhase(int phase, long nanos, long items, long bytes);
+
+    /**
+     * Record an estimate of the bytes one operation allocated.
+     */
+    void recordAllocation(long bytes);
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright (C) 2011 Zeo Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.myzeo.android.api.data.metrics;
+
+/**
+ * Accumulates one operation's phase measurements locally and delivers them to the registry in a
+ * single {@link #publish()}. Obtain one with {@link #start()}, which returns null when metrics are
+ * disabled so that instrumented code only pays for a null check. Not thread safe.
+ */
+public final class PhaseTimer {
+
+    private final MetricsRegistry mRegistry;
+    private final long[] mNanos = new long[Metrics.PHASE_COUNT];
+    private final long[] mItems = new long[Metrics.PHASE_COUNT];
+    private final long[] mBytes = new long[Metrics.PHASE_COUNT];
+    private long mAllocated;
+
+    private PhaseTimer(MetricsRegistry registry) {
+        mRegistry = registry;
+    }
+
+    /**
+     * @return a timer reporting to the installed registry, or null if metrics are disabled.
+     */
+    public static PhaseTimer start() {
+        final MetricsRegistry registry = Metrics.getRegistry();
+        return registry == null ? null : new PhaseTimer(registry);
+    }
+
+    /**
+     * Account for work done in a phase.
+     */
+    public void add(int phase, long nanos, long items, long bytes) {
+        mNanos[phase] += nanos;
+        mItems[phase] += items;
+        mBytes[phase] += bytes;
+    }
+
+    /**
+     * Account for bytes allocated by the operation.
+     */
+    public void allocated(long bytes) {
+        mAllocated += bytes;
+    }
+
+    /**
+     * Deliver the accumulated measurements and start over.
+     */
+    public void publish() {
+        for (int phase = 0; phase < Metrics.PHASE_COUNT; phase++) {
+            if (mItems[phase] > 0 || mNanos[phase] > 0) {
+                mRegistry.recordPhase(phase, mNanos[phase], mItems[phase], mBytes[phase]);
+                mNanos[phase] = 0;
+                mItems[phase] = 0;
+                mBytes[phase] = 0;
+            }
+        }
+        if (mAllocated > 0) {
+            mRegistry.recordAllocation(mAllocated);
+            mAllocated = 0;
+        }
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright (C) 2011 Zeo Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.myzeo.android.api.data.rollup;
+
+import java.util.Arrays;
+
+/**
+ * Mergeable quantile sketch over integer values using fixed width bins.
+ *
+ * <p>
+ *
+ * Values below the lower bound or above the upper bound are counted in the first or last bin.
+ * Quantiles are exact to within one bin width. Sketches of the same shape merge by adding their
+ * bin counts, so merging is associative and commutative and partial sketches can be combined in
+ * any order.
+ *
+ * </p>
+ */
+public class HistogramSketch {
+
+    private final int mMin;
+    private final int mBinWidth;
+    private final int[] mCounts;
+    private long mCount;
+
+    /**
+     * @param min lower bound of the first bin.
+     * @param max value covered by the last bin.
+     * @param binWidth values per bin.
+     */
+    public HistogramSketch(int min, int max, int binWidth) {
+        if (max < min || binWidth < 1) {
+            throw new IllegalArgumentException("Bad shape: " + min + ".." + max + "/" + binWidth);
+        }
+        mMin = min;
+        mBinWidth = binWidth;
+        mCounts = new int[(max - min) / binWidth + 1];
+    }
+
+    /**
+     * @return an empty sketch of the same shape.
+     */
+    public HistogramSketch newEmpty() {
+        return new HistogramSketch(mMin, mMin + (mCounts.length - 1) * mBinWidth, mBinWidth);
+    }
+
+    public void add(int value) {
+        int bin = (value - mMin) / mBinWidth;
+        if (value < mMin) {
+            bin = 0;
+        } else if (bin >= mCounts.length) {
+            bin = mCounts.length - 1;
+        }
+        mCounts[bin]++;
+        mCount++;
+    }
+
+    /**
+     * Add other's counts to this sketch.
+     *
+     * @throws IllegalArgumentException if the shapes differ.
+     */
+    public void merge(HistogramSketch other) {
+        if (other.mMin != mMin || other.mBinWidth != mBinWidth
+            || other.mCounts.length != mCounts.length) {
+            throw new IllegalArgumentException("Sketch shapes differ");
+        }
+        final int[] counts = mCounts;
+        final int[] others = other.mCounts;
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] += others[i];
+        }
+        mCount += other.mCount;
+    }
+
+    /**
+     * @return number of values added.
+     */
+    public long count() {
+        return mCount;
+    }
+
+    /**
+     * @param q quantile between 0 and 1, e.g. 0.5 for the median.
+     * @return the lower bound of the bin holding the quantile, or 0 if the sketch is empty.
+     */
+    public int quantile(double q) {
+        if (mCount == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(q * mCount);
+        if (rank < 1) {
+            rank = 1;
+        }
+        final int[] counts = mCounts;
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return mMin + i * mBinWidth;
+            }
+        }
+        return mMin + (counts.length - 1) * mBinWidth;
+    }
+
+    public void clear() {
+        Arrays.fill(mCounts, 0);
+        mCount = 0;
+    }
+}
@@ -0,0 +1,146 @@
+/*
+ * Copyright (C) 2011 Zeo Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.myzeo.android.api.data.rollup;
+
+import static com.myzeo.android.api.data.ZeoDataContract.SleepRecord;
+
+import com.myzeo.android.api.data.SleepRecordView;
+import com.myzeo.android.api.data.archive.SleepArchive;
+
+import android.database.Cursor;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Primitive column arrays holding the sleep record fields {@link SleepRollups} aggregates, one
+ * entry per night. {@link SleepRecord#TIMEZONE} is dictionary coded so that each distinct zone is
+ * resolved once however many nights use it.
+ */
+public class NightColumns {
+
+    /** Columns read by {@link #fromCursor(Cursor)}. */
+    public static final String[] PROJECTION = new String[] {
+        SleepRecord.START_OF_NIGHT,
+        SleepRecord.TIMEZONE,
+        SleepRecord.ZQ_SCORE,
+        SleepRecord.TOTAL_Z,
+        SleepRecord.TIME_IN_DEEP,
+        SleepRecord.TIME_IN_REM,
+        SleepRecord.AWAKENINGS
+    };
+
+    public final int count;
+    public final long[] startOfNight;
+    /** Index into {@link #timezones} per night; -1 if the night has no timezone. */
+    public final int[] timezoneCode;
+    /** Distinct TZ ids. */
+    public final String[] timezones;
+    public final int[] zqScore;
+    public final int[] totalZ;
+    public final int[] timeInDeep;
+    public final int[] timeInRem;
+    public final int[] awakenings;
+
+    public NightColumns(int count, long[] startOfNight, int[] timezoneCode, String[] timezones,
+                        int[] zqScore, int[] totalZ, int[] timeInDeep, int[] timeInRem,
+                        int[] awakenings) {
+        this.count = count;
+        this.startOfNight = startOfNight;
+        this.timezoneCode = timezoneCode;
+        this.timezones = timezones;
+        this.zqScore = zqScore;
+        this.totalZ = totalZ;
+        this.timeInDeep = timeInDeep;
+        this.timeInRem = timeInRem;
+        this.awakenings = awakenings;
+    }
+
+    /**
+     * Read every row of a sleep record cursor holding at least {@link #PROJECTION}.
+     */
+    public static NightColumns fromCursor(Cursor cursor) {
+        final int count = cursor.getCount();
+        final long[] startOfNight = new long[count];
+        final int[] timezoneCode = new int[count];
+        final int[] zqScore = new int[count];
+        final int[] totalZ = new int[count];
+        final int[] timeInDeep = new int[count];
+        final int[] timeInRem = new int[count];
+        final int[] awakenings = new int[count];
+        final HashMap<String, Integer> codes = new HashMap<String, Integer>();
+
+        SleepRecordView view = new SleepRecordView();
+        view.bind(cursor);
+        int row = 0;
+        if (cursor.moveToFirst()) {
+            do {
+                startOfNight[row] = view.startOfNight();
+                final String timezone = view.timezone();
+                if (timezone == null) {
+                    timezoneCode[row] = -1;
+                } else {
+                    Integer code = codes.get(timezone);
+                    if (code == null) {
+                        code = codes.size();
+                        codes.put(timezone, code);
+                    }
+                    timezoneCode[row] = code;
+                }
+                zqScore[row] = view.zqScore();
+                totalZ[row] = view.totalZ();
+                timeInDeep[row] = view.timeInDeep();
+                timeInRem[row] = view.timeInRem();
+                awakenings[row] = view.awakenings();
+                row++;
+            } while (cursor.moveToNext());
+        }
+
+        final String[] timezones = new String[codes.size()];
+        for (Map.Entry<String, Integer> entry : codes.entrySet()) {
+            timezones[entry.getValue()] = entry.getKey();
+        }
+        return new NightColumns(row, startOfNight, timezoneCode, timezones, zqScore, totalZ,
+                                timeInDeep, timeInRem, awakenings);
+    }
+
+    /**
+     * Copy the needed columns out of an archive; its timezone dictionary is kept as is.
+     */
+    public static NightColumns fromArchive(SleepArchive archive) {
+        final int count = archive.getRowCount();
+        final int timezone = archive.getColumnIndexOrThrow(SleepRecord.TIMEZONE);
+        final long[] startOfNight = new long[count];
+        final int[] timezoneCode = new int[count];
+        archive.longColumn(archive.getColumnIndexOrThrow(SleepRecord.START_OF_NIGHT))
+            .get(startOfNight);
+        archive.dictionaryCodes(timezone).get(timezoneCode);
+        return new NightColumns(count, startOfNight, timezoneCode,
+                                archive.getDictionary(timezone),
+                                intColumn(archive, SleepRecord.ZQ_SCORE),
+                                intColumn(archive, SleepRecord.TOTAL_Z),
+                                intColumn(archive, SleepRecord.TIME_IN_DEEP),
+                                intColumn(archive, SleepRecord.TIME_IN_REM),
+                                intColumn(archive, SleepRecord.AWAKENINGS));
+    }
+
+    private static int[] intColumn(SleepArchive archive, String name) {
+        final int[] values = new int[archive.getRowCount()];
+        archive.intColumn(archive.getColumnIndexOrThrow(name)).get(values);
+        return values;
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright (C) 2011 Zeo Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.myzeo.android.api.data.rollup;
+
+import static com.myzeo.android.api.data.ZeoDataContract.SleepRecord;
+
+/**
+ * Aggregates of the nights falling in one calendar bucket.
+ *
+ * <p>
+ *
+ * Sums and sketches only ever add up, so {@link #merge(Rollup)} is associative and rollups of
+ * disjoint sets of nights can be combined in any grouping. Times are in 30 second epochs as stored
+ * in {@link SleepRecord}; ratios are in thousandths of {@link SleepRecord#TOTAL_Z}.
+ *
+ * </p>
+ */
+public class Rollup {
+
+    /** Largest total sleep tracked individually, in epochs (one day). */
+    static final int MAX_EPOCHS = 2880;
+
+    /** Local epoch day (days since 1970-01-01) of the bucket's first day. */
+    public final int firstDay;
+
+    public int nights;
+    public long sumZqScore;
+    public long sumTotalZ;
+    public long sumTimeInDeep;
+    public long sumTimeInRem;
+    public long sumAwakenings;
+
+    public final HistogramSketch zqScore = new HistogramSketch(0, 200, 1);
+    /** Total sleep in 5 minute bins. */
+    public final HistogramSketch totalZ = new HistogramSketch(0, MAX_EPOCHS, 10);
+    public final HistogramSketch deepRatio = new HistogramSketch(0, 1000, 5);
+    public final HistogramSketch remRatio = new HistogramSketch(0, 1000, 5);
+    public final HistogramSketch awakenings = new HistogramSketch(0, 64, 1);
+
+    public Rollup(int firstDay) {
+        this.firstDay = firstDay;
+    }
+
+    /**
+     * Account for one night.
+     */
+    public void add(int zq, int total, int deep, int rem, int awoke) {
+        nights++;
+        sumZqScore += zq;
+        sumTotalZ += total;
+        sumTimeInDeep += deep;
+        sumTimeInRem += rem;
+        sumAwakenings += awoke;
+
+        zqScore.add(zq);
+        totalZ.add(total);
+        if (total > 0) {
+            deepRatio.add((int) (deep * 1000L / total));
+            remRatio.add((int) (rem * 1000L / total));
+        }
+        awakenings.add(awoke);
+    }
+
+    /**
+     * Add the nights of other, which must be a rollup of the same bucket.
+     */
+    public void merge(Rollup other) {
+        if (other.firstDay != firstDay) {
+            throw new IllegalArgumentException("Buckets differ: " + firstDay + " and " +
+                                               other.firstDay);
+        }
+        nights += other.nights;
+        sumZqScore += other.sumZqScore;
+        sumTotalZ += other.sumTotalZ;
+        sumTimeInDeep += other.sumTimeInDeep;
+        sumTimeInRem += other.sumTimeInRem;
+        sumAwakenings += other.sumAwakenings;
+
+        zqScore.merge(other.zqScore);
+        totalZ.merge(other.totalZ);
+        deepRatio.merge(other.deepRatio);
+        remRatio.merge(other.remRatio);
+        awakenings.merge(other.awakenings);
+    }
+
+    public double meanZqScore() {
+        return nights == 0 ? 0 : (double) sumZqScore / nights;
+    }
+
+    /** @return mean total sleep in epochs. */
+    public double meanTotalZ() {
+        return nights == 0 ? 0 : (double) sumTotalZ / nights;
+    }
+
+    public double meanAwakenings() {
+        return nights == 0 ? 0 : (double) sumAwakenings / nights;
+    }
+
+    /** @return share of all sleep in the bucket that was deep, between 0 and 1. */
+    public double deepRatio() {
+        return sumTotalZ == 0 ? 0 : (double) sumTimeInDeep / sumTotalZ;
+    }
+
+    /** @return share of all sleep in the bucket that was REM, between 0 and 1. */
+    public double remRatio() {
+        return sumTotalZ == 0 ? 0 : (double) sumTimeInRem / sumTotalZ;
+    }
+}
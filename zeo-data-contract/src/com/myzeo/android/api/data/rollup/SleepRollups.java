@@ -0,0 +1,227 @@
+/*
+ * Copyright (C) 2011 Zeo Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.myzeo.android.api.data.rollup;
+
+import static com.myzeo.android.api.data.ZeoDataContract.SleepRecord;
+
+import com.myzeo.android.api.data.TimeZoneCache;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Calendar bucketed {@link Rollup}s over {@link NightColumns}.
+ *
+ * <p>
+ *
+ * A night belongs to the bucket holding the local date of its {@link SleepRecord#START_OF_NIGHT}
+ * in the night's own {@link SleepRecord#TIMEZONE}, or UTC if it has none. Weeks start on Monday.
+ * Dates are derived arithmetically from offsets tabulated by {@link TimeZoneCache}, so no
+ * Calendar or TimeZone is touched per row.
+ *
+ * </p>
+ *
+ * <p>
+ *
+ * To use several cores the nights are split into contiguous ranges rolled up independently on an
+ * executor, and the partial rollups of each bucket merged in range order.
+ *
+ * </p>
+ */
+public class SleepRollups {
+
+    public static final int PERIOD_WEEK = 1;
+    public static final int PERIOD_MONTH = 2;
+    public static final int PERIOD_YEAR = 3;
+
+    /** Nights below which a range is not split further. */
+    static final int MIN_RANGE = 256;
+
+    private SleepRollups() {
+    }
+
+    /**
+     * Roll up every night on the calling thread.
+     *
+     * @return rollups of the non-empty buckets ordered by first day.
+     */
+    public static List<Rollup> compute(NightColumns columns, int period) {
+        return new ArrayList<Rollup>(rollUp(columns, period, 0, columns.count).values());
+    }
+
+    /**
+     * Roll up every night splitting the work into up to parallelism ranges run on executor.
+     *
+     * @return rollups of the non-empty buckets ordered by first day.
+     * @throws InterruptedException if interrupted while waiting for the ranges.
+     */
+    public static List<Rollup> compute(final NightColumns columns, final int period,
+                                       ExecutorService executor, int parallelism)
+        throws InterruptedException {
+        final int ranges = Math.max(1, Math.min(parallelism, columns.count / MIN_RANGE));
+        if (ranges == 1) {
+            return compute(columns, period);
+        }
+
+        List<Future<TreeMap<Integer, Rollup>>> futures =
+            new ArrayList<Future<TreeMap<Integer, Rollup>>>(ranges);
+        for (int i = 0; i < ranges; i++) {
+            final int from = (int) ((long) columns.count * i / ranges);
+            final int to = (int) ((long) columns.count * (i + 1) / ranges);
+            futures.add(executor.submit(new Callable<TreeMap<Integer, Rollup>>() {
+                @Override
+                public TreeMap<Integer, Rollup> call() {
+                    return rollUp(columns, period, from, to);
+                }
+            }));
+        }
+
+        TreeMap<Integer, Rollup> merged = null;
+        try {
+            for (Future<TreeMap<Integer, Rollup>> future : futures) {
+                TreeMap<Integer, Rollup> partial = get(future);
+                if (merged == null) {
+                    merged = partial;
+                    continue;
+                }
+                for (Map.Entry<Integer, Rollup> entry : partial.entrySet()) {
+                    Rollup rollup = merged.get(entry.getKey());
+                    if (rollup == null) {
+                        merged.put(entry.getKey(), entry.getValue());
+                    } else {
+                        rollup.merge(entry.getValue());
+                    }
+                }
+            }
+        } finally {
+            for (Future<TreeMap<Integer, Rollup>> future : futures) {
+                future.cancel(true);
+            }
+        }
+        return new ArrayList<Rollup>(merged.values());
+    }
+
+    private static <T> T get(Future<T> future) throws InterruptedException {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new RuntimeException(cause);
+        }
+    }
+
+    /**
+     * Roll up the nights in [from, to).
+     */
+    static TreeMap<Integer, Rollup> rollUp(NightColumns columns, int period, int from, int to) {
+        final TimeZoneCache cache = TimeZoneCache.getDefault();
+        final TimeZoneCache.Zone[] zones = new TimeZoneCache.Zone[columns.timezones.length];
+        for (int i = 0; i < zones.length; i++) {
+            zones[i] = cache.get(columns.timezones[i]);
+        }
+        final TimeZoneCache.Zone utc = cache.get(null);
+
+        final TreeMap<Integer, Rollup> rollups = new TreeMap<Integer, Rollup>();
+        Rollup current = null;
+        for (int i = from; i < to; i++) {
+            final int code = columns.timezoneCode[i];
+            final TimeZoneCache.Zone zone = code < 0 ? utc : zones[code];
+            final int day = zone.localDate(columns.startOfNight[i]);
+            final int firstDay = bucketStart(period, day);
+
+            // Consecutive nights mostly share a bucket.
+            if (current == null || current.firstDay != firstDay) {
+                current = rollups.get(firstDay);
+                if (current == null) {
+                    current = new Rollup(firstDay);
+                    rollups.put(firstDay, current);
+                }
+            }
+            current.add(columns.zqScore[i], columns.totalZ[i], columns.timeInDeep[i],
+                        columns.timeInRem[i], columns.awakenings[i]);
+        }
+        return rollups;
+    }
+
+    /**
+     * @param day local epoch day.
+     * @return the epoch day on which the period holding day begins.
+     */
+    public static int bucketStart(int period, int day) {
+        switch (period) {
+        case PERIOD_WEEK:
+            // 1970-01-01 was a Thursday, three days after a Monday.
+            return day - (int) floorMod(day + 3, 7);
+        case PERIOD_MONTH: {
+            final int civil = civilFromDays(day);
+            return daysFromCivil(civil >> 4, civil & 0xf, 1);
+        }
+        case PERIOD_YEAR:
+            return daysFromCivil(civilFromDays(day) >> 4, 1, 1);
+        default:
+            throw new IllegalArgumentException("Unknown period: " + period);
+        }
+    }
+
+    /**
+     * @return year << 4 | month (1-12) of the given epoch day.
+     */
+    static int civilFromDays(int day) {
+        final int z = day + 719468;
+        final int era = (z >= 0 ? z : z - 146096) / 146097;
+        final int doe = z - era * 146097;
+        final int yoe = (doe - doe / 1460 + doe / 36524 - doe / 146096) / 365;
+        final int doy = doe - (365 * yoe + yoe / 4 - yoe / 100);
+        final int mp = (5 * doy + 2) / 153;
+        final int month = mp < 10 ? mp + 3 : mp - 9;
+        final int year = yoe + era * 400 + (month <= 2 ? 1 : 0);
+        return year << 4 | month;
+    }
+
+    /**
+     * @return the epoch day of the given date.
+     */
+    static int daysFromCivil(int year, int month, int dayOfMonth) {
+        final int y = month <= 2 ? year - 1 : year;
+        final int era = (y >= 0 ? y : y - 399) / 400;
+        final int yoe = y - era * 400;
+        final int doy = (153 * (month > 2 ? month - 3 : month + 9) + 2) / 5 + dayOfMonth - 1;
+        final int doe = yoe * 365 + yoe / 4 - yoe / 100 + doy;
+        return era * 146097 + doe - 719468;
+    }
+
+    private static long floorDiv(long x, long y) {
+        final long q = x / y;
+        return (x % y != 0 && ((x ^ y) < 0)) ? q - 1 : q;
+    }
+
+    private static long floorMod(long x, long y) {
+        return x - floorDiv(x, y) * y;
+    }
+}
@@ -0,0 +1,349 @@
+/*
+ * Copyright (C) 2011 Zeo Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.myzeo.android.api.data.rollup;
+
+import static com.myzeo.android.api.data.ZeoDataContract.SleepRecord;
+
+import com.myzeo.android.api.data.AlarmAlertEventView;
+import com.myzeo.android.api.data.AlarmSnoozeEventView;
+import com.myzeo.android.api.data.AlarmTimeoutEventView;
+import com.myzeo.android.api.data.SleepEpisodeAssembler;
+import com.myzeo.android.api.data.SleepRecordView;
+import com.myzeo.android.api.data.ZeoDataContract.AlarmAlertEvent;
+
+import android.content.ContentResolver;
+import android.database.Cursor;
+
+/**
+ * Lines alarm events up against the base hypnogram of their night to show how smart wake
+ * performs: in which stage each {@link AlarmAlertEvent#REASON} woke the user and how often they
+ * snoozed afterwards.
+ *
+ * <p>
+ *
+ * Nights come from a {@link SleepEpisodeAssembler}, so every table is read in one forward pass
+ * over cursors sorted on the episode id. The hypnogram of the night's primary record, or its only
+ * record, is read once; each alert, snooze and timeout {@code TIMESTAMP} then maps to an epoch by
+ * a single division of its distance from {@link SleepRecord#START_OF_NIGHT}. Snoozes and timeouts
+ * count towards the last alert before them, or the night's first alert.
+ *
+ * </p>
+ *
+ * <p>
+ *
+ * Results are kept in one {@link ReasonStats} per reason, which like {@link Rollup} only add up
+ * and can be merged across analyzers.
+ *
+ * </p>
+ */
+public class SmartWakeAnalyzer implements SleepEpisodeAssembler.Listener {
+
+    /** Duration of one hypnogram epoch. */
+    public static final long EPOCH_MILLIS = 30 * 1000;
+
+    /** Number of alarm reasons, which run from ALARM_REASON_NONE. */
+    public static final int REASON_COUNT = AlarmAlertEvent.ALARM_REASON_WAKE_ON_WAKE + 1;
+
+    /** Epochs of context before and after the alarm used unless specified; five minutes. */
+    public static final int DEFAULT_CONTEXT_EPOCHS = 10;
+
+    /** Aggregates of the alarms that rang for one reason. */
+    public static class ReasonStats {
+        public final int reason;
+
+        /** Alarms that rang. */
+        public int alarms;
+        /** Alarms that rang with smart wake engaged. */
+        public int smartWake;
+        /** Alarms whose time lay outside their night's hypnogram. */
+        public int outsideNight;
+        /** Sum of the alarms' wake windows in minutes. */
+        public long sumWakeWindow;
+
+        /** Alarms snoozed at least once. */
+        public int snoozedAlarms;
+        public int snoozes;
+        public long sumSnoozeMillis;
+        /** Most snoozes of a single alarm. */
+        public int maxSnoozes;
+        /** Alarms that silenced themselves. */
+        public int timeouts;
+        public long sumTimeoutMillis;
+
+        /** Alarms by the stage of the epoch they rang in. */
+        public final int[] stageAtAlarm = new int[SleepRecord.SLEEP_STAGE_NMAX];
+        /** Epochs by stage within the context before the alarm. */
+        public final long[] stagesBefore = new long[SleepRecord.SLEEP_STAGE_NMAX];
+        /** Epochs by stage from the alarm on within the context after it. */
+        public final long[] stagesAfter = new long[SleepRecord.SLEEP_STAGE_NMAX];
+        /** Snoozes by the stage of the epoch they happened in. */
+        public final int[] stageAtSnooze = new int[SleepRecord.SLEEP_STAGE_NMAX];
+
+        ReasonStats(int reason) {
+            this.reason = reason;
+        }
+
+        /** @return snoozes per alarm. */
+        public double meanSnoozes() {
+            return alarms == 0 ? 0 : (double) snoozes / alarms;
+        }
+
+        /** @return mean duration of a snooze. */
+        public long meanSnoozeMillis() {
+            return snoozes == 0 ? 0 : sumSnoozeMillis / snoozes;
+        }
+
+        /**
+         * Add the alarms of other, which must be stats of the same reason.
+         */
+        public void merge(ReasonStats other) {
+            if (other.reason != reason) {
+                throw new IllegalArgumentException("Cannot merge reason " + other.reason
+                                                   + " into " + reason);
+            }
+            alarms += other.alarms;
+            smartWake += other.smartWake;
+            outsideNight += other.outsideNight;
+            sumWakeWindow += other.sumWakeWindow;
+            snoozedAlarms += other.snoozedAlarms;
+            snoozes += other.snoozes;
+            sumSnoozeMillis += other.sumSnoozeMillis;
+            maxSnoozes = Math.max(maxSnoozes, other.maxSnoozes);
+            timeouts += other.timeouts;
+            sumTimeoutMillis += other.sumTimeoutMillis;
+            for (int stage = 0; stage < SleepRecord.SLEEP_STAGE_NMAX; stage++) {
+                stageAtAlarm[stage] += other.stageAtAlarm[stage];
+                stagesBefore[stage] += other.stagesBefore[stage];
+                stagesAfter[stage] += other.stagesAfter[stage];
+                stageAtSnooze[stage] += other.stageAtSnooze[stage];
+            }
+        }
+    }
+
+    private final int mContextEpochs;
+    private final ReasonStats[] mStats = new ReasonStats[REASON_COUNT];
+
+    private int mNights;
+    private int mSkippedNights;
+    private int mSkippedEvents;
+
+    public SmartWakeAnalyzer() {
+        this(DEFAULT_CONTEXT_EPOCHS);
+    }
+
+    /**
+     * @param contextEpochs epochs before and after each alarm whose stages are counted.
+     */
+    public SmartWakeAnalyzer(int contextEpochs) {
+        if (contextEpochs < 0) {
+            throw new IllegalArgumentException("contextEpochs < 0: " + contextEpochs);
+        }
+        mContextEpochs = contextEpochs;
+        for (int reason = 0; reason < REASON_COUNT; reason++) {
+            mStats[reason] = new ReasonStats(reason);
+        }
+    }
+
+    /**
+     * @return index of the epoch holding timestamp in a night starting at startOfNight, which may
+     *     lie past the night's last epoch, or -1 if timestamp precedes the night.
+     */
+    public static int epochIndex(long timestamp, long startOfNight) {
+        final long offset = timestamp - startOfNight;
+        if (offset < 0) {
+            return -1;
+        }
+        return (int) Math.min(offset / EPOCH_MILLIS, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Analyze every night of the Zeo provider, adding to the stats gathered so far.
+     *
+     * @return number of episodes read.
+     */
+    public int analyze(ContentResolver resolver) {
+        return new SleepEpisodeAssembler().assemble(resolver, this);
+    }
+
+    /**
+     * Analyze nights from cursors sorted as {@link SleepEpisodeAssembler#assemble(Cursor, Cursor,
+     * Cursor, Cursor, Cursor, SleepEpisodeAssembler.Listener)} requires, with the events of an
+     * episode in timestamp order. Cursors are not closed.
+     *
+     * @return number of episodes read.
+     */
+    public int analyze(Cursor episodes, Cursor records, Cursor alerts, Cursor snoozes,
+                       Cursor timeouts) {
+        return new SleepEpisodeAssembler().assemble(episodes, records, alerts, snoozes, timeouts,
+                                                    this);
+    }
+
+    @Override
+    public void onNight(SleepEpisodeAssembler.Night night) {
+        final int alerts = night.alerts.count();
+        if (alerts == 0) {
+            return;
+        }
+        final SleepRecordView record = primaryRecord(night);
+        if (record == null) {
+            mSkippedNights++;
+            mSkippedEvents += alerts + night.snoozes.count() + night.timeouts.count();
+            return;
+        }
+        mNights++;
+        final long startOfNight = record.startOfNight();
+        final byte[] stages = record.baseHypnogram();
+        final int epochs = stages == null ? 0 : stages.length;
+
+        // Snoozes and timeouts are walked alongside the alerts they follow.
+        int snooze = 0;
+        int timeout = 0;
+        final int snoozeCount = night.snoozes.count();
+        final int timeoutCount = night.timeouts.count();
+        for (int a = 0; a < alerts; a++) {
+            final AlarmAlertEventView alert = night.alerts.moveTo(a);
+            final int reason = alert.reason();
+            final long timestamp = alert.timestamp();
+            final boolean smartWake = alert.smartWake();
+            final int wakeWindow = alert.wakeWindow();
+            final long nextAlert = a + 1 < alerts
+                ? night.alerts.moveTo(a + 1).timestamp() : Long.MAX_VALUE;
+
+            // Events of an unknown reason are still walked past.
+            final ReasonStats stats = reason >= 0 && reason < REASON_COUNT ? mStats[reason] : null;
+            if (stats == null) {
+                mSkippedEvents++;
+            } else {
+                stats.alarms++;
+                if (smartWake) {
+                    stats.smartWake++;
+                }
+                stats.sumWakeWindow += wakeWindow;
+                final int epoch = epochIndex(timestamp, startOfNight);
+                if (epoch < 0 || epoch >= epochs) {
+                    stats.outsideNight++;
+                } else {
+                    stats.stageAtAlarm[stage(stages[epoch])]++;
+                    countStages(stages, epoch - mContextEpochs, epoch, stats.stagesBefore);
+                    countStages(stages, epoch, epoch + mContextEpochs, stats.stagesAfter);
+                }
+            }
+
+            int snoozed = 0;
+            for (; snooze < snoozeCount; snooze++) {
+                final AlarmSnoozeEventView event = night.snoozes.moveTo(snooze);
+                final long snoozedAt = event.timestamp();
+                if (snoozedAt >= nextAlert) {
+                    break;
+                }
+                if (stats == null) {
+                    mSkippedEvents++;
+                    continue;
+                }
+                snoozed++;
+                stats.sumSnoozeMillis += event.duration();
+                final int epoch = epochIndex(snoozedAt, startOfNight);
+                if (epoch >= 0 && epoch < epochs) {
+                    stats.stageAtSnooze[stage(stages[epoch])]++;
+                }
+            }
+            if (snoozed > 0) {
+                stats.snoozedAlarms++;
+                stats.snoozes += snoozed;
+                stats.maxSnoozes = Math.max(stats.maxSnoozes, snoozed);
+            }
+
+            for (; timeout < timeoutCount; timeout++) {
+                final AlarmTimeoutEventView event = night.timeouts.moveTo(timeout);
+                if (event.timestamp() >= nextAlert) {
+                    break;
+                }
+                if (stats == null) {
+                    mSkippedEvents++;
+                    continue;
+                }
+                stats.timeouts++;
+                stats.sumTimeoutMillis += event.duration();
+            }
+        }
+    }
+
+    /**
+     * @return the night's primary record, else its first, positioned; null if it has none.
+     */
+    private static SleepRecordView primaryRecord(SleepEpisodeAssembler.Night night) {
+        final int count = night.records.count();
+        for (int i = 0; i < count; i++) {
+            final SleepRecordView record = night.records.moveTo(i);
+            if (record.source() == SleepRecord.DATA_SOURCE_PRIMARY) {
+                return record;
+            }
+        }
+        return count == 0 ? null : night.records.moveTo(0);
+    }
+
+    /**
+     * Add the stages of epochs [from, to), clipped to the hypnogram, to counts.
+     */
+    private static void countStages(byte[] stages, int from, int to, long[] counts) {
+        final int end = Math.min(to, stages.length);
+        for (int i = Math.max(from, 0); i < end; i++) {
+            counts[stage(stages[i])]++;
+        }
+    }
+
+    /** @return stage, or SLEEP_STAGE_UNDEFINED if it is not a valid stage. */
+    private static int stage(byte stage) {
+        return stage >= 0 && stage < SleepRecord.SLEEP_STAGE_NMAX
+            ? stage : SleepRecord.SLEEP_STAGE_UNDEFINED;
+    }
+
+    /**
+     * @param reason one of the AlarmAlertEvent.ALARM_REASON_* constants.
+     * @return the stats gathered for reason.
+     */
+    public ReasonStats getStats(int reason) {
+        return mStats[reason];
+    }
+
+    /**
+     * Add the stats of other to this analyzer's.
+     */
+    public void merge(SmartWakeAnalyzer other) {
+        for (int reason = 0; reason < REASON_COUNT; reason++) {
+            mStats[reason].merge(other.mStats[reason]);
+        }
+        mNights += other.mNights;
+        mSkippedNights += other.mSkippedNights;
+        mSkippedEvents += other.mSkippedEvents;
+    }
+
+    /** @return nights with alarms that were analyzed. */
+    public int getNightCount() {
+        return mNights;
+    }
+
+    /** @return nights with alarms but no sleep record. */
+    public int getSkippedNightCount() {
+        return mSkippedNights;
+    }
+
+    /** @return events not counted, for lack of a record or an unknown reason. */
+    public int getSkippedEventCount() {
+        return mSkippedEvents;
+    }
+}